@@ -0,0 +1,75 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka.benchmarks;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import eureka.SourceCodeAnalyzer;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Analysis throughput of SourceCodeAnalyzer with and without identifier splitting.
+ * The score is files per second; the tokens counter gives tokens per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class AnalyzerBenchmark {
+    @Param({ "true", "false" })
+    public boolean splitIdentifiers;
+
+    private List<String> sources;
+    private Analyzer analyzer;
+    private int next;
+
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    @State(Scope.Thread)
+    public static class Counters {
+        public long tokens;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            tokens = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        sources = CorpusGenerator.sources(500, CorpusGenerator.DEFAULT_SEED);
+        analyzer = new SourceCodeAnalyzer(splitIdentifiers);
+    }
+
+    @Benchmark
+    public int analyze(Counters counters) throws IOException {
+        String source = sources.get(next);
+        next = (next + 1) % sources.size();
+        int count = 0;
+        try (TokenStream stream = analyzer.tokenStream("contents", source)) {
+            stream.reset();
+            while (stream.incrementToken()) {
+                count++;
+            }
+            stream.end();
+        }
+        counters.tokens += count;
+        return count;
+    }
+}
@@ -0,0 +1,106 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka.benchmarks;
+
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import eureka.SearchEngine;
+import eureka.SearchHits;
+import eureka.SearchOptions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Query latency with different numbers of search threads (eureka.search.threads), for one query at a time
+ * and for several queries at once. One search thread searches every segment on the calling thread.
+ * Each top-level folder of the corpus is indexed as its own root, so the index has several shards and
+ * many segments. The result cache is turned off, because every iteration repeats the same query.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = { "-Deureka.watcher.enabled=false", "-Deureka.search.cacheEntries=0" })
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ConcurrentSearchBenchmark {
+    @Param({ "20000" })
+    public int fileCount;
+
+    @Param({ "1", "2", "4", "8" })
+    public int searchThreads;
+
+    private Path corpus;
+    private Path index;
+    private SearchEngine engine;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        org.apache.log4j.BasicConfigurator.configure();
+        org.apache.log4j.Logger.getRootLogger().setLevel(org.apache.log4j.Level.WARN);
+        // Read when the engine is opened. Each set of parameters runs in a fork of its own.
+        System.setProperty("eureka.search.threads", Integer.toString(searchThreads));
+        corpus = Files.createTempDirectory("eureka-corpus");
+        index = Files.createTempDirectory("eureka-index");
+        CorpusGenerator.generate(corpus, fileCount, CorpusGenerator.DEFAULT_SEED);
+        engine = SearchEngine.open(index);
+        try (DirectoryStream<Path> folders = Files.newDirectoryStream(corpus)) {
+            for (Path folder : folders) {
+                if (Files.isDirectory(folder))
+                    engine.addFolderToIndex(folder.toString(), false);
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        engine.close();
+        CorpusGenerator.delete(corpus);
+        CorpusGenerator.delete(index);
+    }
+
+    private long search(String query) throws Exception {
+        SearchOptions options = new SearchOptions();
+        options.limit = 100;
+        try (SearchHits hits = engine.performSearch(query, options)) {
+            return hits.toList().size();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long wildcardAlone() throws Exception {
+        return search("pars*");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long wildcardFourAtOnce() throws Exception {
+        return search("pars*");
+    }
+
+    @Benchmark
+    @Threads(16)
+    public long wildcardSixteenAtOnce() throws Exception {
+        return search("pars*");
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long termAlone() throws Exception {
+        return search("handler");
+    }
+}
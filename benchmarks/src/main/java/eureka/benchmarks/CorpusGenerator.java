@@ -0,0 +1,161 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka.benchmarks;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates a synthetic source tree. The output depends only on the file count and the seed,
+ * so results can be compared across runs and across machines.
+ */
+public class CorpusGenerator {
+    public static final long DEFAULT_SEED = 20190101L;
+
+    private static final String[] WORDS = {
+        "user", "account", "request", "response", "handler", "http", "service", "manager", "index", "search",
+        "file", "path", "folder", "query", "result", "cache", "session", "token", "parser", "writer",
+        "reader", "buffer", "stream", "event", "config", "value", "item", "list", "map", "node"
+    };
+    private static final String[] VERBS = { "get", "set", "create", "delete", "update", "find", "load", "save", "parse", "build" };
+    private static final String[] FOLDERS = { "src", "lib", "api", "core", "util", "models", "views", "controllers", "test", "impl" };
+
+    private final Random random;
+
+    private CorpusGenerator(long seed) {
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Writes fileCount source files (a mix of .java and .ts) under root, spread over nested folders.
+     */
+    public static void generate(Path root, int fileCount, long seed) throws IOException {
+        new CorpusGenerator(seed).generate(root, fileCount);
+    }
+
+    /**
+     * Returns the contents of fileCount source files, without writing them to disk.
+     */
+    public static List<String> sources(int fileCount, long seed) {
+        CorpusGenerator generator = new CorpusGenerator(seed);
+        List<String> sources = new ArrayList<String>(fileCount);
+        for (int i = 0; i < fileCount; i++) {
+            String className = pascal(generator.word()) + pascal(generator.word()) + i;
+            sources.add(generator.random.nextBoolean() ? generator.javaSource(className) : generator.typeScriptSource(className));
+        }
+        return sources;
+    }
+
+    private void generate(Path root, int fileCount) throws IOException {
+        for (int i = 0; i < fileCount; i++) {
+            Path folder = root;
+            int depth = 1 + random.nextInt(4);
+            for (int d = 0; d < depth; d++) {
+                folder = folder.resolve(FOLDERS[random.nextInt(FOLDERS.length)]);
+            }
+            Files.createDirectories(folder);
+            String className = pascal(word()) + pascal(word()) + i;
+            boolean java = random.nextBoolean();
+            String source = java ? javaSource(className) : typeScriptSource(className);
+            Files.write(folder.resolve(className + (java ? ".java" : ".ts")), source.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private String javaSource(String className) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("package eureka.generated;\n\n");
+        sb.append("import java.util.List;\n\n");
+        sb.append("/** ").append(sentence()).append(" */\n");
+        sb.append("public class ").append(className).append(" {\n");
+        int fieldCount = 2 + random.nextInt(5);
+        for (int i = 0; i < fieldCount; i++) {
+            sb.append("    private final String ").append(camel()).append(" = \"").append(sentence()).append("\";\n");
+        }
+        int methodCount = 3 + random.nextInt(10);
+        for (int i = 0; i < methodCount; i++) {
+            String method = VERBS[random.nextInt(VERBS.length)] + pascal(word()) + "By" + pascal(word());
+            sb.append("\n    // ").append(sentence()).append("\n");
+            sb.append("    public List<String> ").append(method).append("(String ").append(camel()).append(") {\n");
+            int statements = 1 + random.nextInt(6);
+            for (int s = 0; s < statements; s++) {
+                sb.append("        ").append(camel()).append(".").append(camel()).append("(").append(camel()).append(", ").append(random.nextInt(1000)).append(");\n");
+            }
+            sb.append("        return this.").append(camel()).append("->").append(word()).append(";\n");
+            sb.append("    }\n");
+        }
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    private String typeScriptSource(String className) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("// ").append(sentence()).append("\n\n");
+        sb.append("import { ").append(pascal(word())).append(" } from \"../").append(word()).append("\";\n\n");
+        sb.append("export class ").append(className).append(" {\n");
+        int methodCount = 3 + random.nextInt(10);
+        for (int i = 0; i < methodCount; i++) {
+            String method = VERBS[random.nextInt(VERBS.length)] + pascal(word()) + "By" + pascal(word());
+            sb.append("    public ").append(method).append("(").append(camel()).append(": string): number {\n");
+            int statements = 1 + random.nextInt(6);
+            for (int s = 0; s < statements; s++) {
+                sb.append("        const ").append(word()).append("_").append(word()).append(" = this.").append(camel()).append("(").append(random.nextInt(1000)).append(");\n");
+            }
+            sb.append("        return a.b::").append(word()).append(";\n");
+            sb.append("    }\n\n");
+        }
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    private String word() {
+        return WORDS[random.nextInt(WORDS.length)];
+    }
+
+    private String camel() {
+        return word() + pascal(word());
+    }
+
+    private String sentence() {
+        int count = 4 + random.nextInt(8);
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0)
+                sb.append(' ');
+            sb.append(word());
+        }
+        return sb.toString();
+    }
+
+    private static String pascal(String word) {
+        return Character.toUpperCase(word.charAt(0)) + word.substring(1);
+    }
+
+    /**
+     * Deletes a folder and everything in it.
+     */
+    public static void delete(Path root) throws IOException {
+        if (root == null || !Files.exists(root))
+            return;
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException ex) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -0,0 +1,100 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka.benchmarks;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import eureka.SearchEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Indexing speed: addFileToIndex in documents per second, and addFolderToIndex end to end,
+ * starting from an empty index each time.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = "-Deureka.watcher.enabled=false")
+public class IndexingBenchmark {
+    @Param({ "5000" })
+    public int fileCount;
+
+    private Path corpus;
+    private Path index;
+    private SearchEngine engine;
+    private List<Path> files;
+    private List<BasicFileAttributes> attributes;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        org.apache.log4j.BasicConfigurator.configure();
+        org.apache.log4j.Logger.getRootLogger().setLevel(org.apache.log4j.Level.WARN);
+        corpus = Files.createTempDirectory("eureka-corpus");
+        index = Files.createTempDirectory("eureka-index");
+        CorpusGenerator.generate(corpus, fileCount, CorpusGenerator.DEFAULT_SEED);
+        try (Stream<Path> stream = Files.walk(corpus)) {
+            files = stream.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+        }
+        attributes = new ArrayList<BasicFileAttributes>(files.size());
+        for (Path file : files) {
+            attributes.add(Files.readAttributes(file, BasicFileAttributes.class));
+        }
+        engine = SearchEngine.open(index);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        engine.close();
+        CorpusGenerator.delete(corpus);
+        CorpusGenerator.delete(index);
+    }
+
+    @Setup(Level.Iteration)
+    public void clearIndex() throws Exception {
+        engine.deleteAll();
+        // deleteAll drops the shards too, and addFileToIndex only adds files under an existing shard.
+        engine.createShard(corpus.toString());
+    }
+
+    /**
+     * Adds one file per call, without committing. Once every file has been added, files are
+     * added again, which replaces the existing documents as a re-index would.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    public void addFileToIndex() throws Exception {
+        int i = next;
+        next = (next + 1) % files.size();
+        BasicFileAttributes attrs = attributes.get(i);
+        engine.addFileToIndex(files.get(i), attrs.lastModifiedTime().toMillis(), attrs.size());
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 2)
+    @Measurement(iterations = 5)
+    public void addFolderToIndex() throws Exception {
+        engine.addFolderToIndex(corpus.toString(), false);
+    }
+}
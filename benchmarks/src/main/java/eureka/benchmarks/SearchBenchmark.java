@@ -0,0 +1,123 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka.benchmarks;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import eureka.SearchEngine;
+import eureka.SearchHits;
+import eureka.SearchOptions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Query latency of performSearch. Sample mode reports the distribution, including p50 and p99,
+ * for each kind of query the search box accepts. The result cache is turned off, because every
+ * iteration repeats the same query.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = { "-Deureka.watcher.enabled=false", "-Deureka.search.cacheEntries=0" })
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SearchBenchmark {
+    @Param({ "5000" })
+    public int fileCount;
+
+    private Path corpus;
+    private Path index;
+    private SearchEngine engine;
+    private String filename;
+    // Phrases with a camelCase identifier followed by other words, and between other words.
+    private String[] identifierPhrases;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        org.apache.log4j.BasicConfigurator.configure();
+        org.apache.log4j.Logger.getRootLogger().setLevel(org.apache.log4j.Level.WARN);
+        corpus = Files.createTempDirectory("eureka-corpus");
+        index = Files.createTempDirectory("eureka-index");
+        CorpusGenerator.generate(corpus, fileCount, CorpusGenerator.DEFAULT_SEED);
+        try (Stream<Path> stream = Files.walk(corpus)) {
+            filename = stream.filter(Files::isRegularFile).sorted().findFirst().get().getFileName().toString();
+        }
+        engine = SearchEngine.open(index);
+        engine.addFolderToIndex(corpus.toString(), false);
+        Path javaFile;
+        try (Stream<Path> stream = Files.walk(corpus)) {
+            javaFile = stream.filter(path -> path.toString().endsWith(".java")).sorted().findFirst().get();
+        }
+        Matcher matcher = Pattern.compile("List<String> (\\w+)\\(String (\\w+)\\)").matcher(new String(Files.readAllBytes(javaFile), StandardCharsets.UTF_8));
+        if (!matcher.find())
+            throw new IllegalStateException("no method found in " + javaFile);
+        identifierPhrases = new String[] {
+            "\"" + matcher.group(1) + " String " + matcher.group(2) + "\"",
+            "\"String " + matcher.group(1) + " String\""
+        };
+        for (String phrase : identifierPhrases) {
+            if (search(phrase) == 0)
+                throw new IllegalStateException("phrase search found no files for " + phrase);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        engine.close();
+        CorpusGenerator.delete(corpus);
+        CorpusGenerator.delete(index);
+    }
+
+    private long search(String query) throws Exception {
+        SearchOptions options = new SearchOptions();
+        options.limit = 100;
+        try (SearchHits hits = engine.performSearch(query, options)) {
+            return hits.toList().size();
+        }
+    }
+
+    @Benchmark
+    public long term() throws Exception {
+        return search("handler");
+    }
+
+    @Benchmark
+    public long phrase() throws Exception {
+        return search("\"request handler\"");
+    }
+
+    @Benchmark
+    public long identifierPhrase() throws Exception {
+        long count = 0;
+        for (String phrase : identifierPhrases) {
+            count += search(phrase);
+        }
+        return count;
+    }
+
+    @Benchmark
+    public long wildcard() throws Exception {
+        return search("pars*");
+    }
+
+    @Benchmark
+    public long filename() throws Exception {
+        return search(filename);
+    }
+}
@@ -0,0 +1,119 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka.benchmarks;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import eureka.SearchEngine;
+import eureka.SearchHits;
+import eureka.SearchOptions;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares searching inside identifiers through the query parser (a wildcard query) with the
+ * trigram-backed substring and regular expression modes.
+ * <p>
+ * Setup checks that regular expressions with escapes and quantifier bounds find the files they match,
+ * because text inside those must not be taken as literal text that a file has to contain.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(value = 1, jvmArgsAppend = "-Deureka.watcher.enabled=false")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SubstringSearchBenchmark {
+    // Each of these matches text that is in every generated corpus.
+    private static final String[] ESCAPED_REGEXES = {
+        "getUser{1,10}By",
+        "get\\x55ser",
+        "get\\x{55}ser",
+        "get\\u0055ser",
+        "get\\0125ser",
+        "get\\p{Upper}ser",
+        "\\PLgetUser",
+        "\\cJ    public List",
+        "(?<c>s)\\k<c>",
+        "return a\\Q.b::\\E"
+    };
+
+    @Param({ "5000" })
+    public int fileCount;
+
+    private Path corpus;
+    private Path index;
+    private SearchEngine engine;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        org.apache.log4j.BasicConfigurator.configure();
+        org.apache.log4j.Logger.getRootLogger().setLevel(org.apache.log4j.Level.WARN);
+        corpus = Files.createTempDirectory("eureka-corpus");
+        index = Files.createTempDirectory("eureka-index");
+        CorpusGenerator.generate(corpus, fileCount, CorpusGenerator.DEFAULT_SEED);
+        engine = SearchEngine.open(index);
+        engine.addFolderToIndex(corpus.toString(), false);
+        for (String regex : ESCAPED_REGEXES) {
+            if (search(regex, SearchOptions.Mode.REGEX) == 0)
+                throw new IllegalStateException("regex search found no files for " + regex);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        engine.close();
+        CorpusGenerator.delete(corpus);
+        CorpusGenerator.delete(index);
+    }
+
+    private long search(String query, SearchOptions.Mode mode) throws Exception {
+        SearchOptions options = new SearchOptions();
+        options.mode = mode;
+        options.limit = 100;
+        try (SearchHits hits = engine.performSearch(query, options)) {
+            return hits.toList().size();
+        }
+    }
+
+    @Benchmark
+    public long wildcard() throws Exception {
+        return search("getuser*", SearchOptions.Mode.TEXT);
+    }
+
+    @Benchmark
+    public long substring() throws Exception {
+        return search("getUser", SearchOptions.Mode.SUBSTRING);
+    }
+
+    @Benchmark
+    public long substringPunctuation() throws Exception {
+        return search("a.b::index", SearchOptions.Mode.SUBSTRING);
+    }
+
+    @Benchmark
+    public long regex() throws Exception {
+        return search("get\\w+ByIndex", SearchOptions.Mode.REGEX);
+    }
+
+    @Benchmark
+    public long regexEscapes() throws Exception {
+        long count = 0;
+        for (String regex : ESCAPED_REGEXES) {
+            count += search(regex, SearchOptions.Mode.REGEX);
+        }
+        return count;
+    }
+}
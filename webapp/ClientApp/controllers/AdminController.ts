@@ -133,8 +133,13 @@ export class AdminController extends MvcRouter.Controller {
         this.adminPage.displayResult('Indexing is in progress.');
         if (window['EventSource']) {
             const es = new EventSource('/eureka-service/api/searchengine/progress');
-            es.addEventListener('message', ev => {
-                this.isLoaded() && this.adminPage.displayProgress('Currently indexing ' + ev.data);
+            es.addEventListener('progress', (ev: MessageEvent) => {
+                const progress = JSON.parse(ev.data);
+                if (this.isLoaded() && !progress.done && progress.currentFile) {
+                    const total = (progress.totalFinal ? '' : 'at least ') + progress.filesTotal;
+                    const eta = progress.etaSeconds >= 0 ? `, about ${progress.etaSeconds}s left` : '';
+                    this.adminPage.displayProgress(`Indexed ${progress.filesDone} of ${total} files${eta}. Currently indexing ${progress.currentFile}`);
+                }
             });
             es.addEventListener('error', (ev) => {
                 if (this.isLoaded()) {
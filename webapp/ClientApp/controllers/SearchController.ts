@@ -2,11 +2,20 @@
 
 import { App } from "../App";
 import { SearchPage, SearchPageProps } from "../views/SearchPage";
+import { Filter } from "../views/FilterControl";
+import { SearchResultItem } from "../models/SearchResultItem";
 import { MessageBox } from "../views/MessageBox";
 import * as Utils from "../Utils";
 
+// Number of results requested at a time.
+const PageSize = 200;
+
 export class SearchController extends MvcRouter.Controller {
     private searchPage: SearchPage;
+    private query: string;
+    private filter: Filter;
+    private nextCursor: string;
+    private searchCount = 0;
 
     constructor(protected app: App) {
         super();
@@ -17,10 +26,13 @@ export class SearchController extends MvcRouter.Controller {
 
         const props: SearchPageProps = {
             onSearchClick: () => this.onSearchClick(),
+            onQueryInput: text => this.onQueryInput(text),
             onManageClick: () => this.onManageClick(),
             onFileClick: path => this.onFileClick(path),
             onFolderChanged: folder => this.onFolderChanged(folder),
-            onHistoryClicked: path => this.onHistoryClicked(path)
+            onHistoryClicked: path => this.onHistoryClicked(path),
+            onFilterChanged: filter => this.onFilterChanged(filter),
+            onMoreClick: () => this.onMoreClick()
         };
         props.ref = component => {
             if (component) {
@@ -90,21 +102,86 @@ export class SearchController extends MvcRouter.Controller {
             .catch(error => console.log(error));
     }
 
+    private onQueryInput(text: string): void {
+        // Complete the last word typed.
+        const words = text.split(/\s+/);
+        const prefix = words[words.length - 1];
+        if (prefix.length < 2) {
+            this.searchPage.displaySuggestions([]);
+            return;
+        }
+        fetch(`/eureka-service/api/searchengine/suggest?prefix=${encodeURIComponent(prefix)}`)
+            .then(response => response.json())
+            .then(result => Utils.validateResult(result))
+            .then(result => {
+                // Ignore suggestions for text that has since been changed.
+                if (this.isLoaded() && this.searchPage.getQuery() === text) {
+                    const start = text.substring(0, text.length - prefix.length);
+                    this.searchPage.displaySuggestions(result.map(suggestion => start + suggestion.text));
+                }
+            })
+            .catch(error => console.log(error));
+    }
+
     private onSearchClick(): void {
         const query = this.searchPage.getQuery();
         if (!query) {
             MessageBox.show("Enter search terms then press Search.");
             return;
         }
-        fetch(`/eureka-service/api/searchengine/search?query=${encodeURIComponent(query)}`)
-            .then(response => response.json())
+        // The filter control is rebuilt for the new results, so start without a filter.
+        this.query = query;
+        this.filter = null;
+        this.search(null, result => {
+            this.searchPage.displayResult(result, !!this.nextCursor, false);
+            this.searchPage.displayFilter(result);
+        });
+    }
+
+    private onFilterChanged(filter: Filter): void {
+        this.filter = filter;
+        if (!this.query)
+            return;
+        this.search(null, result => this.searchPage.displayResult(result, !!this.nextCursor, !!filter));
+    }
+
+    private onMoreClick(): void {
+        if (!this.nextCursor)
+            return;
+        this.search(this.nextCursor, result => this.searchPage.appendResult(result, !!this.nextCursor, !!this.filter));
+    }
+
+    /**
+     * Requests a page of results for the current query and filter, and passes it to display,
+     * unless another search has been started since.
+     */
+    private search(after: string, display: (result: SearchResultItem[]) => void): void {
+        const searchId = ++this.searchCount;
+        let url = `/eureka-service/api/searchengine/search?query=${encodeURIComponent(this.query)}&limit=${PageSize}`;
+        const filter = this.filter;
+        if (filter) {
+            if (filter.extensions)
+                filter.extensions.forEach(ext => url += `&ext=${encodeURIComponent(ext)}`);
+            if (filter.folder)
+                url += `&folder=${encodeURIComponent(filter.folder)}`;
+            if (filter.exclude)
+                filter.exclude.forEach(folder => url += `&exclude=${encodeURIComponent(folder)}`);
+        }
+        if (after)
+            url += `&after=${encodeURIComponent(after)}`;
+        fetch(url)
+            .then(response => response.json().then(result => {
+                if (searchId === this.searchCount)
+                    this.nextCursor = response.headers.get('X-Next-After');
+                return result;
+            }))
             .then(result => Utils.validateResult(result))
             .then(result => {
-                if (this.isLoaded()) {
-                    this.searchPage.displayResult(result);
+                if (this.isLoaded() && searchId === this.searchCount) {
+                    display(result);
                 }
             })
-            .catch(error => this.isLoaded() && this.searchPage.displayError(error));
+            .catch(error => this.isLoaded() && searchId === this.searchCount && this.searchPage.displayError(error));
     }
 
     private onHistoryClicked(path: string): void {
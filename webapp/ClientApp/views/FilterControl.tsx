@@ -2,7 +2,7 @@
 
 export interface Filter {
     extensions?: string[];
-    include?: string[];
+    folder?: string;
     exclude?: string[];
 }
 
@@ -13,7 +13,7 @@ export interface FilterControlProps {
 
 export class FilterControl extends UIBuilder.Component<FilterControlProps> {
     private root: HTMLElement;
-    private includeInput: HTMLInputElement;
+    private folderInput: HTMLInputElement;
     private excludeInput: HTMLInputElement;
     private timeoutId: number;
 
@@ -32,10 +32,10 @@ export class FilterControl extends UIBuilder.Component<FilterControlProps> {
 
         let filter: Filter = {
             extensions: selectedExtensions,
-            include: this.includeInput.value.split(',').map(s => s.trim()).filter(s => s),
+            folder: this.folderInput.value.trim(),
             exclude: this.excludeInput.value.split(',').map(s => s.trim()).filter(s => s)
         };
-        if (!filter.extensions && filter.include.length === 0 && filter.exclude.length === 0)
+        if (!filter.extensions && !filter.folder && filter.exclude.length === 0)
             filter = null;
 
         this.props.onFilterChanged(filter);
@@ -75,12 +75,12 @@ export class FilterControl extends UIBuilder.Component<FilterControlProps> {
                                 onInput={ev => this.onInput(ev)} ref={el => this.root = el}>
                 <div className="textinput-row">
                     <div className="filter-input">
-                        <div className="filter-label">Only show paths that contain:</div>
+                        <div className="filter-label">Only show files in folder:</div>
                         <div><input type="text" spellcheck={false}
-                                    placeholder="Enter comma-separated list" ref={el => this.includeInput = el} /></div>
+                                    placeholder="Enter folder path" ref={el => this.folderInput = el} /></div>
                     </div>
                     <div className="filter-input">
-                        <div className="filter-label">Exclude paths that contain: </div>
+                        <div className="filter-label">Exclude folders named: </div>
                         <div><input type="text" spellcheck={false}
                                     placeholder="Enter comma-separated list" ref={el => this.excludeInput = el} /></div>
                     </div>
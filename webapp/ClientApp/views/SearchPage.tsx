@@ -10,10 +10,13 @@ import * as Utils from "../Utils";
 
 export interface SearchPageProps extends UIBuilder.Props<SearchPage> {
     onSearchClick: () => void;
+    onQueryInput: (text: string) => void;
     onManageClick: () => void;
     onFileClick: (path: string) => void;
     onFolderChanged: (folder: string) => void;
     onHistoryClicked: (path: string) => void;
+    onFilterChanged: (filter: Filter) => void;
+    onMoreClick: () => void;
 }
 
 export class SearchPage extends UIBuilder.Component<SearchPageProps> {
@@ -21,10 +24,12 @@ export class SearchPage extends UIBuilder.Component<SearchPageProps> {
     private splitterControl: SplitterControl;
     private input: HTMLInputElement;
     private hiddenInput: HTMLInputElement;
+    private suggestionList: HTMLDataListElement;
     private errorDisplay: HTMLElement;
     private searchDisplay: HTMLElement;
     private filterDisplay: HTMLElement;
     private sourceCodeViewer: SourceCodeViewer;
+    private results: SearchResultItem[] = [];
 
     constructor(props) {
         super(props);
@@ -38,6 +43,11 @@ export class SearchPage extends UIBuilder.Component<SearchPageProps> {
         return this.input.value;
     }
 
+    public displaySuggestions(suggestions: string[]): void {
+        this.suggestionList.innerHTML = '';
+        suggestions.forEach(suggestion => this.suggestionList.appendChild(<option value={suggestion} />));
+    }
+
     public layout(): void {
         this.splitterControl.layout();
         if (this.sourceCodeViewer)
@@ -53,44 +63,34 @@ export class SearchPage extends UIBuilder.Component<SearchPageProps> {
         );
     }
 
-    public displayResult(result: SearchResultItem[]): void {
+    /**
+     * Displays the first page of results in place of the ones displayed.
+     */
+    public displayResult(result: SearchResultItem[], hasMore: boolean, filtered: boolean): void {
         this.displayError('');
-        this.renderResult(result, null);
-        this.renderFilter(result);
-    }
-
-    private filterResults(result: SearchResultItem[], filter: Filter): SearchResultItem[] {
-        const extensions: { [key: string]: any } = {};
-        if (filter.extensions)
-            filter.extensions.forEach(ext => extensions[ext] = true);
-        return result.filter(result => {
-            const path = result.path.toLowerCase();
-            if (filter.extensions) {
-                if (!extensions[Utils.getFilenameExtension(path)])
-                    return false;
-            }
-            if (filter.include && filter.include.length) {
-                for (const inc of filter.include) {
-                    if (path.indexOf(inc) === -1)
-                        return false;
-                }
-            }
-            if (filter.exclude && filter.exclude.length) {
-                for (const ex of filter.exclude) {
-                    if (path.indexOf(ex) !== -1)
-                        return false;
-                }
-            }
-            return true;
-        });
+        this.results = result;
+        this.renderResult(hasMore, filtered);
     }
 
-    private renderResult(result: SearchResultItem[], filter: Filter): void {
-        const noRowsMessage = filter ? "No matching results." : "No results returned.";
-        const filteredResults = filter ? this.filterResults(result, filter) : result;
-        const resultDisplay = this.getRendering(filteredResults, noRowsMessage);
+    /**
+     * Displays the next page of results after the ones already displayed.
+     */
+    public appendResult(result: SearchResultItem[], hasMore: boolean, filtered: boolean): void {
+        this.displayError('');
+        this.results = this.results.concat(result);
+        this.renderResult(hasMore, filtered);
+    }
+
+    private renderResult(hasMore: boolean, filtered: boolean): void {
+        const noRowsMessage = filtered ? "No matching results." : "No results returned.";
+        const resultDisplay = this.getRendering(this.results, noRowsMessage);
         this.searchDisplay.innerHTML = '';
         this.searchDisplay.appendChild(resultDisplay);
+        if (hasMore) {
+            this.searchDisplay.appendChild(
+                <button type="button" className="more-button" onClick={() => this.props.onMoreClick()}>More results</button>
+            );
+        }
         window.setTimeout(() => {
             this.splitterControl.relayout();
             if (this.sourceCodeViewer)
@@ -151,14 +151,13 @@ export class SearchPage extends UIBuilder.Component<SearchPageProps> {
         return Object.keys(map).sort();
     }
 
-    private onFilterChanged(result: SearchResultItem[], filter: Filter): void {
-        this.renderResult(result, filter);
-    }
-
-    private renderFilter(result: SearchResultItem[]): void {
+    /**
+     * Displays a new filter, with a checkbox for each extension in the given results.
+     */
+    public displayFilter(result: SearchResultItem[]): void {
         const extensions = SearchPage.getFilenameExtensions(result);
         this.filterDisplay.innerHTML = '';
-        const el = <FilterControl extensions={extensions} onFilterChanged={filter => this.onFilterChanged(result, filter)} />;
+        const el = <FilterControl extensions={extensions} onFilterChanged={filter => this.props.onFilterChanged(filter)} />;
         this.filterDisplay.appendChild(el);
     }
 
@@ -175,7 +174,9 @@ export class SearchPage extends UIBuilder.Component<SearchPageProps> {
                     <div className="input-panel">
                         <div className="searchbox">
                             <input type="text" className="query-input" spellcheck={false} onKeyPress={ev => this.onKeyPress(ev)}
+                                   onInput={() => this.props.onQueryInput(this.input.value)} list="query-suggestions"
                                    placeholder="Type search terms here" ref={el => this.input = el} />
+                            <datalist id="query-suggestions" ref={el => this.suggestionList = el}></datalist>
                             <button type="button" className="clear-button" onClick={() => this.onClearClick()}>
                                 <i class="fas fa-times"></i>
                             </button>
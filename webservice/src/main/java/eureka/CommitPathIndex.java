@@ -0,0 +1,91 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * For one repository, maps each file path to the commits that changed it, newest first. The commits are
+ * walked once; when HEAD moves, only the new commits are walked and their paths added to the front.
+ *
+ * A commit changed a path if the file differs from every parent, which is what git log shows for a path
+ * with its default history simplification: merges that took the file unchanged from one side are left out.
+ */
+class CommitPathIndex {
+    private ObjectId head;   // guarded by this
+    private final Map<String, List<ObjectId>> commitsByPath = new HashMap<String, List<ObjectId>>();   // guarded by this
+
+    /**
+     * Returns the commits reachable from head that changed the file, newest first, or null if the path
+     * is not a file that was ever committed (it may be a folder).
+     */
+    synchronized List<ObjectId> getCommits(Repository repo, ObjectId newHead, String path) throws IOException {
+        if (!newHead.equals(head))
+            update(repo, newHead);
+        List<ObjectId> commits = commitsByPath.get(path);
+        return commits != null ? Collections.unmodifiableList(commits) : null;
+    }
+
+    private void update(Repository repo, ObjectId newHead) throws IOException {
+        Map<String, List<ObjectId>> added = new HashMap<String, List<ObjectId>>();
+        try (RevWalk walk = new RevWalk(repo); TreeWalk treeWalk = new TreeWalk(repo)) {
+            RevCommit newCommit = walk.parseCommit(newHead);
+            // If HEAD moved forward, only walk the new commits. Otherwise (a reset or a rebase) start over.
+            boolean forward = head != null && repo.getObjectDatabase().has(head) && walk.isMergedInto(walk.parseCommit(head), newCommit);
+            walk.reset();
+            walk.markStart(newCommit);
+            if (forward)
+                walk.markUninteresting(walk.parseCommit(head));
+            else
+                commitsByPath.clear();
+
+            treeWalk.setRecursive(true);
+            for (RevCommit commit : walk) {
+                treeWalk.reset();
+                treeWalk.addTree(commit.getTree());
+                for (RevCommit parent : commit.getParents()) {
+                    treeWalk.addTree(walk.parseCommit(parent).getTree());
+                }
+                treeWalk.setFilter(TreeFilter.ANY_DIFF);
+                ObjectId commitId = commit.copy();
+                while (treeWalk.next()) {
+                    if (differsFromAllParents(treeWalk)) {
+                        String path = treeWalk.getPathString();
+                        List<ObjectId> commits = added.get(path);
+                        if (commits == null) {
+                            commits = new ArrayList<ObjectId>();
+                            added.put(path, commits);
+                        }
+                        commits.add(commitId);
+                    }
+                }
+            }
+        }
+        for (Map.Entry<String, List<ObjectId>> entry : added.entrySet()) {
+            List<ObjectId> existing = commitsByPath.get(entry.getKey());
+            if (existing != null)
+                entry.getValue().addAll(existing);
+            commitsByPath.put(entry.getKey(), entry.getValue());
+        }
+        head = newHead.copy();
+    }
+
+    private static boolean differsFromAllParents(TreeWalk treeWalk) {
+        for (int i = 1; i < treeWalk.getTreeCount(); i++) {
+            if (treeWalk.getRawMode(0) == treeWalk.getRawMode(i) && treeWalk.idEqual(0, i))
+                return false;
+        }
+        return true;
+    }
+}
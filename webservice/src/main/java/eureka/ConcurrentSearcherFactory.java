@@ -0,0 +1,133 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherFactory;
+
+/**
+ * Creates searchers that search slices of an index on a shared thread pool, so that one query can use
+ * several cores.
+ * <p>
+ * Segments are grouped into slices of up to eureka.search.maxDocsPerSlice documents and
+ * eureka.search.maxSegmentsPerSlice segments, so small segments do not each cost a task. The pool has
+ * eureka.search.threads threads and a queue of eureka.search.queueSize slices; when the queue is full the
+ * searching thread runs the slice itself, so a busy server degrades to searching sequentially instead of
+ * failing. With one thread, searchers search on the calling thread.
+ * <p>
+ * Searchers created for a SearcherManager are warmed up before the manager publishes them.
+ */
+class ConcurrentSearcherFactory extends SearcherFactory implements Closeable {
+    private static final int THREADS = Settings.getInt("eureka.search.threads", Runtime.getRuntime().availableProcessors());
+    private static final int QUEUE_SIZE = Settings.getInt("eureka.search.queueSize", 1000);
+    private static final int MAX_DOCS_PER_SLICE = Settings.getInt("eureka.search.maxDocsPerSlice", 250000);
+    private static final int MAX_SEGMENTS_PER_SLICE = Settings.getInt("eureka.search.maxSegmentsPerSlice", 5);
+
+    private final ThreadPoolExecutor executor;
+    private final Warmer warmer;
+
+    /**
+     * Prepares a new searcher before it is used, for example by running some queries on it.
+     */
+    interface Warmer {
+        void warm(IndexSearcher searcher);
+    }
+
+    /**
+     * @param warmer Warms up the searchers of SearcherManagers, or null.
+     */
+    ConcurrentSearcherFactory(Warmer warmer) {
+        this.warmer = warmer;
+        if (THREADS <= 1) {
+            executor = null;
+            return;
+        }
+        final AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(THREADS, THREADS, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(Math.max(1, QUEUE_SIZE)),
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "eureka-search-" + threadCount.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            },
+            new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    @Override
+    public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) {
+        IndexSearcher searcher = newSearcher(reader);
+        if (warmer != null)
+            warmer.warm(searcher);
+        return searcher;
+    }
+
+    /**
+     * Returns a searcher that is not warmed up, for a reader that is only used for one search.
+     */
+    IndexSearcher newSearcher(IndexReader reader) {
+        return executor != null ? new SlicedIndexSearcher(reader, executor) : new IndexSearcher(reader);
+    }
+
+    int getActiveThreads() {
+        return executor != null ? executor.getActiveCount() : 0;
+    }
+
+    int getQueuedSlices() {
+        return executor != null ? executor.getQueue().size() : 0;
+    }
+
+    @Override
+    public void close() {
+        if (executor != null)
+            executor.shutdown();
+    }
+
+    /**
+     * Groups segments, largest first, into slices that are not too large and do not have too many segments.
+     * A segment larger than the limit is a slice of its own.
+     */
+    static IndexSearcher.LeafSlice[] slice(List<LeafReaderContext> leaves, int maxDocsPerSlice, int maxSegmentsPerSlice) {
+        List<LeafReaderContext> sorted = new ArrayList<LeafReaderContext>(leaves);
+        sorted.sort(Comparator.comparingInt((LeafReaderContext leaf) -> leaf.reader().maxDoc()).reversed());
+        List<IndexSearcher.LeafSlice> slices = new ArrayList<IndexSearcher.LeafSlice>();
+        List<LeafReaderContext> group = new ArrayList<LeafReaderContext>();
+        long docs = 0;
+        for (LeafReaderContext leaf : sorted) {
+            if (!group.isEmpty() && (docs + leaf.reader().maxDoc() > maxDocsPerSlice || group.size() >= maxSegmentsPerSlice)) {
+                slices.add(new IndexSearcher.LeafSlice(group.toArray(new LeafReaderContext[group.size()])));
+                group.clear();
+                docs = 0;
+            }
+            group.add(leaf);
+            docs += leaf.reader().maxDoc();
+        }
+        if (!group.isEmpty())
+            slices.add(new IndexSearcher.LeafSlice(group.toArray(new LeafReaderContext[group.size()])));
+        return slices.toArray(new IndexSearcher.LeafSlice[slices.size()]);
+    }
+
+    private static class SlicedIndexSearcher extends IndexSearcher {
+        SlicedIndexSearcher(IndexReader reader, ThreadPoolExecutor executor) {
+            super(reader, executor);
+        }
+
+        // Called from the IndexSearcher constructor, so this can only use static settings.
+        @Override
+        protected LeafSlice[] slices(List<LeafReaderContext> leaves) {
+            return slice(leaves, MAX_DOCS_PER_SLICE, MAX_SEGMENTS_PER_SLICE);
+        }
+    }
+}
@@ -0,0 +1,156 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Date;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+
+/**
+ * Builds responses that stream file contents, with support for conditional requests (ETag and
+ * Last-Modified, answered with 304 Not Modified) and for a single byte range (206 Partial Content).
+ * Requests for several ranges are answered with the whole file, which HTTP allows.
+ */
+final class ContentResponses {
+    static final String TEXT_UTF8 = "text/plain; charset=utf-8";
+
+    /** Writes part of the content to the response. */
+    interface ContentWriter {
+        void write(OutputStream out, long offset, long count) throws IOException;
+    }
+
+    private ContentResponses() {
+    }
+
+    /**
+     * @param length The length of the content in bytes.
+     * @param lastModified When the content last changed, or null if unknown.
+     * @param close Called when the response is complete, including when nothing is written. May be null.
+     */
+    static Response build(Request request, String range, String ifRange, long length, EntityTag etag, Date lastModified,
+                          String mediaType, final ContentWriter writer, final Runnable close) {
+        boolean written = false;
+        try {
+            Response.ResponseBuilder notModified = lastModified != null ? request.evaluatePreconditions(lastModified, etag) : request.evaluatePreconditions(etag);
+            if (notModified != null)
+                return withCacheHeaders(notModified, etag, lastModified).build();
+
+            long start = 0, end = length - 1;
+            boolean partial = false;
+            // A range only applies if the client's copy, named by If-Range, is still current.
+            if (range != null && (ifRange == null || ifRange.equals(etag.toString()))) {
+                long[] bounds = parseRange(range, length);
+                if (bounds == null) {
+                    return withCacheHeaders(Response.status(416), etag, lastModified)
+                        .header("Content-Range", "bytes */" + length)
+                        .build();
+                }
+                if (bounds.length == 2) {
+                    start = bounds[0];
+                    end = bounds[1];
+                    partial = true;
+                }
+            }
+
+            final long offset = start, count = end - start + 1;
+            StreamingOutput output = new StreamingOutput() {
+                @Override
+                public void write(OutputStream out) throws IOException {
+                    try {
+                        if (count > 0)
+                            writer.write(out, offset, count);
+                    }
+                    finally {
+                        if (close != null)
+                            close.run();
+                    }
+                }
+            };
+            Response.ResponseBuilder builder = partial ? Response.status(206).header("Content-Range", "bytes " + start + "-" + end + "/" + length) : Response.ok();
+            builder.entity(output).type(mediaType).header("Content-Length", Math.max(count, 0));
+            written = true;
+            return withCacheHeaders(builder, etag, lastModified).build();
+        }
+        finally {
+            if (!written && close != null)
+                close.run();
+        }
+    }
+
+    /**
+     * Browsers may keep the content, but must check that it is still current before using it.
+     */
+    private static Response.ResponseBuilder withCacheHeaders(Response.ResponseBuilder builder, EntityTag etag, Date lastModified) {
+        builder.tag(etag).header("Accept-Ranges", "bytes").header("Cache-Control", "no-cache");
+        if (lastModified != null)
+            builder.lastModified(lastModified);
+        return builder;
+    }
+
+    /**
+     * Copies count bytes, starting at offset, from a stream that can't be positioned.
+     */
+    static void copyRange(InputStream in, OutputStream out, long offset, long count) throws IOException {
+        while (offset > 0) {
+            long skipped = in.skip(offset);
+            if (skipped <= 0) {
+                if (in.read() == -1)
+                    throw new IOException("Unexpected end of content.");
+                skipped = 1;
+            }
+            offset -= skipped;
+        }
+        byte[] buffer = new byte[8192];
+        while (count > 0) {
+            int n = in.read(buffer, 0, (int) Math.min(buffer.length, count));
+            if (n == -1)
+                throw new IOException("Unexpected end of content.");
+            out.write(buffer, 0, n);
+            count -= n;
+        }
+    }
+
+    /**
+     * Parses a Range header. Returns the first and last byte of a single satisfiable range, an empty array
+     * if the header should be ignored, or null if the range can't be satisfied.
+     */
+    static long[] parseRange(String range, long length) {
+        range = range.trim();
+        if (!range.startsWith("bytes=") || range.indexOf(',') != -1)
+            return new long[0];
+        String spec = range.substring("bytes=".length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash == -1)
+            return new long[0];
+        try {
+            String first = spec.substring(0, dash).trim(), last = spec.substring(dash + 1).trim();
+            long start, end;
+            if (first.isEmpty()) {
+                // The last n bytes.
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0)
+                    return null;
+                start = Math.max(0, length - suffix);
+                end = length - 1;
+            }
+            else {
+                start = Long.parseLong(first);
+                end = last.isEmpty() ? Long.MAX_VALUE : Long.parseLong(last);
+                if (end < start)
+                    return new long[0];
+                end = Math.min(end, length - 1);
+            }
+            if (start >= length || start < 0)
+                return null;
+            return new long[] { start, end };
+        }
+        catch (NumberFormatException ex) {
+            return new long[0];
+        }
+    }
+}
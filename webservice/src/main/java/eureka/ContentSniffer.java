@@ -0,0 +1,180 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Decides from the first few kilobytes of a file whether it is worth indexing, and how to decode it.
+ * <p>
+ * A file is skipped if it is larger than eureka.index.maxFileBytes, if its header looks binary (a NUL byte, or
+ * mostly control characters), or if it looks minified or generated (an average line length over
+ * eureka.index.maxAverageLineLength). Files are decoded as UTF-8 or UTF-16 if they start with a byte order
+ * mark, as UTF-8 if the header is valid UTF-8, and otherwise as ISO-8859-1, so that every byte is a character.
+ * <p>
+ * Files are read through a FileChannel: the header into a buffer that each thread reuses, and the rest only
+ * if the header passes, so a large binary costs one small read.
+ */
+class ContentSniffer {
+    static final String TOO_LARGE = "too_large";
+    static final String BINARY = "binary";
+    static final String MINIFIED = "minified";
+
+    static final long MAX_FILE_BYTES = Settings.getLong("eureka.index.maxFileBytes", 10L * 1024 * 1024);
+    private static final int MAX_AVERAGE_LINE_LENGTH = Settings.getInt("eureka.index.maxAverageLineLength", 500);
+    private static final int HEADER_BYTES = 8192;
+    // A header this short says little about line lengths.
+    private static final int MIN_BYTES_FOR_LINE_CHECK = 2048;
+    private static final byte[] UTF8_BOM = { (byte) 0xEF, (byte) 0xBB, (byte) 0xBF };
+    private static final byte[] UTF16BE_BOM = { (byte) 0xFE, (byte) 0xFF };
+    private static final byte[] UTF16LE_BOM = { (byte) 0xFF, (byte) 0xFE };
+
+    private static final ThreadLocal<ByteBuffer> headerBuffer = ThreadLocal.withInitial(() -> ByteBuffer.allocate(HEADER_BYTES));
+
+    private ContentSniffer() {
+    }
+
+    /**
+     * The contents of a file, or the reason it was not read.
+     */
+    static class Content {
+        final byte[] bytes;
+        final String skipReason;
+
+        private Content(byte[] bytes, String skipReason) {
+            this.bytes = bytes;
+            this.skipReason = skipReason;
+        }
+    }
+
+    /**
+     * Reads a file, unless its size or header show that it should not be indexed.
+     * @param size The size of the file when it was found. A file that has since grown is read up to this size.
+     */
+    static Content read(FileChannel channel, long size) throws IOException {
+        if (size > MAX_FILE_BYTES)
+            return new Content(null, TOO_LARGE);
+        ByteBuffer header = headerBuffer.get();
+        header.clear();
+        if (size < header.capacity())
+            header.limit((int) size);
+        while (header.hasRemaining() && channel.read(header) >= 0) {
+        }
+        header.flip();
+        String skipReason = getSkipReason(header);
+        if (skipReason != null)
+            return new Content(null, skipReason);
+        byte[] bytes = new byte[(int) size];
+        int length = header.remaining();
+        header.get(bytes, 0, length);
+        ByteBuffer rest = ByteBuffer.wrap(bytes, length, bytes.length - length);
+        while (rest.hasRemaining() && channel.read(rest) >= 0) {
+        }
+        // The file may have shrunk since it was found.
+        return new Content(rest.position() < bytes.length ? Arrays.copyOf(bytes, rest.position()) : bytes, null);
+    }
+
+    /**
+     * Checks contents that are already in memory, such as a git blob.
+     * @return The reason to skip the contents, or null if they can be indexed.
+     */
+    static String getSkipReason(byte[] bytes) {
+        if (bytes.length > MAX_FILE_BYTES)
+            return TOO_LARGE;
+        return getSkipReason(ByteBuffer.wrap(bytes, 0, Math.min(bytes.length, HEADER_BYTES)));
+    }
+
+    private static String getSkipReason(ByteBuffer header) {
+        int start = header.position();
+        int length = header.remaining();
+        if (startsWith(header, UTF16BE_BOM) || startsWith(header, UTF16LE_BOM))
+            return null;
+        int controls = 0;
+        int lines = 1;
+        for (int i = start; i < start + length; i++) {
+            byte b = header.get(i);
+            if (b == 0)
+                return BINARY;
+            if (b == '\n')
+                lines++;
+            else if (b >= 0 && b < 0x20 && b != '\t' && b != '\r' && b != '\f')
+                controls++;
+        }
+        if (controls > length / 10)
+            return BINARY;
+        if (length >= MIN_BYTES_FOR_LINE_CHECK && length / lines > MAX_AVERAGE_LINE_LENGTH)
+            return MINIFIED;
+        return null;
+    }
+
+    /**
+     * Decodes the contents of a file, without its byte order mark. Invalid input is replaced, never rejected.
+     * Indexing, highlighting and substring matching all decode files this way, so that offsets agree.
+     */
+    static CharBuffer decode(ByteBuffer bytes) {
+        Charset charset;
+        if (startsWith(bytes, UTF8_BOM)) {
+            charset = StandardCharsets.UTF_8;
+            bytes.position(bytes.position() + UTF8_BOM.length);
+        }
+        else if (startsWith(bytes, UTF16BE_BOM)) {
+            charset = StandardCharsets.UTF_16BE;
+            bytes.position(bytes.position() + UTF16BE_BOM.length);
+        }
+        else if (startsWith(bytes, UTF16LE_BOM)) {
+            charset = StandardCharsets.UTF_16LE;
+            bytes.position(bytes.position() + UTF16LE_BOM.length);
+        }
+        else {
+            charset = isUtf8(bytes) ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1;
+        }
+        try {
+            return charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE)
+                .decode(bytes);
+        }
+        catch (CharacterCodingException ex) {
+            // Not thrown when errors are replaced.
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    static String decode(byte[] bytes) {
+        return decode(ByteBuffer.wrap(bytes)).toString();
+    }
+
+    /**
+     * Returns true if the header is valid UTF-8. A character cut off at the end of the header is allowed.
+     */
+    private static boolean isUtf8(ByteBuffer bytes) {
+        ByteBuffer header = bytes.duplicate();
+        header.limit(header.position() + Math.min(header.remaining(), HEADER_BYTES));
+        CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+        CharBuffer chars = CharBuffer.allocate(header.remaining());
+        CoderResult result = decoder.decode(header, chars, header.limit() == bytes.limit());
+        return !result.isError();
+    }
+
+    private static boolean startsWith(ByteBuffer bytes, byte[] prefix) {
+        if (bytes.remaining() < prefix.length)
+            return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (bytes.get(bytes.position() + i) != prefix[i])
+                return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,178 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps the entries of recently listed folders, with their sizes and modified times, so that expanding a
+ * folder in the file browser does not stat every file again. Stats are slow on some file systems, such as
+ * bind mounts in Docker Desktop.
+ * <p>
+ * A listing is used for up to eureka.folders.cacheSeconds, and listings are dropped least recently used
+ * first when the cache holds more than eureka.folders.cacheEntries entries in all. Indexing a folder lists
+ * every folder it walks into, at no extra cost, and changes seen by the index watcher drop the listings
+ * they affect.
+ */
+class DirectoryCache {
+    // Folders first, then by name, ignoring case where that doesn't tie.
+    static final Comparator<FolderEntry> BY_NAME = Comparator.comparing((FolderEntry entry) -> !entry.folder)
+        .thenComparing(entry -> entry.name, String.CASE_INSENSITIVE_ORDER)
+        .thenComparing(entry -> entry.name);
+
+    private final int maxEntries;
+    private final long maxAgeMillis;
+    private final LinkedHashMap<Path, Listing> listings = new LinkedHashMap<Path, Listing>(16, 0.75F, true);   // guarded by this
+    private long entryCount;   // guarded by this
+
+    private static class Listing {
+        final List<FolderEntry> entries;
+        final long loadedAt;
+
+        Listing(List<FolderEntry> entries) {
+            this.entries = entries;
+            this.loadedAt = System.currentTimeMillis();
+        }
+    }
+
+    DirectoryCache(int maxEntries, long maxAgeMillis) {
+        this.maxEntries = maxEntries;
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * Returns the entries of a folder, folders first and then by name. The entries are shared, so they
+     * must not be modified.
+     * @param refresh If true, lists the folder again even if it is cached.
+     */
+    List<FolderEntry> list(Path folder, boolean refresh) throws IOException {
+        if (!refresh) {
+            synchronized (this) {
+                Listing listing = listings.get(folder);
+                if (listing != null && System.currentTimeMillis() - listing.loadedAt <= maxAgeMillis)
+                    return listing.entries;
+            }
+        }
+        List<FolderEntry> entries = new ArrayList<FolderEntry>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(folder)) {
+            for (Path path : stream) {
+                try {
+                    entries.add(newEntry(path, Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS)));
+                }
+                catch (IOException ex) {
+                    // Deleted since the folder was read.
+                }
+            }
+        }
+        return put(folder, entries);
+    }
+
+    static FolderEntry newEntry(Path path, BasicFileAttributes attrs) {
+        return new FolderEntry(path.getFileName().toString(), path.toString(), attrs.isDirectory(),
+            attrs.isDirectory() ? 0 : attrs.size(), attrs.lastModifiedTime().toMillis());
+    }
+
+    private List<FolderEntry> put(Path folder, List<FolderEntry> entries) {
+        entries.sort(BY_NAME);
+        List<FolderEntry> sorted = Collections.unmodifiableList(entries);
+        if (maxEntries <= 0 || entries.size() > maxEntries)
+            return sorted;
+        synchronized (this) {
+            Listing previous = listings.put(folder, new Listing(sorted));
+            if (previous != null)
+                entryCount -= previous.entries.size();
+            entryCount += sorted.size();
+            Iterator<Listing> eldest = listings.values().iterator();
+            while (entryCount > maxEntries) {
+                entryCount -= eldest.next().entries.size();
+                eldest.remove();
+            }
+        }
+        return sorted;
+    }
+
+    /**
+     * Returns the number of entries in a folder, or -1 if the folder is not cached.
+     */
+    synchronized int getChildCount(Path folder) {
+        Listing listing = listings.get(folder);
+        return listing != null ? listing.entries.size() : -1;
+    }
+
+    /**
+     * Drops the listings of a file or folder that was created, changed or deleted, and of the folder that contains it.
+     */
+    synchronized void invalidate(Path path) {
+        remove(path);
+        if (path.getParent() != null)
+            remove(path.getParent());
+    }
+
+    /**
+     * Drops the listings of a folder, everything under it, and the folder that contains it.
+     */
+    synchronized void invalidateTree(Path folder) {
+        Iterator<Map.Entry<Path, Listing>> iterator = listings.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, Listing> entry = iterator.next();
+            if (entry.getKey().startsWith(folder)) {
+                entryCount -= entry.getValue().entries.size();
+                iterator.remove();
+            }
+        }
+        if (folder.getParent() != null)
+            remove(folder.getParent());
+    }
+
+    private void remove(Path folder) {
+        Listing listing = listings.remove(folder);
+        if (listing != null)
+            entryCount -= listing.entries.size();
+    }
+
+    synchronized void clear() {
+        listings.clear();
+        entryCount = 0;
+    }
+
+    /**
+     * Records the folders that a walk of the file tree visits. Each folder is cached when the walk leaves it,
+     * so a walk that stops early caches nothing for the folders it was in.
+     */
+    Recorder newRecorder() {
+        return new Recorder();
+    }
+
+    class Recorder {
+        private final Deque<List<FolderEntry>> folders = new ArrayDeque<List<FolderEntry>>();
+
+        void enterFolder(Path folder, BasicFileAttributes attrs) {
+            addEntry(folder, attrs);
+            folders.push(new ArrayList<FolderEntry>());
+        }
+
+        void leaveFolder(Path folder) {
+            put(folder, folders.pop());
+        }
+
+        /** A file, or a folder that the walk does not enter. */
+        void addEntry(Path path, BasicFileAttributes attrs) {
+            if (!folders.isEmpty())
+                folders.peek().add(newEntry(path, attrs));
+        }
+    }
+}
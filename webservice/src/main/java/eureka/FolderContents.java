@@ -0,0 +1,21 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+import java.util.List;
+
+/**
+ * One page of the entries of a folder.
+ */
+public class FolderContents {
+    public String path;
+    /** Number of entries in the folder, which may be more than the number in this page. */
+    public int total;
+    public List<FolderEntry> entries;
+
+    public FolderContents(String path, int total, List<FolderEntry> entries) {
+        this.path = path;
+        this.total = total;
+        this.entries = entries;
+    }
+}
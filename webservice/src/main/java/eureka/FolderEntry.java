@@ -0,0 +1,29 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+/**
+ * A file or folder in a folder listing. See DirectoryCache.
+ */
+public class FolderEntry {
+    public String name;
+    public String path;
+    public boolean folder;
+    /** Size in bytes; 0 for folders. */
+    public long size;
+    /** Modified time, in milliseconds since the epoch. */
+    public long lastModified;
+    /** Number of entries in a folder, or -1 if the folder has not been listed yet; -1 for files. */
+    public int childCount;
+    /** True if the file is in the index, or if the folder is inside or contains an indexed folder. */
+    public boolean indexed;
+
+    public FolderEntry(String name, String path, boolean folder, long size, long lastModified) {
+        this.name = name;
+        this.path = path;
+        this.folder = folder;
+        this.size = size;
+        this.lastModified = lastModified;
+        this.childCount = -1;
+    }
+}
@@ -0,0 +1,159 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * Looks up the commits that changed a path, one page at a time, caching the results. Pages are cached by
+ * repository, HEAD commit, path and page, for up to eureka.git.historyCacheSize pages, least recently used
+ * first out. When HEAD of a repository changes, the pages cached for that repository are dropped.
+ *
+ * Without a path index, a page is found by walking the history from HEAD, and the walk stops as soon as
+ * the page is full. If eureka.git.pathIndex is true, each repository's commits are walked once into a
+ * CommitPathIndex, and lookups no longer walk the history at all. This uses memory in proportion to the
+ * size of the history.
+ */
+class GitHistory {
+    private static final int CACHE_SIZE = Settings.getInt("eureka.git.historyCacheSize", 200);
+    private static final boolean PATH_INDEX_ENABLED = Settings.getBoolean("eureka.git.pathIndex", false);
+
+    private final Map<String, Page> cache = new LinkedHashMap<String, Page>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Page> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };   // guarded by itself
+    private final Map<File, ObjectId> heads = new ConcurrentHashMap<File, ObjectId>();
+    private final Map<File, CommitPathIndex> pathIndexes = new ConcurrentHashMap<File, CommitPathIndex>();
+
+    /** One page of history. */
+    static class Page {
+        final List<CommitHeader> commits;
+        final boolean hasMore;
+
+        Page(List<CommitHeader> commits, boolean hasMore) {
+            this.commits = Collections.unmodifiableList(commits);
+            this.hasMore = hasMore;
+        }
+
+        /** Returns the value of after that fetches the next page, or null if this is the last page. */
+        String getNextCursor() {
+            return hasMore && !commits.isEmpty() ? commits.get(commits.size() - 1).hashCode : null;
+        }
+    }
+
+    /**
+     * Returns commits reachable from HEAD that changed the path (a file or folder relative to the repository),
+     * newest first. Starts after the commit named by after, if not null, and returns at most limit commits,
+     * or all of them if limit is 0 or less.
+     * @throws IllegalArgumentException if after is not a commit in the history of the path.
+     */
+    Page getHistory(Repository repo, String path, String after, int limit) throws IOException {
+        ObjectId head = repo.resolve(Constants.HEAD);
+        if (head == null)
+            return new Page(new ArrayList<CommitHeader>(), false);
+        File gitDir = repo.getDirectory();
+        ObjectId previous = heads.put(gitDir, head.copy());
+        if (previous != null && !previous.equals(head))
+            invalidate(gitDir);
+
+        String key = gitDir + "\n" + head.name() + "\n" + path + "\n" + after + "\n" + limit;
+        synchronized (cache) {
+            Page page = cache.get(key);
+            if (page != null)
+                return page;
+        }
+        Page page = loadHistory(repo, gitDir, head, path, parseCommitId(after), limit > 0 ? limit : Integer.MAX_VALUE);
+        synchronized (cache) {
+            cache.put(key, page);
+        }
+        return page;
+    }
+
+    private static ObjectId parseCommitId(String after) {
+        if (after == null)
+            return null;
+        if (!ObjectId.isId(after))
+            throw new IllegalArgumentException("after must be a full commit id.");
+        return ObjectId.fromString(after);
+    }
+
+    private void invalidate(File gitDir) {
+        String prefix = gitDir + "\n";
+        synchronized (cache) {
+            for (Iterator<String> it = cache.keySet().iterator(); it.hasNext(); ) {
+                if (it.next().startsWith(prefix))
+                    it.remove();
+            }
+        }
+    }
+
+    private Page loadHistory(Repository repo, File gitDir, ObjectId head, String path, ObjectId after, int limit) throws IOException {
+        List<CommitHeader> headers = new ArrayList<CommitHeader>();
+        try (RevWalk walk = new RevWalk(repo)) {
+            if (PATH_INDEX_ENABLED) {
+                CommitPathIndex index = pathIndexes.computeIfAbsent(gitDir, dir -> new CommitPathIndex());
+                List<ObjectId> commits = index.getCommits(repo, head, path);
+                // Folders are not in the index, so their history is looked up by walking.
+                if (commits != null) {
+                    int from = after != null ? commits.indexOf(after) + 1 : 0;
+                    if (after != null && from == 0)
+                        throw new IllegalArgumentException("after is not a commit in the history of this path.");
+                    int to = (int) Math.min((long) from + limit, commits.size());
+                    for (ObjectId commit : commits.subList(from, to)) {
+                        headers.add(getCommitHeader(walk.parseCommit(commit)));
+                    }
+                    return new Page(headers, to < commits.size());
+                }
+            }
+
+            // This is what git log does for a path: only commits that changed it, with history simplification.
+            walk.markStart(walk.parseCommit(head));
+            if (path.length() > 0)
+                walk.setTreeFilter(AndTreeFilter.create(PathFilterGroup.createFromStrings(path), TreeFilter.ANY_DIFF));
+            boolean skipping = after != null;
+            for (RevCommit commit : walk) {
+                if (skipping) {
+                    skipping = !commit.equals(after);
+                    continue;
+                }
+                if (headers.size() == limit)
+                    return new Page(headers, true);
+                headers.add(getCommitHeader(commit));
+            }
+            if (skipping)
+                throw new IllegalArgumentException("after is not a commit in the history of this path.");
+            return new Page(headers, false);
+        }
+    }
+
+    static CommitHeader getCommitHeader(RevCommit commit) {
+        PersonIdent author = commit.getAuthorIdent();
+        return new CommitHeader(
+            commit.getName(),
+            commit.getCommitTime(),
+            author.getName(),
+            author.getEmailAddress(),
+            commit.getShortMessage(),
+            commit.getFullMessage()
+        );
+    }
+}
@@ -0,0 +1,220 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.apache.log4j.Logger;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.DiffFormatter;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.util.io.DisabledOutputStream;
+
+/**
+ * Indexes a folder in a git repository from the commit at HEAD instead of from the working tree.
+ * File contents are read from the object database, so untracked files such as build output are never
+ * indexed, and the commit that was indexed is saved with the index. The next time the folder is indexed,
+ * only the paths that were added, modified or deleted between that commit and HEAD are updated.
+ *
+ * Documents use the path of the file in the working tree, and the commit time as the modified time.
+ */
+class GitIndexer {
+    private static final Logger log = Logger.getLogger(GitIndexer.class);
+    private static final String INDEXED_COMMIT_KEY = "eureka.git.indexedCommit:";
+
+    private final SearchEngine engine;
+
+    GitIndexer(SearchEngine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * Returns true if the folder is in the working tree of a git repository.
+     */
+    static boolean isInRepository(Path folder) {
+        FileRepositoryBuilder builder = new FileRepositoryBuilder().findGitDir(folder.toFile());
+        return builder.getGitDir() != null && builder.getGitDir().getParentFile() != null;
+    }
+
+    void index(Path root, boolean incremental, String[] indexableExtensions, String[] skippableFolders, IndexingProgress progress) throws IOException {
+        FileRepositoryBuilder builder = new FileRepositoryBuilder().findGitDir(root.toFile());
+        if (builder.getGitDir() == null)
+            throw new IllegalArgumentException(root + " is not in a git repository.");
+        try (Repository repo = builder.setMustExist(true).build()) {
+            Path workTree = repo.getWorkTree().toPath();
+            String prefix = workTree.relativize(root).toString().replace(File.separatorChar, '/');
+            ObjectId head = repo.resolve(Constants.HEAD + "^{commit}");
+            if (head == null) {
+                log.info(root + " has no commits");
+                progress.walkFinished();
+                return;
+            }
+
+            String key = INDEXED_COMMIT_KEY + root;
+            String indexedCommit = incremental ? engine.getCommitData(root, key) : null;
+            IndexingPipeline pipeline = new IndexingPipeline(engine, progress, SearchEngine.INDEXING_THREADS, SearchEngine.INDEXING_QUEUE_SIZE, repo);
+            pipeline.start();
+            try (ObjectReader reader = repo.newObjectReader(); RevWalk revWalk = new RevWalk(reader)) {
+                RevCommit commit = revWalk.parseCommit(head);
+                Batch batch = new Batch(workTree, root, pipeline, reader, commit.getCommitTime() * 1000L, indexableExtensions, skippableFolders, progress);
+                ObjectId from = indexedCommit != null ? ObjectId.fromString(indexedCommit) : null;
+                if (from != null && reader.has(from)) {
+                    log.info("indexing changes in " + root + " from " + from.name() + " to " + head.name());
+                    indexChanges(repo, reader, revWalk.parseCommit(from), commit, prefix, batch);
+                }
+                else {
+                    log.info("indexing " + root + " at " + head.name());
+                    indexTree(reader, commit, prefix, batch);
+                }
+                progress.walkFinished();
+                if (progress.isCancelled())
+                    pipeline.discardQueued();
+                pipeline.finish();
+            }
+            finally {
+                pipeline.abort();
+            }
+            // If cancelled, leave the saved commit alone, so the next run picks up the remaining changes.
+            if (!progress.isCancelled())
+                engine.setCommitData(root, key, head.name());
+        }
+    }
+
+    /**
+     * Updates the paths that differ between two commits. Renames are treated as a delete and an add.
+     */
+    private void indexChanges(Repository repo, ObjectReader reader, RevCommit from, RevCommit to, String prefix, Batch batch) throws IOException {
+        try (DiffFormatter formatter = new DiffFormatter(DisabledOutputStream.INSTANCE)) {
+            formatter.setReader(reader, repo.getConfig());
+            formatter.setDetectRenames(false);
+            if (prefix.length() > 0)
+                formatter.setPathFilter(PathFilter.create(prefix));
+            List<DiffEntry> entries = formatter.scan(from.getTree(), to.getTree());
+            for (DiffEntry entry : entries) {
+                if (batch.progress.isCancelled())
+                    return;
+                switch (entry.getChangeType()) {
+                    case DELETE:
+                        batch.delete(entry.getOldPath());
+                        break;
+                    case ADD:
+                    case MODIFY:
+                    case COPY:
+                        batch.add(entry.getNewPath(), entry.getNewMode(), entry.getNewId().toObjectId());
+                        break;
+                    case RENAME:
+                        batch.delete(entry.getOldPath());
+                        batch.add(entry.getNewPath(), entry.getNewMode(), entry.getNewId().toObjectId());
+                        break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Indexes every file in a commit, and removes files that are no longer in it from the index.
+     */
+    private void indexTree(ObjectReader reader, RevCommit commit, String prefix, Batch batch) throws IOException {
+        Set<String> stale = new HashSet<String>(engine.getIndexedPaths(batch.root));
+        try (TreeWalk treeWalk = new TreeWalk(reader)) {
+            treeWalk.addTree(commit.getTree());
+            treeWalk.setRecursive(false);
+            if (prefix.length() > 0)
+                treeWalk.setFilter(PathFilter.create(prefix));
+            while (treeWalk.next()) {
+                if (batch.progress.isCancelled())
+                    return;
+                if (treeWalk.isSubtree()) {
+                    // Folders above the root must be entered to reach it; skippable folders inside it are not.
+                    String path = treeWalk.getPathString();
+                    if (path.length() <= prefix.length() || !batch.isSkippable(batch.workTree.resolve(path)))
+                        treeWalk.enterSubtree();
+                }
+                else {
+                    Path filePath = batch.add(treeWalk.getPathString(), treeWalk.getFileMode(0), treeWalk.getObjectId(0));
+                    if (filePath != null)
+                        stale.remove(filePath.toString());
+                }
+            }
+        }
+        for (String path : stale) {
+            engine.deleteFromIndex(Paths.get(path));
+        }
+        if (!stale.isEmpty())
+            log.info("removed " + stale.size() + " files from index");
+    }
+
+    /** What every path in one indexing run is checked against, and where it is sent. */
+    private class Batch {
+        final Path workTree;
+        final Path root;
+        final IndexingPipeline pipeline;
+        final ObjectReader reader;
+        final long commitTime;
+        final String[] indexableExtensions;
+        final String[] skippableFolders;
+        final IndexingProgress progress;
+
+        Batch(Path workTree, Path root, IndexingPipeline pipeline, ObjectReader reader, long commitTime,
+              String[] indexableExtensions, String[] skippableFolders, IndexingProgress progress) {
+            this.workTree = workTree;
+            this.root = root;
+            this.pipeline = pipeline;
+            this.reader = reader;
+            this.commitTime = commitTime;
+            this.indexableExtensions = indexableExtensions;
+            this.skippableFolders = skippableFolders;
+            this.progress = progress;
+        }
+
+        /** Returns true if the folder is, or is in, a skippable folder below the root. */
+        boolean isSkippable(Path path) {
+            for (Path folder = path; folder != null && folder.startsWith(root) && !folder.equals(root); folder = folder.getParent()) {
+                if (SearchEngine.isFolderSkippable(folder, skippableFolders))
+                    return true;
+            }
+            return false;
+        }
+
+        /**
+         * Queues a blob for indexing if it is a regular file with an indexable extension outside skippable folders.
+         * Returns the file's path in the working tree, or null if it is not indexed.
+         */
+        Path add(String repoPath, FileMode mode, ObjectId blobId) throws IOException {
+            Path filePath = workTree.resolve(repoPath);
+            // Symbolic links and submodules are not files.
+            if (mode != FileMode.REGULAR_FILE && mode != FileMode.EXECUTABLE_FILE)
+                return null;
+            if (!SearchEngine.isFileIndexable(filePath, indexableExtensions)) {
+                engine.getMetrics().fileSkipped("extension");
+                return null;
+            }
+            if (isSkippable(filePath.getParent())) {
+                engine.getMetrics().fileSkipped("folder");
+                return null;
+            }
+            long size = reader.getObjectSize(blobId, Constants.OBJ_BLOB);
+            progress.fileFound(size);
+            pipeline.submitBlob(filePath, blobId, commitTime, size);
+            return filePath;
+        }
+
+        void delete(String repoPath) throws IOException {
+            engine.deleteFromIndex(workTree.resolve(repoPath));
+        }
+    }
+}
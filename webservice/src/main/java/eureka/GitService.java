@@ -2,6 +2,8 @@
 
 // Usage examples:
 // GET    http://localhost:8888/eureka-service/api/git/history?path=/foo/bar
+// GET    http://localhost:8888/eureka-service/api/git/history?path=/foo/bar&limit=50&after=123fedc...
+// GET    http://localhost:8888/eureka-service/api/git/diff?path=/foo/bar&from=123fedc&to=456abcd
 // GET    http://localhost:8888/eureka-service/api/git/fileAtRevision?path=/foo/bar&revision=123fedc
 
 package eureka;
@@ -15,27 +17,37 @@ import javax.ws.rs.DELETE;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.InternalServerErrorException;
 import javax.ws.rs.BadRequestException;
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.file.Paths;
-import java.nio.charset.StandardCharsets;
 import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.ObjectLoader;
 import org.eclipse.jgit.api.LogCommand;
 import org.eclipse.jgit.api.Git;
-import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.revwalk.RevCommitList;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.diff.DiffFormatter;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.PersonIdent;
 
@@ -45,20 +57,18 @@ import org.eclipse.jgit.lib.PersonIdent;
 
 @Path("/git")
 public class GitService {
-    private CommitHeader getCommitHeader(RevCommit commit) {
-        PersonIdent author = commit.getAuthorIdent();
-        return new CommitHeader(
-            commit.getName(),
-            commit.getCommitTime(),
-            author.getName(),
-            author.getEmailAddress(),
-            commit.getShortMessage(),
-            commit.getFullMessage()
-        );
+    private static final RepositoryPool repositoryPool = new RepositoryPool();
+    private static final GitHistory history = new GitHistory();
+
+    /**
+     * Closes the pooled repositories and stops the pool's thread. Called when the web service is undeployed.
+     */
+    static void closeRepositoryPool() {
+        repositoryPool.close();
     }
 
-    /** Given full path to a file, returns git repo and path relative to the repo. */
-    private GitData getGitRepoAndPath(String fullPath) throws IOException {
+    /** Given full path to a file, returns git repo and path relative to the repo. The caller must close the returned data. */
+    private GitData getGitRepoAndPath(String fullPath) {
         File sourceCodeFile = new File(fullPath);
 
         FileRepositoryBuilder repositoryBuilder = new FileRepositoryBuilder().findGitDir(sourceCodeFile);
@@ -67,7 +77,13 @@ public class GitService {
             throw new BadRequestException("This file is not in a git repository.");
 
         GitData gitData = new GitData();
-        gitData.repo = repositoryBuilder.build();
+        try {
+            gitData.lease = repositoryPool.acquire(gitDir);
+        }
+        catch (IOException ex) {
+            throw new InternalServerErrorException("The git repository could not be opened.");
+        }
+        gitData.repo = gitData.lease.getRepository();
 
         java.nio.file.Path gitDirPath = gitDir.toPath();
         java.nio.file.Path repoRelativePath = gitDirPath.getParent().relativize(sourceCodeFile.toPath());
@@ -76,75 +92,164 @@ public class GitService {
         return gitData;
     }
 
+    /**
+     * Returns the commits that changed a file or folder, newest first. If limit is greater than zero, returns
+     * at most that many commits, and if there are more, the value of after for the next page is returned
+     * in the X-Next-After header. Without a limit the whole history is returned.
+     */
     @GET
     @Path("/history")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getHistory(@QueryParam("path") String path) {
+    public Response getHistory(@QueryParam("path") String path,
+                               @QueryParam("after") String after,
+                               @QueryParam("limit") @DefaultValue("0") int limit) {
         if (path == null || path.length() == 0) {
             throw new BadRequestException("Missing query parameter: path");
         }
-        try {
-            GitData gitData = getGitRepoAndPath(path);
-
-            Git git = new Git(gitData.repo);
-            ObjectId head = gitData.repo.resolve(Constants.HEAD);
-            Iterable<RevCommit> commits = git.log().add(head).addPath(gitData.relativePath).call();
-
-            List<CommitHeader> headers = new ArrayList<CommitHeader>();
-            for (RevCommit revCommit : commits) {
-                headers.add(getCommitHeader(revCommit));
-            }
-
-            return Response.ok(headers).build();
+        try (GitData gitData = getGitRepoAndPath(path)) {
+            GitHistory.Page page = history.getHistory(gitData.repo, gitData.relativePath, after, limit);
+            Response.ResponseBuilder builder = Response.ok(page.commits);
+            String next = page.getNextCursor();
+            if (next != null)
+                builder.header("X-Next-After", next);
+            return builder.build();
+        }
+        catch (IllegalArgumentException ex) {
+            throw new BadRequestException(ex.getMessage());
         }
         catch (IOException ex) {
             throw new InternalServerErrorException(ex.getMessage());
         }
-        catch (org.eclipse.jgit.api.errors.GitAPIException ex) {
-            throw new InternalServerErrorException(ex.getMessage());
+    }
+
+    /**
+     * Returns the changes to a file or folder between two revisions as a unified diff, written to the
+     * response as it is computed. Context is the number of unchanged lines shown around each change.
+     */
+    @GET
+    @Produces("text/x-diff")
+    @Path("/diff")
+    public Response getDiff(@QueryParam("path") String path,
+                            @QueryParam("from") String from,
+                            @QueryParam("to") String to,
+                            @QueryParam("context") @DefaultValue("3") int context) {
+        if (path == null)
+            throw new BadRequestException("Path must be specified");
+        if (!path.startsWith("/projects"))
+            throw new BadRequestException("Path must start with /projects");
+        if (from == null || to == null)
+            throw new BadRequestException("Revisions from and to must be specified");
+        if (context < 0)
+            throw new BadRequestException("Context must not be negative");
+        final RevTree fromTree;
+        final RevTree toTree;
+        try (GitData gitData = getGitRepoAndPath(path)) {
+            fromTree = parseTree(gitData.repo, from);
+            toTree = parseTree(gitData.repo, to);
+        }
+        catch (IOException | RuntimeException ex) {
+            if (ex instanceof BadRequestException)
+                throw (BadRequestException) ex;
+            throw new BadRequestException("The revisions could not be read.");
+        }
+        StreamingOutput output = new StreamingOutput() {
+            @Override
+            public void write(OutputStream out) throws IOException {
+                // The repository is leased again while the diff is written, so that a response that is never
+                // written, because the client went away, does not keep the lease.
+                try (GitData gitData = getGitRepoAndPath(path); DiffFormatter formatter = new DiffFormatter(new BufferedOutputStream(out))) {
+                    formatter.setRepository(gitData.repo);
+                    formatter.setContext(context);
+                    if (gitData.relativePath.length() > 0)
+                        formatter.setPathFilter(PathFilter.create(gitData.relativePath));
+                    formatter.format(fromTree, toTree);
+                    formatter.flush();
+                }
+            }
+        };
+        return Response.ok(output).build();
+    }
+
+    private RevTree parseTree(Repository repo, String revSpec) throws IOException {
+        ObjectId revision = repo.resolve(revSpec);
+        if (revision == null)
+            throw new BadRequestException("Revision " + revSpec + " was not found.");
+        try (RevWalk walk = new RevWalk(repo)) {
+            return walk.parseCommit(revision).getTree();
         }
     }
 
     @GET
-    @Produces(MediaType.TEXT_PLAIN)
+    @Produces(ContentResponses.TEXT_UTF8)
     @Path("/fileAtRevision")
-    public String getFileContents(@QueryParam("path") String path, @QueryParam("revision") String revision) {
+    public Response getFileContents(@QueryParam("path") String path,
+                                    @QueryParam("revision") String revision,
+                                    @HeaderParam("Range") String range,
+                                    @HeaderParam("If-Range") String ifRange,
+                                    @Context Request request) {
         if (path == null)
             throw new BadRequestException("Path must be specified");
         if (!path.startsWith("/projects"))
             throw new BadRequestException("Path must start with /projects");
         if (revision == null)
             throw new BadRequestException("Revision must be specified");
+        final GitData gitData = getGitRepoAndPath(path);
         try {
-            GitData gitData = getGitRepoAndPath(path);
-            byte[] data = fetchBlob(gitData.repo, revision, gitData.relativePath);
-            return new String(data, StandardCharsets.UTF_8);
+            final ObjectId blobId = findBlob(gitData.repo, revision, gitData.relativePath);
+            final long size;
+            try (ObjectReader reader = gitData.repo.newObjectReader()) {
+                size = reader.getObjectSize(blobId, Constants.OBJ_BLOB);
+            }
+            // A blob never changes, so its id is a strong validator, whatever revision it was reached through.
+            EntityTag etag = new EntityTag(blobId.name());
+            ContentResponses.ContentWriter writer = new ContentResponses.ContentWriter() {
+                @Override
+                public void write(OutputStream out, long offset, long count) throws IOException {
+                    try (ObjectReader reader = gitData.repo.newObjectReader()) {
+                        ObjectLoader loader = reader.open(blobId, Constants.OBJ_BLOB);
+                        if (offset == 0 && count == size) {
+                            loader.copyTo(out);
+                        }
+                        else {
+                            try (InputStream in = loader.openStream()) {
+                                ContentResponses.copyRange(in, out, offset, count);
+                            }
+                        }
+                    }
+                }
+            };
+            return ContentResponses.build(request, range, ifRange, size, etag, null, ContentResponses.TEXT_UTF8, writer, new Runnable() {
+                @Override
+                public void run() {
+                    gitData.close();
+                }
+            });
         }
-        catch (IOException ex) {
+        catch (IOException | RuntimeException ex) {
+            gitData.close();
+            if (ex instanceof BadRequestException)
+                throw (BadRequestException) ex;
             throw new BadRequestException("The file could not be opened.");
         }
     }
 
-    private byte[] fetchBlob(Repository repo, String revSpec, String path) throws IOException {
-        final ObjectId revision = repo.resolve(revSpec);
-        try (ObjectReader reader = repo.newObjectReader()) {
-            // Get the commit object corresponding to revision.
-            RevWalk walk = new RevWalk(reader);
-            RevCommit commit = walk.parseCommit(revision);
-
-            // Get a reference to this commit's tree.
-            RevTree tree = commit.getTree();
-            // Open a tree walk and filter to exactly one path.
-            TreeWalk treewalk = TreeWalk.forPath(reader, path, tree);
+    private ObjectId findBlob(Repository repo, String revSpec, String path) throws IOException {
+        RevTree tree = parseTree(repo, revSpec);
+        try (TreeWalk treewalk = TreeWalk.forPath(repo, path, tree)) {
             if (treewalk == null)
                 throw new BadRequestException("File was not found in git commit tree.");
-
-            return reader.open(treewalk.getObjectId(0)).getBytes();
+            return treewalk.getObjectId(0);
         }
     }
 }
 
-class GitData {
+class GitData implements AutoCloseable {
     public Repository repo;
     public String relativePath;
+    RepositoryPool.Lease lease;
+
+    @Override
+    public void close() {
+        lease.close();
+    }
 }
@@ -0,0 +1,127 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+import java.io.IOException;
+import org.apache.lucene.analysis.TokenFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionLengthAttribute;
+import org.apache.lucene.util.ArrayUtil;
+
+/**
+ * Emits each identifier followed by its parts, split at camelCase and PascalCase humps, underscores and
+ * letter/digit boundaries. For example HttpRequestHandler produces HttpRequestHandler and Http at the
+ * same position, then Request and Handler at the following positions, so that both the whole identifier
+ * and phrases made of its parts can be found. Identifiers that have only one part are emitted unchanged.
+ * Must come before lowercasing, since case changes are used to find the parts.
+ * <p>
+ * The result is a token graph: the whole identifier spans all of its parts, as its position length says,
+ * so the token after it follows the last part. The index keeps positions but not position lengths, so
+ * phrases are matched against the positions of the parts; see SearchEngine.parseQuery.
+ */
+public final class IdentifierSplitFilter extends TokenFilter {
+    private final CharTermAttribute termAtt = addAttribute(CharTermAttribute.class);
+    private final OffsetAttribute offsetAtt = addAttribute(OffsetAttribute.class);
+    private final PositionIncrementAttribute posIncAtt = addAttribute(PositionIncrementAttribute.class);
+    private final PositionLengthAttribute posLenAtt = addAttribute(PositionLengthAttribute.class);
+
+    // The identifier being split, and the start and end of each of its parts. These are reused between tokens.
+    private char[] identifier = new char[32];
+    private int[] partStarts = new int[8];
+    private int[] partEnds = new int[8];
+    private int partCount;
+    private int nextPart;
+    private int startOffset;
+    private boolean offsetsMatchText;
+
+    public IdentifierSplitFilter(TokenStream input) {
+        super(input);
+    }
+
+    @Override
+    public boolean incrementToken() throws IOException {
+        if (nextPart < partCount) {
+            int start = partStarts[nextPart];
+            int end = partEnds[nextPart];
+            termAtt.copyBuffer(identifier, start, end - start);
+            if (offsetsMatchText)
+                offsetAtt.setOffset(startOffset + start, startOffset + end);
+            posIncAtt.setPositionIncrement(nextPart == 0 ? 0 : 1);
+            posLenAtt.setPositionLength(1);
+            nextPart++;
+            return true;
+        }
+        if (!input.incrementToken())
+            return false;
+
+        partCount = 0;
+        nextPart = 0;
+        findParts(termAtt.buffer(), termAtt.length());
+        if (partCount > 1) {
+            int length = termAtt.length();
+            identifier = ArrayUtil.grow(identifier, length);
+            System.arraycopy(termAtt.buffer(), 0, identifier, 0, length);
+            startOffset = offsetAtt.startOffset();
+            offsetsMatchText = offsetAtt.endOffset() - startOffset == length;
+            posLenAtt.setPositionLength(partCount);
+        }
+        else {
+            partCount = 0;
+        }
+        return true;
+    }
+
+    private void findParts(char[] buffer, int length) {
+        int partStart = -1;
+        for (int i = 0; i < length; i++) {
+            char c = buffer[i];
+            if (c == '_') {
+                if (partStart != -1)
+                    addPart(partStart, i);
+                partStart = -1;
+                continue;
+            }
+            if (partStart == -1) {
+                partStart = i;
+            }
+            else if (isBoundary(buffer, length, i)) {
+                addPart(partStart, i);
+                partStart = i;
+            }
+        }
+        if (partStart != -1)
+            addPart(partStart, length);
+    }
+
+    /** Returns true if a new part starts at index i. The character before i is not an underscore. */
+    private static boolean isBoundary(char[] buffer, int length, int i) {
+        char previous = buffer[i - 1];
+        char c = buffer[i];
+        if (Character.isDigit(previous) != Character.isDigit(c))
+            return true;
+        if (Character.isLowerCase(previous) && Character.isUpperCase(c))
+            return true;
+        // The last capital of an acronym starts the next word, as in HTTPRequest.
+        return Character.isUpperCase(previous) && Character.isUpperCase(c) && i + 1 < length && Character.isLowerCase(buffer[i + 1]);
+    }
+
+    private void addPart(int start, int end) {
+        if (partCount == partStarts.length) {
+            partStarts = ArrayUtil.grow(partStarts, partCount + 1);
+            partEnds = ArrayUtil.grow(partEnds, partCount + 1);
+        }
+        partStarts[partCount] = start;
+        partEnds[partCount] = end;
+        partCount++;
+    }
+
+    @Override
+    public void reset() throws IOException {
+        super.reset();
+        partCount = 0;
+        nextPart = 0;
+    }
+}
@@ -0,0 +1,404 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.lucene.search.ReferenceManager;
+
+/**
+ * Counters and timers for indexing and searching. Recording a value only touches a LongAdder or an
+ * atomic array slot, so the indexing workers and search threads never wait on each other or on a scrape.
+ * Gauges that describe the index itself (segment count, size on disk, RAM buffer) are read from the
+ * search engine when the metrics are requested.
+ */
+public class IndexMetrics implements IndexMetricsMXBean, ReferenceManager.RefreshListener {
+    public static final String STAGE_WALK = "walk";
+    public static final String STAGE_READ = "read";
+    public static final String STAGE_ANALYZE = "analyze";
+    public static final String STAGE_FLUSH = "flush";
+    public static final String STAGE_COMMIT = "commit";
+    private static final String[] STAGES = { STAGE_WALK, STAGE_READ, STAGE_ANALYZE, STAGE_FLUSH, STAGE_COMMIT };
+    private static final String[] QUERY_TYPES = { "term", "phrase", "wildcard", "fuzzy", "boolean", "substring", "regex", "symbol" };
+
+    private final SearchEngine engine;
+    private final LongAdder filesIndexed = new LongAdder();
+    private final LongAdder bytesIndexed = new LongAdder();
+    private final LongAdder filesDeduplicated = new LongAdder();
+    private final Map<String, LongAdder> stageNanos;
+    private final Map<String, LongAdder> filesSkipped = new ConcurrentHashMap<String, LongAdder>();
+    private final Map<String, LongAdder> filesFailed = new ConcurrentHashMap<String, LongAdder>();
+    private final Map<String, LatencyHistogram> queryLatency;
+    private final LongAdder queryCacheHits = new LongAdder();
+    private final LongAdder queryCacheMisses = new LongAdder();
+    private final AtomicLong pendingChangeSince = new AtomicLong();
+    private volatile long refreshLagNanos;
+    private volatile double lastRunFilesPerSecond;
+    private volatile double lastRunBytesPerSecond;
+
+    IndexMetrics(SearchEngine engine) {
+        this.engine = engine;
+        // The maps on the hot paths are filled in up front and never change, so lookups need no locking.
+        Map<String, LongAdder> stages = new LinkedHashMap<String, LongAdder>();
+        for (String stage : STAGES) {
+            stages.put(stage, new LongAdder());
+        }
+        stageNanos = Collections.unmodifiableMap(stages);
+        Map<String, LatencyHistogram> histograms = new LinkedHashMap<String, LatencyHistogram>();
+        for (String type : QUERY_TYPES) {
+            histograms.put(type, new LatencyHistogram());
+        }
+        queryLatency = Collections.unmodifiableMap(histograms);
+    }
+
+    void fileIndexed(long bytes) {
+        filesIndexed.increment();
+        bytesIndexed.add(bytes);
+        changed();
+    }
+
+    void fileDeduplicated() {
+        filesDeduplicated.increment();
+    }
+
+    void fileSkipped(String reason) {
+        count(filesSkipped, reason);
+    }
+
+    void fileFailed(String reason) {
+        count(filesFailed, reason);
+    }
+
+    private static void count(Map<String, LongAdder> counters, String reason) {
+        LongAdder counter = counters.get(reason);
+        if (counter == null)
+            counter = counters.computeIfAbsent(reason, key -> new LongAdder());
+        counter.increment();
+    }
+
+    void stage(String stage, long nanos) {
+        stageNanos.get(stage).add(nanos);
+    }
+
+    /**
+     * Records the speed of a folder indexing run.
+     */
+    void indexingRun(long files, long bytes, long nanos) {
+        double seconds = Math.max(nanos, 1) / 1e9;
+        lastRunFilesPerSecond = files / seconds;
+        lastRunBytesPerSecond = bytes / seconds;
+    }
+
+    void query(String type, long nanos) {
+        LatencyHistogram histogram = queryLatency.get(type);
+        if (histogram != null)
+            histogram.record(nanos);
+    }
+
+    void queryCacheHit() {
+        queryCacheHits.increment();
+    }
+
+    void queryCacheMiss() {
+        queryCacheMisses.increment();
+    }
+
+    /**
+     * Notes that the index has changed, so that the time until the change becomes searchable can be measured.
+     */
+    void changed() {
+        if (pendingChangeSince.get() == 0)
+            pendingChangeSince.compareAndSet(0, System.nanoTime());
+    }
+
+    @Override
+    public void beforeRefresh() {
+    }
+
+    @Override
+    public void afterRefresh(boolean didRefresh) {
+        if (didRefresh) {
+            long since = pendingChangeSince.getAndSet(0);
+            if (since != 0)
+                refreshLagNanos = System.nanoTime() - since;
+        }
+    }
+
+    @Override
+    public long getFilesIndexed() {
+        return filesIndexed.sum();
+    }
+
+    @Override
+    public long getFilesDeduplicated() {
+        return filesDeduplicated.sum();
+    }
+
+    @Override
+    public long getBytesIndexed() {
+        return bytesIndexed.sum();
+    }
+
+    @Override
+    public double getLastRunFilesPerSecond() {
+        return lastRunFilesPerSecond;
+    }
+
+    @Override
+    public double getLastRunBytesPerSecond() {
+        return lastRunBytesPerSecond;
+    }
+
+    @Override
+    public Map<String, Long> getStageMillis() {
+        Map<String, Long> result = new LinkedHashMap<String, Long>();
+        for (Map.Entry<String, LongAdder> entry : stageNanos.entrySet()) {
+            result.put(entry.getKey(), TimeUnit.NANOSECONDS.toMillis(entry.getValue().sum()));
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getFilesSkipped() {
+        return sums(filesSkipped);
+    }
+
+    @Override
+    public Map<String, Long> getFilesFailed() {
+        return sums(filesFailed);
+    }
+
+    private static Map<String, Long> sums(Map<String, LongAdder> counters) {
+        Map<String, Long> result = new TreeMap<String, Long>();
+        for (Map.Entry<String, LongAdder> entry : counters.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().sum());
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getQueryCounts() {
+        Map<String, Long> result = new LinkedHashMap<String, Long>();
+        for (Map.Entry<String, LatencyHistogram> entry : queryLatency.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().count.sum());
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Double> getQueryLatencyP50Millis() {
+        return percentiles(0.50);
+    }
+
+    @Override
+    public Map<String, Double> getQueryLatencyP99Millis() {
+        return percentiles(0.99);
+    }
+
+    private Map<String, Double> percentiles(double quantile) {
+        Map<String, Double> result = new LinkedHashMap<String, Double>();
+        for (Map.Entry<String, LatencyHistogram> entry : queryLatency.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().percentile(quantile) * 1000);
+        }
+        return result;
+    }
+
+    @Override
+    public long getQueryCacheHits() {
+        return queryCacheHits.sum();
+    }
+
+    @Override
+    public long getQueryCacheMisses() {
+        return queryCacheMisses.sum();
+    }
+
+    @Override
+    public int getQueryCacheEntries() {
+        return engine.getQueryCacheEntries();
+    }
+
+    @Override
+    public long getQueryCacheBytes() {
+        return engine.getQueryCacheBytes();
+    }
+
+    @Override
+    public int getSearchThreadsActive() {
+        return engine.getSearchThreadsActive();
+    }
+
+    @Override
+    public int getSearchSlicesQueued() {
+        return engine.getSearchSlicesQueued();
+    }
+
+    /**
+     * Returns how long the most recent change took to become searchable, or if there is a change that
+     * is not yet searchable and has been waiting longer than that, how long it has been waiting.
+     */
+    @Override
+    public long getRefreshLagMillis() {
+        long lag = refreshLagNanos;
+        long since = pendingChangeSince.get();
+        if (since != 0)
+            lag = Math.max(lag, System.nanoTime() - since);
+        return TimeUnit.NANOSECONDS.toMillis(lag);
+    }
+
+    @Override
+    public int getSegmentCount() {
+        return engine.getSegmentCount();
+    }
+
+    @Override
+    public long getIndexSizeBytes() {
+        return engine.getIndexSizeBytes();
+    }
+
+    @Override
+    public long getRamBytesUsed() {
+        return engine.getRamBytesUsed();
+    }
+
+    /**
+     * Returns the metrics in the Prometheus text exposition format.
+     */
+    public String toPrometheusText() {
+        StringBuilder sb = new StringBuilder();
+        counter(sb, "eureka_indexed_files_total", "Files added to the index.", getFilesIndexed());
+        counter(sb, "eureka_deduplicated_files_total", "Files added to the index as copies of files with the same contents.", getFilesDeduplicated());
+        counter(sb, "eureka_indexed_bytes_total", "Bytes of file contents added to the index.", getBytesIndexed());
+        gauge(sb, "eureka_indexing_last_run_files_per_second", "Files per second during the most recent folder indexing run.", lastRunFilesPerSecond);
+        gauge(sb, "eureka_indexing_last_run_bytes_per_second", "Bytes per second during the most recent folder indexing run.", lastRunBytesPerSecond);
+
+        header(sb, "eureka_indexing_stage_seconds_total", "counter", "Time spent in each indexing stage. Read and analyze are summed over all worker threads.");
+        for (Map.Entry<String, LongAdder> entry : stageNanos.entrySet()) {
+            sample(sb, "eureka_indexing_stage_seconds_total", "stage", entry.getKey(), entry.getValue().sum() / 1e9);
+        }
+        header(sb, "eureka_skipped_files_total", "counter", "Files that were not indexed, by reason.");
+        for (Map.Entry<String, Long> entry : getFilesSkipped().entrySet()) {
+            sample(sb, "eureka_skipped_files_total", "reason", entry.getKey(), entry.getValue());
+        }
+        header(sb, "eureka_failed_files_total", "counter", "Files that could not be indexed, by reason.");
+        for (Map.Entry<String, Long> entry : getFilesFailed().entrySet()) {
+            sample(sb, "eureka_failed_files_total", "reason", entry.getKey(), entry.getValue());
+        }
+
+        header(sb, "eureka_query_duration_seconds", "histogram", "Time taken to run a query and collect a page of hits, by query type.");
+        for (Map.Entry<String, LatencyHistogram> entry : queryLatency.entrySet()) {
+            entry.getValue().write(sb, "eureka_query_duration_seconds", entry.getKey());
+        }
+        counter(sb, "eureka_query_cache_hits_total", "Searches answered from the result cache, including searches that waited for an identical running search.", getQueryCacheHits());
+        counter(sb, "eureka_query_cache_misses_total", "Searches that had to be run.", getQueryCacheMisses());
+        gauge(sb, "eureka_query_cache_entries", "Pages of results in the result cache.", getQueryCacheEntries());
+        gauge(sb, "eureka_query_cache_bytes", "Estimated memory used by the result cache.", getQueryCacheBytes());
+        gauge(sb, "eureka_search_threads_active", "Search threads busy searching a slice of the index.", getSearchThreadsActive());
+        gauge(sb, "eureka_search_slices_queued", "Slices of the index waiting for a search thread.", getSearchSlicesQueued());
+
+        gauge(sb, "eureka_searcher_refresh_lag_seconds", "Time taken for the latest change to become searchable.", getRefreshLagMillis() / 1000.0);
+        gauge(sb, "eureka_index_segments", "Number of segments in the index.", getSegmentCount());
+        gauge(sb, "eureka_index_size_bytes", "Size of the index on disk.", getIndexSizeBytes());
+        gauge(sb, "eureka_index_ram_buffer_bytes", "Memory used by documents that have not been flushed yet.", getRamBytesUsed());
+        return sb.toString();
+    }
+
+    private static void header(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void counter(StringBuilder sb, String name, String help, double value) {
+        header(sb, name, "counter", help);
+        sb.append(name).append(' ').append(format(value)).append('\n');
+    }
+
+    private static void gauge(StringBuilder sb, String name, String help, double value) {
+        header(sb, name, "gauge", help);
+        sb.append(name).append(' ').append(format(value)).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String name, String label, String labelValue, double value) {
+        sb.append(name).append('{').append(label).append("=\"").append(escape(labelValue)).append("\"} ").append(format(value)).append('\n');
+    }
+
+    private static String escape(String labelValue) {
+        return labelValue.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String format(double value) {
+        if (Double.isNaN(value))
+            return "NaN";
+        if (Double.isInfinite(value))
+            return value > 0 ? "+Inf" : "-Inf";
+        return BigDecimal.valueOf(value).stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * A histogram with fixed buckets. Recording is a linear scan of a dozen bounds and two atomic adds.
+     */
+    private static class LatencyHistogram {
+        private static final double[] BOUNDS = { 0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10 };
+        private static final long[] BOUND_NANOS = new long[BOUNDS.length];
+        static {
+            for (int i = 0; i < BOUNDS.length; i++) {
+                BOUND_NANOS[i] = (long) (BOUNDS[i] * 1e9);
+            }
+        }
+
+        // One slot per bound, plus one for everything slower than the last bound.
+        private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS.length + 1);
+        private final LongAdder count = new LongAdder();
+        private final LongAdder sumNanos = new LongAdder();
+
+        void record(long nanos) {
+            int i = 0;
+            while (i < BOUND_NANOS.length && nanos > BOUND_NANOS[i]) {
+                i++;
+            }
+            buckets.incrementAndGet(i);
+            count.increment();
+            sumNanos.add(nanos);
+        }
+
+        /**
+         * Returns the upper bound, in seconds, of the bucket that contains the quantile, or 0 if nothing has been recorded.
+         */
+        double percentile(double quantile) {
+            long total = 0;
+            for (int i = 0; i < buckets.length(); i++) {
+                total += buckets.get(i);
+            }
+            if (total == 0)
+                return 0;
+            long rank = (long) Math.ceil(quantile * total);
+            long cumulative = 0;
+            for (int i = 0; i < BOUNDS.length; i++) {
+                cumulative += buckets.get(i);
+                if (cumulative >= rank)
+                    return BOUNDS[i];
+            }
+            return Double.POSITIVE_INFINITY;
+        }
+
+        void write(StringBuilder sb, String name, String type) {
+            long cumulative = 0;
+            for (int i = 0; i < BOUNDS.length; i++) {
+                cumulative += buckets.get(i);
+                sb.append(name).append("_bucket{type=\"").append(type).append("\",le=\"").append(format(BOUNDS[i])).append("\"} ").append(cumulative).append('\n');
+            }
+            cumulative += buckets.get(BOUNDS.length);
+            sb.append(name).append("_bucket{type=\"").append(type).append("\",le=\"+Inf\"} ").append(cumulative).append('\n');
+            sb.append(name).append("_sum{type=\"").append(type).append("\"} ").append(format(sumNanos.sum() / 1e9)).append('\n');
+            sb.append(name).append("_count{type=\"").append(type).append("\"} ").append(cumulative).append('\n');
+        }
+    }
+}
@@ -0,0 +1,55 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+import java.util.Map;
+
+/**
+ * Indexing and search metrics, as seen through JMX. The same numbers are available in Prometheus
+ * text format from /searchengine/metrics.
+ */
+public interface IndexMetricsMXBean {
+    long getFilesIndexed();
+
+    /** Files that were added as copies, because a file with the same contents was already indexed. */
+    long getFilesDeduplicated();
+
+    long getBytesIndexed();
+
+    double getLastRunFilesPerSecond();
+
+    double getLastRunBytesPerSecond();
+
+    /** Total time spent in each indexing stage (walk, read, analyze, flush, commit), in milliseconds. */
+    Map<String, Long> getStageMillis();
+
+    Map<String, Long> getFilesSkipped();
+
+    Map<String, Long> getFilesFailed();
+
+    Map<String, Long> getQueryCounts();
+
+    Map<String, Double> getQueryLatencyP50Millis();
+
+    Map<String, Double> getQueryLatencyP99Millis();
+
+    long getQueryCacheHits();
+
+    long getQueryCacheMisses();
+
+    int getQueryCacheEntries();
+
+    long getQueryCacheBytes();
+
+    int getSearchThreadsActive();
+
+    int getSearchSlicesQueued();
+
+    long getRefreshLagMillis();
+
+    int getSegmentCount();
+
+    long getIndexSizeBytes();
+
+    long getRamBytesUsed();
+}
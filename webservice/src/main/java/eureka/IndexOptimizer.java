@@ -0,0 +1,150 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+import java.io.Closeable;
+import java.util.Calendar;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.Logger;
+import org.apache.lucene.index.IndexWriter;
+
+/**
+ * Merges the segments of each shard in the background, one shard at a time, then commits the shard and
+ * makes the merged segments searchable. Searches and indexing carry on while it runs.
+ * <p>
+ * If eureka.optimize.hour is set to an hour of the day (0 to 23), a run starts at that hour every day,
+ * unless a folder is being indexed. Scheduled runs merge each shard down to eureka.optimize.maxSegments
+ * segments; the default, 0, only merges away segments with many deleted files, which is much cheaper.
+ */
+class IndexOptimizer implements Closeable {
+    private static final Logger log = Logger.getLogger(IndexOptimizer.class);
+    private static final int OFF_PEAK_HOUR = Settings.getInt("eureka.optimize.hour", -1);
+    private static final int SCHEDULED_MAX_SEGMENTS = Settings.getInt("eureka.optimize.maxSegments", 0);
+
+    private final SearchEngine engine;
+    private final ShardRegistry shards;
+    private final ScheduledExecutorService executor;
+    private OptimizeStatus status = new OptimizeStatus();   // guarded by this
+
+    IndexOptimizer(SearchEngine engine, ShardRegistry shards) {
+        this.engine = engine;
+        this.shards = shards;
+        this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "eureka-optimizer");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        if (OFF_PEAK_HOUR >= 0 && OFF_PEAK_HOUR < 24) {
+            long delay = getMillisUntil(OFF_PEAK_HOUR);
+            executor.scheduleAtFixedRate(this::runScheduled, delay, TimeUnit.DAYS.toMillis(1), TimeUnit.MILLISECONDS);
+            log.info("index will be optimized daily at " + OFF_PEAK_HOUR + ":00, next in " + TimeUnit.MILLISECONDS.toMinutes(delay) + " minutes");
+        }
+    }
+
+    private static long getMillisUntil(int hour) {
+        Calendar now = Calendar.getInstance();
+        Calendar next = (Calendar) now.clone();
+        next.set(Calendar.HOUR_OF_DAY, hour);
+        next.set(Calendar.MINUTE, 0);
+        next.set(Calendar.SECOND, 0);
+        next.set(Calendar.MILLISECOND, 0);
+        if (!next.after(now))
+            next.add(Calendar.DAY_OF_MONTH, 1);
+        return next.getTimeInMillis() - now.getTimeInMillis();
+    }
+
+    /**
+     * Starts optimizing in the background, unless a run is already in progress.
+     * @param maxSegments Merge each shard down to this many segments, or if 0, only merge away deleted files.
+     * @return The status of the run that was started, or of the run that is in progress.
+     */
+    synchronized OptimizeStatus start(final int maxSegments) {
+        if (begin(maxSegments, false))
+            executor.execute(() -> run(maxSegments));
+        else
+            log.info("optimization is already running");
+        return status.copy();
+    }
+
+    private synchronized boolean begin(int maxSegments, boolean scheduled) {
+        if (status.state.equals("RUNNING"))
+            return false;
+        status = new OptimizeStatus();
+        status.state = "RUNNING";
+        status.scheduled = scheduled;
+        status.maxSegments = maxSegments;
+        status.startedAt = System.currentTimeMillis();
+        return true;
+    }
+
+    synchronized OptimizeStatus getStatus() {
+        return status.copy();
+    }
+
+    private void runScheduled() {
+        if (engine.getCurrentlyIndexing() != null) {
+            log.info("skipping scheduled optimization because a folder is being indexed");
+            return;
+        }
+        if (begin(SCHEDULED_MAX_SEGMENTS, true))
+            run(SCHEDULED_MAX_SEGMENTS);
+    }
+
+    private void run(int maxSegments) {
+        List<IndexShard> list = shards.getShards();
+        synchronized (this) {
+            status.shardCount = list.size();
+        }
+        log.info("optimizing " + list.size() + " shards" + (maxSegments > 0 ? " down to " + maxSegments + " segments" : ", merging deletes"));
+        try {
+            for (IndexShard shard : list) {
+                int before = shard.getSegmentCount();
+                synchronized (this) {
+                    status.currentShard = shard.getRoot().toString();
+                    status.segmentsBefore += before;
+                }
+                long start = System.nanoTime();
+                IndexWriter writer = shard.getWriter();
+                if (maxSegments > 0)
+                    writer.forceMerge(maxSegments, true);
+                else
+                    writer.forceMergeDeletes(true);
+                writer.commit();
+                shard.getSearcherManager().maybeRefreshBlocking();
+                int after = shard.getSegmentCount();
+                log.info("optimized " + shard.getRoot() + " from " + before + " to " + after + " segments in "
+                         + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+                synchronized (this) {
+                    status.segmentsAfter += after;
+                    status.shardsDone++;
+                }
+            }
+            synchronized (this) {
+                status.state = "COMPLETED";
+            }
+        }
+        catch (Exception ex) {
+            // Includes AlreadyClosedException, when a shard is dropped or the engine goes offline during the run.
+            log.error("could not optimize index", ex);
+            synchronized (this) {
+                status.state = "FAILED";
+                status.error = ex.getMessage();
+            }
+        }
+        finally {
+            synchronized (this) {
+                status.currentShard = null;
+                status.finishedAt = System.currentTimeMillis();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -6,11 +6,15 @@ public class IndexRequest {
     private String path;
     private String[] indexableExtensions;
     private String[] skippableFolders;
+    private boolean incremental;
+    private boolean git;
 
     public IndexRequest() {
         this.path = null;
         this.indexableExtensions = null;
         this.skippableFolders = null;
+        this.incremental = false;
+        this.git = false;
     }
 
     public String getPath() {
@@ -36,4 +40,25 @@ public class IndexRequest {
     public void setSkippableFolders(String[] skippableFolders) {
         this.skippableFolders = skippableFolders;
     }
+
+    /** If true, files whose modified time and size match the index are skipped. */
+    public boolean isIncremental() {
+        return this.incremental;
+    }
+
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * If true and the folder is in a git repository, files are read from the commit at HEAD instead of
+     * the working tree. Incremental requests then only update the files changed since the last indexed commit.
+     */
+    public boolean isGit() {
+        return this.git;
+    }
+
+    public void setGit(boolean git) {
+        this.git = git;
+    }
 }
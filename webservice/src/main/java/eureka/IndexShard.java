@@ -0,0 +1,281 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.index.TieredMergePolicy;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+
+/**
+ * The index of the files under one root folder, in a directory of its own. Each shard has its own writer,
+ * so it can be merged, cleared or dropped without touching the others.
+ * <p>
+ * The root is saved in the commit data of the shard, so the shards can be found again on startup.
+ * The commit data also holds the settings the root was indexed with, so that it can be rebuilt.
+ * <p>
+ * The writer buffers eureka.index.ramBufferMB of documents before flushing a segment. Segments are merged
+ * by a TieredMergePolicy (eureka.index.segmentsPerTier, eureka.index.maxMergedSegmentMB,
+ * eureka.index.floorSegmentMB and eureka.index.deletesPctAllowed) on eureka.index.mergeThreads threads
+ * of a ConcurrentMergeScheduler, which picks a count based on the disk and cores when this is not set.
+ */
+class IndexShard implements Closeable {
+    private static final String ROOT_KEY = "eureka.shard.root";
+    private static final String REQUEST_KEY = "eureka.shard.request";
+    private static final int RAM_BUFFER_MB = Settings.getInt("eureka.index.ramBufferMB", 64);
+    private static final int SEGMENTS_PER_TIER = Settings.getInt("eureka.index.segmentsPerTier", 10);
+    private static final int MAX_MERGED_SEGMENT_MB = Settings.getInt("eureka.index.maxMergedSegmentMB", 5 * 1024);
+    private static final int FLOOR_SEGMENT_MB = Settings.getInt("eureka.index.floorSegmentMB", 2);
+    private static final int DELETES_PCT_ALLOWED = Settings.getInt("eureka.index.deletesPctAllowed", 33);
+    private static final int MERGE_THREADS = Settings.getInt("eureka.index.mergeThreads", 0);
+
+    private final Path root;
+    private final Path directoryPath;
+    private final IndexWriter writer;   // IndexWriter is thread-safe
+    private final SearcherManager searcherManager;
+
+    /**
+     * Opens the shard in the specified directory, creating it for the root if it does not exist.
+     */
+    IndexShard(Path directoryPath, Path root, Analyzer analyzer, SearcherFactory searcherFactory, ReferenceManager.RefreshListener... listeners) throws IOException {
+        this.root = root;
+        this.directoryPath = directoryPath;
+        writer = new IndexWriter(FSDirectory.open(directoryPath), createConfig(analyzer));
+        if (getCommitData(ROOT_KEY) == null) {
+            setCommitData(ROOT_KEY, root.toString());
+            writer.commit();
+        }
+        searcherManager = new SearcherManager(writer, true, true, searcherFactory);
+        for (ReferenceManager.RefreshListener listener : listeners) {
+            searcherManager.addListener(listener);
+        }
+    }
+
+    private static IndexWriterConfig createConfig(Analyzer analyzer) {
+        IndexWriterConfig config = new IndexWriterConfig(analyzer);
+        config.setOpenMode(OpenMode.CREATE_OR_APPEND);
+        config.setRAMBufferSizeMB(Math.max(1, RAM_BUFFER_MB));
+        TieredMergePolicy mergePolicy = new TieredMergePolicy();
+        mergePolicy.setSegmentsPerTier(Math.max(2, SEGMENTS_PER_TIER));
+        mergePolicy.setMaxMergedSegmentMB(Math.max(1, MAX_MERGED_SEGMENT_MB));
+        mergePolicy.setFloorSegmentMB(Math.max(0, FLOOR_SEGMENT_MB));
+        // TieredMergePolicy only accepts 20 to 50 percent.
+        mergePolicy.setDeletesPctAllowed(Math.max(20, Math.min(50, DELETES_PCT_ALLOWED)));
+        config.setMergePolicy(mergePolicy);
+        ConcurrentMergeScheduler mergeScheduler = new ConcurrentMergeScheduler();
+        if (MERGE_THREADS > 0)
+            mergeScheduler.setMaxMergesAndThreads(MERGE_THREADS + 5, MERGE_THREADS);
+        config.setMergeScheduler(mergeScheduler);
+        return config;
+    }
+
+    /**
+     * Returns the root of the shard in the specified directory, or null if the directory does not hold a shard.
+     */
+    static Path readRoot(Path directoryPath) throws IOException {
+        try (Directory directory = FSDirectory.open(directoryPath)) {
+            if (!DirectoryReader.indexExists(directory))
+                return null;
+            String root = SegmentInfos.readLatestCommit(directory).getUserData().get(ROOT_KEY);
+            return root != null ? Paths.get(root) : null;
+        }
+    }
+
+    Path getRoot() {
+        return root;
+    }
+
+    Path getDirectoryPath() {
+        return directoryPath;
+    }
+
+    /**
+     * Returns true if the path is the root of this shard or is under it.
+     */
+    boolean contains(Path path) {
+        return path.startsWith(root);
+    }
+
+    IndexWriter getWriter() {
+        return writer;
+    }
+
+    SearcherManager getSearcherManager() {
+        return searcherManager;
+    }
+
+    /**
+     * Returns the settings the root was last fully indexed with, as IndexRequest JSON, or null if unknown.
+     */
+    String getRequest() {
+        return getCommitData(REQUEST_KEY);
+    }
+
+    void setRequest(String json) {
+        setCommitData(REQUEST_KEY, json);
+    }
+
+    /**
+     * Returns a value that is saved along with the shard, or null if there is no such value.
+     */
+    String getCommitData(String key) {
+        Iterable<Map.Entry<String, String>> commitData = writer.getLiveCommitData();
+        if (commitData != null) {
+            for (Map.Entry<String, String> entry : commitData) {
+                if (entry.getKey().equals(key))
+                    return entry.getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the values saved under keys that start with the prefix.
+     */
+    List<String> getCommitDataWithPrefix(String prefix) {
+        List<String> values = new ArrayList<String>();
+        for (Map.Entry<String, String> entry : getCommitData().entrySet()) {
+            if (entry.getKey().startsWith(prefix))
+                values.add(entry.getValue());
+        }
+        return values;
+    }
+
+    /**
+     * Sets a value to be saved along with the shard on the next commit. A null value removes the key.
+     */
+    synchronized void setCommitData(String key, String value) {
+        Map<String, String> commitData = getCommitData();
+        if (value != null)
+            commitData.put(key, value);
+        else
+            commitData.remove(key);
+        writer.setLiveCommitData(commitData.entrySet());
+    }
+
+    /**
+     * Sets the values saved with another shard, except its root and settings, to be saved with this one on the
+     * next commit. Values this shard already has are kept.
+     */
+    synchronized void inheritCommitData(IndexShard other) {
+        Map<String, String> commitData = getCommitData();
+        for (Map.Entry<String, String> entry : other.getCommitData().entrySet()) {
+            if (!entry.getKey().equals(ROOT_KEY) && !entry.getKey().equals(REQUEST_KEY))
+                commitData.putIfAbsent(entry.getKey(), entry.getValue());
+        }
+        writer.setLiveCommitData(commitData.entrySet());
+    }
+
+    private Map<String, String> getCommitData() {
+        Map<String, String> commitData = new HashMap<String, String>();
+        Iterable<Map.Entry<String, String>> current = writer.getLiveCommitData();
+        if (current != null) {
+            for (Map.Entry<String, String> entry : current) {
+                commitData.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return commitData;
+    }
+
+    /**
+     * Deletes every file from the shard, and every value saved with it except the root and the settings,
+     * on the next commit.
+     */
+    synchronized void clear() throws IOException {
+        writer.deleteAll();
+        Map<String, String> commitData = new HashMap<String, String>();
+        commitData.put(ROOT_KEY, root.toString());
+        String request = getRequest();
+        if (request != null)
+            commitData.put(REQUEST_KEY, request);
+        writer.setLiveCommitData(commitData.entrySet());
+    }
+
+    int getSegmentCount() throws IOException {
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            return searcher.getIndexReader().leaves().size();
+        }
+        finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    int getDocCount() throws IOException {
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            return searcher.getIndexReader().numDocs();
+        }
+        finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    long getSizeBytes() throws IOException {
+        long size = 0;
+        Directory directory = writer.getDirectory();
+        for (String file : directory.listAll()) {
+            try {
+                size += directory.fileLength(file);
+            }
+            catch (NoSuchFileException ex) {
+                // Deleted by a merge or commit since the listing.
+            }
+        }
+        return size;
+    }
+
+    long getRamBytesUsed() {
+        return writer.ramBytesUsed();
+    }
+
+    @Override
+    public void close() throws IOException {
+        Directory directory = writer.getDirectory();
+        try {
+            searcherManager.close();
+            writer.close();
+        }
+        finally {
+            directory.close();
+        }
+    }
+
+    /**
+     * Closes the shard and deletes its directory. Searches that are still using the shard finish normally.
+     */
+    void drop() throws IOException {
+        Directory directory = writer.getDirectory();
+        try {
+            searcherManager.close();
+            writer.rollback();
+        }
+        finally {
+            for (String file : directory.listAll()) {
+                directory.deleteFile(file);
+            }
+            directory.close();
+        }
+        Files.deleteIfExists(directoryPath);
+    }
+}
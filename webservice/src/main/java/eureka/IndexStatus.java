@@ -5,6 +5,14 @@ package eureka;
 public class IndexStatus {
     public long fileCount;
     public boolean indexingInProgress;
+    /** How long it took to bring the search engine online, including warming up the searchers. */
+    public long startupMillis;
+    /** How long it took to warm up the most recent searcher, or -1 if none has been warmed up. */
+    public long warmupMillis;
+    /** How many recent queries the most recent searcher was warmed up with. */
+    public int warmupQueries;
+    /** How long the first search after startup took, or -1 if there has not been a search yet. */
+    public long firstQueryMillis;
 
     public IndexStatus(long fileCount, boolean indexingInProgress) {
         this.fileCount = fileCount;
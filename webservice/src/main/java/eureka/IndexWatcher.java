@@ -0,0 +1,309 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.log4j.Logger;
+
+/**
+ * Keeps the index in sync with the folders that have been indexed, using a WatchService.
+ * Events are debounced and coalesced, so that a burst of changes (for example a git checkout)
+ * is applied as a few large batches, each followed by a single commit. If the WatchService
+ * drops events, the folder that overflowed is re-indexed incrementally.
+ */
+class IndexWatcher {
+    private static final Logger log = Logger.getLogger(IndexWatcher.class);
+    // Each watched folder is saved with the shard it is in, under this prefix followed by the folder.
+    private static final String WATCHED_FOLDER_KEY = "eureka.watchedFolder.";
+    private static final long DEBOUNCE_MILLIS = Settings.getLong("eureka.watcher.debounceMillis", 500);
+    private static final long MAX_DELAY_MILLIS = Settings.getLong("eureka.watcher.maxDelayMillis", 5000);
+    private static final int MAX_BATCH_SIZE = Settings.getInt("eureka.watcher.maxBatchSize", 20000);
+
+    private final SearchEngine engine;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> watchedDirectories = new ConcurrentHashMap<WatchKey, Path>();
+    private final Map<String, IndexRequest> watchedFolders = new ConcurrentHashMap<String, IndexRequest>();
+    private final ObjectMapper mapper = new ObjectMapper();
+    private Thread thread;
+
+    IndexWatcher(SearchEngine engine) throws IOException {
+        this.engine = engine;
+        this.watchService = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * Starts watching the folders that were being watched when the shards were last committed.
+     */
+    void start() {
+        thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                restoreWatchedFolders();
+                processEvents();
+            }
+        }, "eureka-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    void close() throws IOException {
+        watchService.close();
+        if (thread != null)
+            thread.interrupt();
+    }
+
+    /**
+     * Starts watching a folder that has just been indexed, using the same indexable extensions and
+     * skippable folders. The folder is saved with its shard on the next commit.
+     */
+    void watch(IndexRequest indexRequest) throws IOException {
+        Path folder = Paths.get(indexRequest.getPath());
+        IndexRequest settings = new IndexRequest();
+        settings.setPath(folder.toString());
+        settings.setIndexableExtensions(indexRequest.getIndexableExtensions());
+        settings.setSkippableFolders(indexRequest.getSkippableFolders());
+        watchedFolders.put(folder.toString(), settings);
+        engine.setCommitData(folder, WATCHED_FOLDER_KEY + folder, mapper.writeValueAsString(settings));
+        registerTree(folder, settings);
+    }
+
+    /**
+     * Stops watching the folders under the specified folder, for example because its shard is being dropped.
+     */
+    void unwatch(Path root) {
+        for (String folder : watchedFolders.keySet()) {
+            if (Paths.get(folder).startsWith(root)) {
+                watchedFolders.remove(folder);
+                engine.setCommitData(Paths.get(folder), WATCHED_FOLDER_KEY + folder, null);
+            }
+        }
+        for (Map.Entry<WatchKey, Path> entry : watchedDirectories.entrySet()) {
+            if (entry.getValue().startsWith(root)) {
+                entry.getKey().cancel();
+                watchedDirectories.remove(entry.getKey());
+            }
+        }
+    }
+
+    /**
+     * Stops watching all folders.
+     */
+    void unwatchAll() {
+        for (String folder : watchedFolders.keySet()) {
+            engine.setCommitData(Paths.get(folder), WATCHED_FOLDER_KEY + folder, null);
+        }
+        watchedFolders.clear();
+        for (WatchKey key : watchedDirectories.keySet()) {
+            key.cancel();
+        }
+        watchedDirectories.clear();
+    }
+
+    private void restoreWatchedFolders() {
+        try {
+            for (String json : engine.getCommitDataWithPrefix(WATCHED_FOLDER_KEY)) {
+                IndexRequest settings = mapper.readValue(json, IndexRequest.class);
+                if (Files.isDirectory(Paths.get(settings.getPath()))) {
+                    watchedFolders.put(settings.getPath(), settings);
+                    registerTree(Paths.get(settings.getPath()), settings);
+                }
+            }
+        }
+        catch (IOException ex) {
+            log.error("could not restore watched folders", ex);
+        }
+    }
+
+    private void registerTree(Path folder, final IndexRequest settings) throws IOException {
+        Files.walkFileTree(folder, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) throws IOException {
+                // Never watch the index itself, because each commit would then trigger another commit.
+                if (SearchEngine.isFolderSkippable(path, getSkippableFolders(settings)) || path.startsWith(engine.getIndexPath()))
+                    return FileVisitResult.SKIP_SUBTREE;
+                WatchKey key = path.register(watchService, ENTRY_CREATE, ENTRY_DELETE, ENTRY_MODIFY);
+                watchedDirectories.put(key, path);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path path, IOException ex) {
+                log.warn("could not watch " + path + ": " + ex.getMessage());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void processEvents() {
+        try {
+            for ( ; ; ) {
+                Map<Path, WatchEvent.Kind<?>> changes = new LinkedHashMap<Path, WatchEvent.Kind<?>>();
+                TreeSet<Path> overflowed = new TreeSet<Path>();
+                collectEvents(watchService.take(), changes, overflowed);
+
+                // Keep collecting until things have been quiet for a while, or the batch is big or old enough.
+                long deadline = System.currentTimeMillis() + MAX_DELAY_MILLIS;
+                while (changes.size() < MAX_BATCH_SIZE && System.currentTimeMillis() < deadline) {
+                    WatchKey key = watchService.poll(DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+                    if (key == null)
+                        break;
+                    collectEvents(key, changes, overflowed);
+                }
+                applyChanges(changes, overflowed);
+            }
+        }
+        catch (InterruptedException | ClosedWatchServiceException ex) {
+            // Search engine is going offline.
+        }
+    }
+
+    private void collectEvents(WatchKey key, Map<Path, WatchEvent.Kind<?>> changes, TreeSet<Path> overflowed) {
+        Path directory = watchedDirectories.get(key);
+        if (directory != null) {
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == OVERFLOW) {
+                    overflowed.add(directory);
+                    continue;
+                }
+                Path path = directory.resolve((Path) event.context());
+                // Only the most recent event for a path matters, except that a folder that was created
+                // and then modified must still be treated as new.
+                WatchEvent.Kind<?> previous = changes.remove(path);
+                changes.put(path, previous == ENTRY_CREATE && event.kind() == ENTRY_MODIFY ? ENTRY_CREATE : event.kind());
+            }
+        }
+        if (!key.reset())
+            watchedDirectories.remove(key);
+    }
+
+    private void applyChanges(Map<Path, WatchEvent.Kind<?>> changes, TreeSet<Path> overflowed) {
+        int updated = 0, deleted = 0;
+        try {
+            for (Map.Entry<Path, WatchEvent.Kind<?>> change : changes.entrySet()) {
+                Path path = change.getKey();
+                engine.folderChanged(path, false);
+                IndexRequest settings = getSettings(path);
+                if (settings == null || isUnder(path, overflowed))
+                    continue;
+                BasicFileAttributes attrs = null;
+                try {
+                    attrs = Files.readAttributes(path, BasicFileAttributes.class);
+                }
+                catch (IOException ex) {
+                    // File no longer exists.
+                }
+                if (attrs == null) {
+                    engine.deleteFromIndex(path);
+                    deleted++;
+                }
+                else if (attrs.isDirectory()) {
+                    if (change.getValue() == ENTRY_CREATE && !SearchEngine.isFolderSkippable(path, getSkippableFolders(settings))) {
+                        // Files may have been added to the new folder before it could be registered.
+                        registerTree(path, settings);
+                        overflowed.add(path);
+                    }
+                }
+                else if (attrs.isRegularFile() && SearchEngine.isFileIndexable(path, getIndexableExtensions(settings))) {
+                    try {
+                        engine.addFileToIndex(path, attrs.lastModifiedTime().toMillis(), attrs.size());
+                        updated++;
+                    }
+                    catch (IOException | IllegalArgumentException ignore) {
+                        // Skip files that can't be read, or whose shard was dropped since the change was seen.
+                    }
+                }
+            }
+            if (updated > 0 || deleted > 0) {
+                log.info("watcher: updated " + updated + " files, deleted " + deleted + " files");
+                engine.commitChanges();
+            }
+
+            for (Path folder : removeNested(overflowed)) {
+                engine.folderChanged(folder, true);
+                IndexRequest settings = getSettings(folder);
+                if (settings != null && Files.isDirectory(folder)) {
+                    log.info("watcher: re-indexing " + folder);
+                    IndexRequest request = new IndexRequest();
+                    request.setPath(folder.toString());
+                    request.setIndexableExtensions(getIndexableExtensions(settings));
+                    request.setSkippableFolders(getSkippableFolders(settings));
+                    request.setIncremental(true);
+                    try {
+                        engine.getJobScheduler().submit(request, IndexingJob.Kind.RESCAN);
+                    }
+                    catch (RejectedExecutionException ex) {
+                        log.warn("watcher: could not queue re-indexing of " + folder + " because too many indexing jobs are waiting");
+                    }
+                }
+            }
+        }
+        catch (IOException ex) {
+            log.error("watcher could not update the index", ex);
+        }
+    }
+
+    /** Returns the settings of the watched folder that contains the path, or null if the path is not being watched. */
+    private IndexRequest getSettings(Path path) {
+        IndexRequest settings = null;
+        for (IndexRequest candidate : watchedFolders.values()) {
+            Path folder = Paths.get(candidate.getPath());
+            if (path.startsWith(folder) && (settings == null || folder.startsWith(Paths.get(settings.getPath()))))
+                settings = candidate;
+        }
+        return settings;
+    }
+
+    private String[] getIndexableExtensions(IndexRequest settings) {
+        String[] extensions = settings.getIndexableExtensions();
+        return extensions != null ? extensions : engine.getIndexableExtensions();
+    }
+
+    private String[] getSkippableFolders(IndexRequest settings) {
+        String[] folders = settings.getSkippableFolders();
+        return folders != null ? folders : engine.getSkippableFolders();
+    }
+
+    private static boolean isUnder(Path path, Collection<Path> folders) {
+        for (Path folder : folders) {
+            if (path.startsWith(folder))
+                return true;
+        }
+        return false;
+    }
+
+    /** Given a sorted set of folders, drops the folders that are inside another folder in the set. */
+    private static List<Path> removeNested(TreeSet<Path> folders) {
+        List<Path> result = new ArrayList<Path>();
+        for (Path folder : folders) {
+            if (!isUnder(folder, result))
+                result.add(folder);
+        }
+        return result;
+    }
+}
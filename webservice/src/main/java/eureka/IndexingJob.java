@@ -0,0 +1,60 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+import java.util.concurrent.Future;
+
+/**
+ * A request to index a folder, queued in the IndexingJobScheduler. State changes are made while
+ * holding the scheduler's lock.
+ */
+class IndexingJob {
+    enum State { QUEUED, RUNNING, COMPLETED, FAILED, CANCELLED }
+
+    /**
+     * INDEX jobs are requested through the API, and the folder is watched once it has been indexed.
+     * REBUILD jobs are the same, but first empty the shard of the folder. RESCAN jobs are requested by
+     * the index watcher for a folder under a watched root, when it has lost track of the changes there.
+     */
+    enum Kind { INDEX, REBUILD, RESCAN }
+
+    final String id;
+    final String root;
+    final IndexingProgress progress;
+    final long queuedAt = System.currentTimeMillis();
+    volatile Kind kind;
+    volatile IndexRequest request;
+    volatile State state = State.QUEUED;
+    volatile long startedAt;
+    volatile long finishedAt;
+    volatile String error;
+    Future<?> future;
+
+    IndexingJob(String id, String root, Kind kind, IndexRequest request) {
+        this.id = id;
+        this.root = root;
+        this.kind = kind;
+        this.request = request;
+        this.progress = new IndexingProgress(root);
+    }
+
+    boolean isFinished() {
+        return state == State.COMPLETED || state == State.FAILED || state == State.CANCELLED;
+    }
+
+    JobStatus getStatus() {
+        JobStatus status = new JobStatus();
+        status.id = id;
+        status.path = root;
+        status.kind = kind.name();
+        status.incremental = request.isIncremental();
+        status.state = state.name();
+        status.queuedAt = queuedAt;
+        status.startedAt = startedAt;
+        status.finishedAt = finishedAt;
+        status.error = error;
+        if (state != State.QUEUED)
+            status.progress = progress.snapshot();
+        return status;
+    }
+}
@@ -0,0 +1,258 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.log4j.Logger;
+
+/**
+ * Runs folder indexing jobs on a small fixed pool of threads, so that index requests queue up instead
+ * of all crawling the disk at the same time. Each job carries its own indexable extensions and
+ * skippable folders. Requesting a folder that already has a queued job updates that job instead of
+ * adding another one. Jobs can be cancelled while queued or while running.
+ * <p>
+ * Jobs for folders that overlap, one being the same as or under the other, never run at the same time:
+ * a job waits for an overlapping job that is running to finish before it starts. Rescans requested by
+ * the index watcher are dropped if a queued job will walk the folder anyway, and replace queued rescans
+ * of folders under theirs.
+ *
+ * The pool size, the number of jobs that may wait, and the number of finished jobs that are remembered
+ * can be set using the eureka.jobs.threads, eureka.jobs.queueSize and eureka.jobs.historySize system properties.
+ * When the search engine goes offline, running jobs are given eureka.jobs.shutdownSeconds to stop.
+ */
+class IndexingJobScheduler {
+    private static final Logger log = Logger.getLogger(IndexingJobScheduler.class);
+    private static final int THREADS = Settings.getInt("eureka.jobs.threads", 1);
+    private static final int QUEUE_SIZE = Settings.getInt("eureka.jobs.queueSize", 16);
+    private static final int HISTORY_SIZE = Settings.getInt("eureka.jobs.historySize", 50);
+    private static final long SHUTDOWN_SECONDS = Settings.getLong("eureka.jobs.shutdownSeconds", 30);
+
+    private final SearchEngine engine;
+    private final ThreadPoolExecutor executor;
+    private final Map<String, IndexingJob> jobs = new LinkedHashMap<String, IndexingJob>();   // guarded by this
+    private int nextId = 1;   // guarded by this
+
+    IndexingJobScheduler(SearchEngine engine) {
+        this.engine = engine;
+        final AtomicInteger threadCount = new AtomicInteger();
+        int threads = Math.max(1, THREADS);
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(Math.max(1, QUEUE_SIZE)), runnable -> {
+                Thread thread = new Thread(runnable, "eureka-job-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+    }
+
+    /**
+     * Queues a job to index a folder, or if a job for the same folder is still waiting to start,
+     * replaces that job's settings with the ones in this request and returns it.
+     * @throws RejectedExecutionException if too many jobs are already waiting.
+     */
+    synchronized IndexingJob submit(IndexRequest request) {
+        return submit(request, IndexingJob.Kind.INDEX);
+    }
+
+    synchronized IndexingJob submit(IndexRequest request, IndexingJob.Kind kind) {
+        Path rootPath = Paths.get(request.getPath());
+        String root = rootPath.toString();
+        List<IndexingJob> superseded = new ArrayList<IndexingJob>();
+        for (IndexingJob job : jobs.values()) {
+            if (job.state != IndexingJob.State.QUEUED)
+                continue;
+            if (job.root.equals(root)) {
+                // A rescan adds nothing to a job that is already going to walk the folder,
+                // and a queued rebuild stays a rebuild.
+                if (kind != IndexingJob.Kind.RESCAN) {
+                    job.request = request;
+                    if (job.kind != IndexingJob.Kind.REBUILD)
+                        job.kind = kind;
+                }
+                return job;
+            }
+            if (kind == IndexingJob.Kind.RESCAN) {
+                if (rootPath.startsWith(job.root))
+                    return job;
+                if (job.kind == IndexingJob.Kind.RESCAN && Paths.get(job.root).startsWith(rootPath))
+                    superseded.add(job);
+            }
+        }
+        final IndexingJob job = new IndexingJob(Integer.toString(nextId++), root, kind, request);
+        job.future = executor.submit(new Runnable() {
+            @Override
+            public void run() {
+                runJob(job);
+            }
+        });
+        jobs.put(job.id, job);
+        for (IndexingJob rescan : superseded) {
+            cancelQueued(rescan, "replaced by job " + job.id);
+        }
+        forgetOldJobs();
+        return job;
+    }
+
+    synchronized IndexingJob getJob(String id) {
+        return jobs.get(id);
+    }
+
+    synchronized List<IndexingJob> getJobs() {
+        return new ArrayList<IndexingJob>(jobs.values());
+    }
+
+    /**
+     * Cancels a job. A queued job is removed from the queue. A running job stops walking the folder,
+     * drops the files it has queued, and commits what has been indexed so far.
+     * Returns the job, or null if there is no such job.
+     */
+    synchronized IndexingJob cancel(String id) {
+        IndexingJob job = jobs.get(id);
+        if (job == null)
+            return null;
+        if (job.state == IndexingJob.State.QUEUED) {
+            cancelQueued(job, null);
+        }
+        else if (job.state == IndexingJob.State.RUNNING) {
+            job.progress.cancel();
+        }
+        return job;
+    }
+
+    /**
+     * Cancels every job and stops the threads. Running jobs stop walking, commit what they have indexed,
+     * and finish before this returns, so that they don't write to shards that are closed after this.
+     */
+    void close() {
+        synchronized (this) {
+            for (IndexingJob job : jobs.values()) {
+                if (job.state == IndexingJob.State.QUEUED)
+                    cancelQueued(job, "the search engine went offline");
+                else if (job.state == IndexingJob.State.RUNNING)
+                    job.progress.cancel();
+            }
+        }
+        // Interrupting a thread that is writing to the index closes the file it is writing, so running jobs
+        // are first given time to stop on their own.
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(SHUTDOWN_SECONDS, TimeUnit.SECONDS)) {
+                log.warn("indexing jobs did not stop within " + SHUTDOWN_SECONDS + " seconds; interrupting them");
+                executor.shutdownNow();
+                executor.awaitTermination(SHUTDOWN_SECONDS, TimeUnit.SECONDS);
+            }
+        }
+        catch (InterruptedException ex) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void cancelQueued(IndexingJob job, String reason) {
+        job.future.cancel(false);
+        executor.purge();
+        finish(job, IndexingJob.State.CANCELLED, reason);
+    }
+
+    private void runJob(IndexingJob job) {
+        IndexRequest request;
+        synchronized (this) {
+            try {
+                while (job.state == IndexingJob.State.QUEUED && isOverlappingJobRunning(job))
+                    wait();
+            }
+            catch (InterruptedException ex) {
+                // The executor is shutting down.
+                return;
+            }
+            if (job.state != IndexingJob.State.QUEUED)
+                return;
+            job.state = IndexingJob.State.RUNNING;
+            job.startedAt = System.currentTimeMillis();
+            request = job.request;
+        }
+        try {
+            String[] extensions = request.getIndexableExtensions() != null ? request.getIndexableExtensions() : engine.getIndexableExtensions();
+            String[] folders = request.getSkippableFolders() != null ? request.getSkippableFolders() : engine.getSkippableFolders();
+            // The shard is emptied here rather than when the job is requested, so that a request that
+            // can't be queued leaves the index as it was.
+            if (job.kind == IndexingJob.Kind.REBUILD)
+                engine.clearShard(job.root);
+            boolean git = request.isGit() && GitIndexer.isInRepository(Paths.get(job.root));
+            if (git)
+                engine.addGitFolderToIndex(job.root, request.isIncremental(), extensions, folders, job.progress);
+            else
+                engine.addFolderToIndex(job.root, request.isIncremental(), extensions, folders, job.progress);
+            if (job.progress.isCancelled()) {
+                finish(job, IndexingJob.State.CANCELLED, null);
+            }
+            else {
+                // A folder indexed from git follows commits, not the working tree, so it is not watched.
+                // A rescan is of a folder under a root that is already watched.
+                if (!git && job.kind != IndexingJob.Kind.RESCAN)
+                    engine.watchFolder(request);
+                finish(job, IndexingJob.State.COMPLETED, null);
+            }
+        }
+        catch (Exception ex) {
+            log.error("indexing job " + job.id + " failed", ex);
+            finish(job, IndexingJob.State.FAILED, ex.getMessage());
+        }
+    }
+
+    private synchronized void finish(IndexingJob job, IndexingJob.State state, String error) {
+        job.error = error;
+        job.finishedAt = System.currentTimeMillis();
+        job.state = state;
+        forgetOldJobs();
+        // Jobs waiting for this one to finish can start.
+        notifyAll();
+    }
+
+    /**
+     * Returns true if any job is queued or running.
+     */
+    synchronized boolean isBusy() {
+        for (IndexingJob job : jobs.values()) {
+            if (!job.isFinished())
+                return true;
+        }
+        return false;
+    }
+
+    private boolean isOverlappingJobRunning(IndexingJob job) {
+        Path root = Paths.get(job.root);
+        for (IndexingJob other : jobs.values()) {
+            if (other.state == IndexingJob.State.RUNNING) {
+                Path otherRoot = Paths.get(other.root);
+                if (root.startsWith(otherRoot) || otherRoot.startsWith(root))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private void forgetOldJobs() {
+        int finished = 0;
+        for (IndexingJob job : jobs.values()) {
+            if (job.isFinished())
+                finished++;
+        }
+        for (Iterator<IndexingJob> it = jobs.values().iterator(); it.hasNext() && finished > HISTORY_SIZE; ) {
+            if (it.next().isFinished()) {
+                it.remove();
+                finished--;
+            }
+        }
+    }
+}
@@ -0,0 +1,192 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.Logger;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Indexes files on a pool of worker threads. The directory walk submits files to a bounded queue,
+ * and blocks when the queue is full so that the walk can never run far ahead of the workers.
+ * Each worker reads, analyzes and adds one file at a time to the (thread-safe) IndexWriter.
+ */
+class IndexingPipeline {
+    private static final Logger log = Logger.getLogger(IndexingPipeline.class);
+    private static final FileTask END_OF_WORK = new FileTask(null, null, 0, 0);
+
+    private final SearchEngine engine;
+    private final IndexingProgress progress;
+    private final Repository repository;
+    private final BlockingQueue<FileTask> queue;
+    private final List<Thread> workers = new ArrayList<Thread>();
+    private volatile Throwable failure;
+
+    IndexingPipeline(SearchEngine engine, IndexingProgress progress, int threadCount, int queueCapacity) {
+        this(engine, progress, threadCount, queueCapacity, null);
+    }
+
+    /**
+     * Creates a pipeline that can also index blobs from the specified git repository. Each worker reads
+     * blobs through its own ObjectReader, because readers are not thread-safe.
+     */
+    IndexingPipeline(SearchEngine engine, IndexingProgress progress, int threadCount, int queueCapacity, Repository repository) {
+        this.engine = engine;
+        this.progress = progress;
+        this.repository = repository;
+        this.queue = new ArrayBlockingQueue<FileTask>(Math.max(1, queueCapacity));
+        for (int i = 0; i < Math.max(1, threadCount); i++) {
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    processQueue();
+                }
+            }, "eureka-indexer-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+        }
+    }
+
+    void start() {
+        for (Thread worker : workers) {
+            worker.start();
+        }
+    }
+
+    /**
+     * Queues a file for indexing. Blocks while the queue is full, or while committing the files indexed
+     * so far when it is time for a periodic commit.
+     */
+    void submit(Path filePath, long lastModified, long size) throws IOException {
+        engine.maybeCommit();
+        put(new FileTask(filePath, null, lastModified, size));
+    }
+
+    /**
+     * Queues a git blob for indexing under the specified path. Blocks like submit.
+     */
+    void submitBlob(Path filePath, ObjectId blobId, long lastModified, long size) throws IOException {
+        if (repository == null)
+            throw new IllegalStateException("Pipeline was not created with a repository.");
+        engine.maybeCommit();
+        put(new FileTask(filePath, blobId, lastModified, size));
+    }
+
+    /**
+     * Waits for all queued files to be indexed, then stops the workers.
+     * Rethrows the first error that stopped a worker, if any.
+     */
+    void finish() throws IOException {
+        try {
+            for (int i = 0; i < workers.size(); i++) {
+                put(END_OF_WORK);
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for indexing to finish.");
+        }
+        finally {
+            abort();
+        }
+        checkFailure();
+    }
+
+    /**
+     * Drops the files that are waiting in the queue. Files that are being indexed are finished normally.
+     */
+    void discardQueued() {
+        queue.clear();
+    }
+
+    /**
+     * Stops the workers without waiting for queued files to be indexed.
+     */
+    void abort() {
+        queue.clear();
+        for (Thread worker : workers) {
+            if (worker.isAlive())
+                worker.interrupt();
+        }
+    }
+
+    private void put(FileTask task) throws IOException {
+        try {
+            while (!queue.offer(task, 100, TimeUnit.MILLISECONDS)) {
+                checkFailure();
+            }
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while queueing files for indexing.");
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        Throwable t = failure;
+        if (t instanceof IOException)
+            throw (IOException) t;
+        if (t != null)
+            throw new IOException("Indexing failed: " + t.getMessage(), t);
+    }
+
+    private void processQueue() {
+        ObjectReader reader = repository != null ? repository.newObjectReader() : null;
+        try {
+            for ( ; ; ) {
+                FileTask task = queue.take();
+                if (task == END_OF_WORK)
+                    break;
+                progress.fileStarted(task.path);
+                try {
+                    if (task.blobId != null)
+                        engine.addBlobToIndex(task.path, repository.getDirectory(), reader, task.blobId, task.lastModified);
+                    else
+                        engine.addFileToIndex(task.path, task.lastModified, task.size);
+                    progress.fileDone(task.size);
+                }
+                catch (IOException ex) {
+                    // Skip files that can't be read.
+                    progress.fileFailed(task.path, ex);
+                }
+            }
+        }
+        catch (InterruptedException ex) {
+            // Pipeline was aborted.
+        }
+        catch (Throwable t) {
+            log.error("indexing worker failed", t);
+            failure = t;
+        }
+        finally {
+            if (reader != null)
+                reader.close();
+        }
+    }
+
+    private static class FileTask {
+        final Path path;
+        final ObjectId blobId;
+        final long lastModified;
+        final long size;
+
+        FileTask(Path path, ObjectId blobId, long lastModified, long size) {
+            this.path = path;
+            this.blobId = blobId;
+            this.lastModified = lastModified;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,115 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Tracks the progress of one folder indexing run. The directory walk and the indexing workers update
+ * it without locking; readers take a snapshot when they want to report it.
+ */
+class IndexingProgress {
+    private final String folder;
+    private volatile long startNanos = System.nanoTime();
+    private volatile long stopNanos;
+    private final LongAdder filesFound = new LongAdder();
+    private final LongAdder bytesFound = new LongAdder();
+    private final LongAdder filesDone = new LongAdder();
+    private final LongAdder bytesDone = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private volatile boolean walkFinished;
+    private volatile boolean cancelled;
+    private volatile Path currentFile;
+    private volatile String lastError;
+
+    IndexingProgress(String folder) {
+        this.folder = folder;
+    }
+
+    /**
+     * Asks the indexing run to stop. Files that have already been indexed are kept.
+     */
+    void cancel() {
+        cancelled = true;
+    }
+
+    boolean isCancelled() {
+        return cancelled;
+    }
+
+    void started() {
+        startNanos = System.nanoTime();
+    }
+
+    void stopped() {
+        stopNanos = System.nanoTime();
+    }
+
+    void fileFound(long size) {
+        filesFound.increment();
+        bytesFound.add(size);
+    }
+
+    void walkFinished() {
+        walkFinished = true;
+    }
+
+    void fileStarted(Path path) {
+        currentFile = path;
+    }
+
+    void fileDone(long size) {
+        filesDone.increment();
+        bytesDone.add(size);
+    }
+
+    void fileFailed(Path path, IOException ex) {
+        errors.increment();
+        filesDone.increment();
+        lastError = path + ": " + ex.getClass().getSimpleName() + (ex.getMessage() != null ? " " + ex.getMessage() : "");
+    }
+
+    /**
+     * Returns the file most recently started, or the folder if no file has been started yet.
+     */
+    String getCurrentPath() {
+        Path file = currentFile;
+        return file != null ? file.toString() : folder;
+    }
+
+    /**
+     * Returns a number that increases whenever a file is found or finished, so that unchanged progress need not be reported again.
+     */
+    long getVersion() {
+        return filesFound.sum() + filesDone.sum() + (walkFinished ? 1 : 0);
+    }
+
+    ProgressEvent snapshot() {
+        ProgressEvent event = new ProgressEvent();
+        event.folder = folder;
+        Path file = currentFile;
+        if (file != null) {
+            event.currentFile = file.toString();
+            event.currentFolder = file.getParent() != null ? file.getParent().toString() : null;
+        }
+        event.totalFinal = walkFinished;
+        event.filesTotal = filesFound.sum();
+        event.bytesTotal = bytesFound.sum();
+        event.filesDone = Math.min(filesDone.sum(), event.filesTotal);
+        event.bytesDone = Math.min(bytesDone.sum(), event.bytesTotal);
+        event.errors = errors.sum();
+        event.lastError = lastError;
+        long stop = stopNanos;
+        long elapsedNanos = Math.max((stop != 0 ? stop : System.nanoTime()) - startNanos, 1);
+        event.elapsedMillis = TimeUnit.NANOSECONDS.toMillis(elapsedNanos);
+        double seconds = elapsedNanos / 1e9;
+        event.filesPerSecond = event.filesDone / seconds;
+        event.bytesPerSecond = event.bytesDone / seconds;
+        // Until the walk is finished the total keeps growing, so the estimate is a lower bound.
+        event.etaSeconds = event.bytesPerSecond > 0 ? (long) Math.ceil((event.bytesTotal - event.bytesDone) / event.bytesPerSecond) : -1;
+        return event;
+    }
+}
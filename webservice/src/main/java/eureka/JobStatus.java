@@ -0,0 +1,22 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+/**
+ * The state of an indexing job, as returned by the /searchengine/jobs endpoints.
+ */
+public class JobStatus {
+    public String id;
+    public String path;
+    /** INDEX or REBUILD for jobs requested through the API, RESCAN for jobs requested by the index watcher. */
+    public String kind;
+    public boolean incremental;
+    /** One of QUEUED, RUNNING, COMPLETED, FAILED or CANCELLED. */
+    public String state;
+    public long queuedAt;
+    public long startedAt;
+    public long finishedAt;
+    public String error;
+    /** Progress of a job that has started. For a job that has finished, this is its progress when it stopped. */
+    public ProgressEvent progress;
+}
@@ -0,0 +1,40 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+/**
+ * Progress of the most recent optimization of the index, as returned by the /searchengine/optimize endpoints.
+ */
+public class OptimizeStatus {
+    /** One of IDLE, RUNNING, COMPLETED or FAILED. */
+    public String state = "IDLE";
+    /** True if the run was started by the off-peak schedule rather than a request. */
+    public boolean scheduled;
+    /** Each shard is merged down to this many segments, or if 0, only segments with deleted files are merged. */
+    public int maxSegments;
+    public int shardCount;
+    public int shardsDone;
+    /** The root of the shard being merged. */
+    public String currentShard;
+    public long segmentsBefore;
+    public long segmentsAfter;
+    public long startedAt;
+    public long finishedAt;
+    public String error;
+
+    OptimizeStatus copy() {
+        OptimizeStatus copy = new OptimizeStatus();
+        copy.state = state;
+        copy.scheduled = scheduled;
+        copy.maxSegments = maxSegments;
+        copy.shardCount = shardCount;
+        copy.shardsDone = shardsDone;
+        copy.currentShard = currentShard;
+        copy.segmentsBefore = segmentsBefore;
+        copy.segmentsAfter = segmentsAfter;
+        copy.startedAt = startedAt;
+        copy.finishedAt = finishedAt;
+        copy.error = error;
+        return copy;
+    }
+}
@@ -0,0 +1,134 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.log4j.Logger;
+import org.glassfish.jersey.media.sse.EventOutput;
+import org.glassfish.jersey.media.sse.OutboundEvent;
+import org.glassfish.jersey.media.sse.SseBroadcaster;
+import org.glassfish.jersey.server.BroadcasterListener;
+import org.glassfish.jersey.server.ChunkedOutput;
+
+/**
+ * Sends indexing progress to every /searchengine/progress subscriber. A single scheduler thread takes
+ * a snapshot of the progress at a fixed rate and, if anything has changed, sends it to all subscribers
+ * at once, so the cost does not depend on how many files are indexed or how many clients are listening.
+ * When indexing finishes and no more indexing jobs are waiting, all subscribers are sent a final event
+ * and disconnected.
+ *
+ * Each update is sent as two events: a "progress" event with the JSON snapshot, and a "message" event
+ * with just the path of the current file, which is what older clients display.
+ */
+class ProgressBroadcaster {
+    private static final Logger log = Logger.getLogger(ProgressBroadcaster.class);
+    private static final long INTERVAL_MILLIS = Settings.getLong("eureka.progress.intervalMillis", 250);
+
+    private final SearchEngine engine;
+    private final SseBroadcaster broadcaster = new SseBroadcaster();
+    private final ScheduledExecutorService scheduler;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private ScheduledFuture<?> task;   // guarded by this
+    private long lastVersion = -1;   // only used on the scheduler thread
+
+    ProgressBroadcaster(SearchEngine engine) {
+        this.engine = engine;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "eureka-progress");
+            thread.setDaemon(true);
+            return thread;
+        });
+        broadcaster.add(new BroadcasterListener<OutboundEvent>() {
+            @Override
+            public void onException(ChunkedOutput<OutboundEvent> output, Exception ex) {
+                // Most likely the client has gone away. Closing the output makes the broadcaster drop it.
+                try {
+                    output.close();
+                }
+                catch (IOException ignore) {
+                }
+            }
+
+            @Override
+            public void onClose(ChunkedOutput<OutboundEvent> output) {
+            }
+        });
+    }
+
+    /**
+     * Adds a subscriber. If no folder is being indexed and no indexing job is waiting, the subscriber
+     * receives a final event and is disconnected.
+     */
+    synchronized EventOutput subscribe() {
+        EventOutput output = new EventOutput();
+        broadcaster.add(output);
+        if (task == null) {
+            lastVersion = -1;
+            task = scheduler.scheduleAtFixedRate(this::tick, 0, INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        return output;
+    }
+
+    private void tick() {
+        try {
+            IndexingProgress progress = engine.getIndexingProgress();
+            if (progress == null) {
+                // A job may be waiting for a thread, or may have started but not reached the walk yet.
+                if (!engine.getJobScheduler().isBusy())
+                    finish();
+                return;
+            }
+            long version = progress.getVersion();
+            if (version == lastVersion)
+                return;
+            lastVersion = version;
+            ProgressEvent event = progress.snapshot();
+            broadcaster.broadcast(buildEvent("progress", event));
+            if (event.currentFile != null)
+                broadcaster.broadcast(new OutboundEvent.Builder().name("message").data(String.class, event.currentFile).build());
+        }
+        catch (RuntimeException | JsonProcessingException ex) {
+            // An exception would cancel the scheduled task, leaving subscribers waiting forever.
+            log.error("could not send indexing progress", ex);
+        }
+    }
+
+    private synchronized void finish() throws JsonProcessingException {
+        ProgressEvent event = new ProgressEvent();
+        event.done = true;
+        event.etaSeconds = 0;
+        broadcaster.broadcast(buildEvent("progress", event));
+        broadcaster.closeAll();
+        task.cancel(false);
+        task = null;
+    }
+
+    /**
+     * Returns true if this reports on the specified engine. A new engine needs a new broadcaster.
+     */
+    boolean isFor(SearchEngine engine) {
+        return this.engine == engine;
+    }
+
+    /**
+     * Disconnects all subscribers and stops the scheduler thread.
+     */
+    synchronized void close() {
+        if (task != null) {
+            task.cancel(false);
+            task = null;
+        }
+        broadcaster.closeAll();
+        scheduler.shutdownNow();
+    }
+
+    private OutboundEvent buildEvent(String name, ProgressEvent event) throws JsonProcessingException {
+        return new OutboundEvent.Builder().name(name).data(String.class, mapper.writeValueAsString(event)).build();
+    }
+}
@@ -0,0 +1,26 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+/**
+ * A snapshot of the progress of a folder indexing run, as sent to /searchengine/progress subscribers.
+ */
+public class ProgressEvent {
+    public String folder;
+    public String currentFolder;
+    public String currentFile;
+    public long filesDone;
+    /** Files found so far. This is only an estimate of the total until totalFinal is true. */
+    public long filesTotal;
+    public boolean totalFinal;
+    public long bytesDone;
+    public long bytesTotal;
+    public double filesPerSecond;
+    public double bytesPerSecond;
+    /** Estimated seconds remaining, or -1 if it can't be estimated yet. */
+    public long etaSeconds;
+    public long elapsedMillis;
+    public long errors;
+    public String lastError;
+    public boolean done;
+}
@@ -0,0 +1,139 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.Logger;
+
+/**
+ * The most recent distinct queries, kept in a file next to the shards so that they survive a restart.
+ * New searchers are warmed up by running these queries before they are used. See SearchEngine.warm.
+ * <p>
+ * Each line of the file is a search mode, a tab, and the query. Queries with line breaks are not kept.
+ * The file is written every eureka.warmup.saveEvery new queries, on a background thread so that searches
+ * don't wait for it, and when the engine goes offline.
+ */
+class QueryLog {
+    private static final Logger log = Logger.getLogger(QueryLog.class);
+    private static final int SAVE_EVERY = Settings.getInt("eureka.warmup.saveEvery", 20);
+
+    private final Path file;
+    private final int capacity;
+    private final LinkedHashSet<String> entries = new LinkedHashSet<String>();   // guarded by this, oldest first
+    private int unsaved;   // guarded by this
+    private boolean savePending;   // guarded by this
+    private final Object saveLock = new Object();
+    // One thread, so saves never overlap and write the temporary file at the same time.
+    private final ExecutorService saver = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "eureka-query-log");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    QueryLog(Path file, int capacity) {
+        this.file = file;
+        this.capacity = capacity;
+    }
+
+    void load() {
+        try {
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            synchronized (this) {
+                for (String line : lines) {
+                    if (line.indexOf('\t') > 0)
+                        add(line);
+                }
+            }
+            log.info("loaded " + entries.size() + " recent queries");
+        }
+        catch (NoSuchFileException ex) {
+            // Nothing has been searched yet.
+        }
+        catch (IOException ex) {
+            log.warn("could not read " + file + ": " + ex.getMessage());
+        }
+    }
+
+    void record(SearchOptions.Mode mode, String q) {
+        if (capacity <= 0 || q.indexOf('\n') >= 0 || q.indexOf('\r') >= 0)
+            return;
+        synchronized (this) {
+            add(mode.name() + "\t" + q);
+            if (++unsaved < SAVE_EVERY || savePending || saver.isShutdown())
+                return;
+            savePending = true;
+        }
+        saver.execute(this::save);
+    }
+
+    private void add(String entry) {
+        // Move a repeated query to the end, so that it is the last to be forgotten.
+        entries.remove(entry);
+        entries.add(entry);
+        Iterator<String> oldest = entries.iterator();
+        while (entries.size() > capacity) {
+            oldest.next();
+            oldest.remove();
+        }
+    }
+
+    /**
+     * Returns the queries, most recent first, as pairs of mode and query.
+     */
+    synchronized List<String[]> getQueries() {
+        List<String[]> queries = new ArrayList<String[]>(entries.size());
+        for (String entry : entries) {
+            queries.add(0, entry.split("\t", 2));
+        }
+        return queries;
+    }
+
+    /**
+     * Stops the background thread, after any save it has started, and saves the queries not saved yet.
+     */
+    void close() {
+        saver.shutdown();
+        try {
+            saver.awaitTermination(10, TimeUnit.SECONDS);
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        save();
+    }
+
+    private void save() {
+        List<String> lines;
+        synchronized (this) {
+            savePending = false;
+            if (unsaved == 0)
+                return;
+            unsaved = 0;
+            lines = new ArrayList<String>(entries);
+        }
+        // Normally only the background thread saves, but close() saves too, if that thread was slow to stop.
+        synchronized (saveLock) {
+            try {
+                // Write a new file and swap it in, so that a crash never leaves a partly written log.
+                Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+                Files.write(temp, lines, StandardCharsets.UTF_8);
+                Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch (IOException ex) {
+                log.warn("could not save recent queries: " + ex.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,167 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Keeps recently returned pages of search results, least recently used first out, within a limit on both
+ * the number of pages and their estimated size in memory.
+ * <p>
+ * Pages are stored with the version of the index reader that produced them. As soon as a search runs
+ * against a newer reader, which happens after every commit and refresh, all older pages are dropped,
+ * so a cached page is never staler than the searcher itself.
+ * <p>
+ * In single-flight mode, a search that is identical to one that is already running waits for that
+ * search and shares its result, instead of running again.
+ */
+class QueryResultCache {
+    private final int maxEntries;
+    private final long maxBytes;
+    private final boolean singleFlight;
+    private final IndexMetrics metrics;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75F, true);
+    private final ConcurrentHashMap<String, FutureTask<SearchHits>> inFlight = new ConcurrentHashMap<String, FutureTask<SearchHits>>();
+    private long bytes;
+    private long version = -1;
+
+    QueryResultCache(int maxEntries, long maxBytes, boolean singleFlight, IndexMetrics metrics) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.singleFlight = singleFlight;
+        this.metrics = metrics;
+    }
+
+    boolean isEnabled() {
+        return maxEntries > 0 && maxBytes > 0;
+    }
+
+    /**
+     * Returns the cached page for the key, or calls the loader to produce it. The loader must return a
+     * loaded page (see SearchHits.load()), because the page may be handed to several callers.
+     * @param version Version of the index reader the loader searches.
+     */
+    SearchHits get(long version, String key, Callable<SearchHits> loader) throws IOException {
+        synchronized (this) {
+            if (version > this.version) {
+                entries.clear();
+                bytes = 0;
+                this.version = version;
+            }
+            Entry entry = entries.get(key);
+            if (entry != null && version == this.version) {
+                metrics.queryCacheHit();
+                return entry.page;
+            }
+        }
+
+        String flightKey = version + "\n" + key;
+        FutureTask<SearchHits> task = new FutureTask<SearchHits>(loader);
+        FutureTask<SearchHits> running = singleFlight ? inFlight.putIfAbsent(flightKey, task) : null;
+        if (running != null) {
+            metrics.queryCacheHit();
+            return await(running);
+        }
+        metrics.queryCacheMiss();
+        try {
+            task.run();
+            SearchHits page = await(task);
+            put(version, key, page);
+            return page;
+        }
+        finally {
+            if (singleFlight)
+                inFlight.remove(flightKey, task);
+        }
+    }
+
+    private static SearchHits await(FutureTask<SearchHits> task) throws IOException {
+        try {
+            return task.get();
+        }
+        catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for search results.");
+        }
+        catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException)
+                throw (IOException) cause;
+            if (cause instanceof RuntimeException)
+                throw (RuntimeException) cause;
+            if (cause instanceof Error)
+                throw (Error) cause;
+            throw new IOException(cause);
+        }
+    }
+
+    private synchronized void put(long version, String key, SearchHits page) {
+        // Results from a reader that has since been replaced are not worth keeping.
+        if (version != this.version)
+            return;
+        long size = estimateBytes(key, page);
+        if (size > maxBytes)
+            return;
+        Entry previous = entries.put(key, new Entry(page, size));
+        if (previous != null)
+            bytes -= previous.bytes;
+        bytes += size;
+        Iterator<Entry> iterator = entries.values().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && iterator.hasNext()) {
+            bytes -= iterator.next().bytes;
+            iterator.remove();
+        }
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    synchronized long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * Roughly estimates the memory used by a page: two bytes per character plus object overheads.
+     */
+    private static long estimateBytes(String key, SearchHits page) {
+        long size = 128 + 2L * key.length();
+        List<SearchResult> results = page.getLoadedResults();
+        if (results == null)
+            return size;
+        for (SearchResult result : results) {
+            size += 64 + 2L * result.path.length();
+            if (result.snippets != null) {
+                for (Snippet snippet : result.snippets) {
+                    size += 64 + 2L * snippet.text.length();
+                    if (snippet.highlights != null)
+                        size += 24L * snippet.highlights.length;
+                }
+            }
+        }
+        return size;
+    }
+
+    private static class Entry {
+        final SearchHits page;
+        final long bytes;
+
+        Entry(SearchHits page, long bytes) {
+            this.page = page;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.apache.log4j.Logger;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+
+/**
+ * Keeps git repositories open between requests, so that pack indexes and other cached data are reused
+ * instead of being loaded again for every request. A repository that has not been used for
+ * eureka.git.repositoryIdleMillis (default 5 minutes) is closed, releasing its file handles.
+ */
+class RepositoryPool {
+    private static final Logger log = Logger.getLogger(RepositoryPool.class);
+    private static final long IDLE_MILLIS = Settings.getLong("eureka.git.repositoryIdleMillis", 300000);
+
+    private final Map<File, Entry> entries = new HashMap<File, Entry>();   // guarded by this
+    private final ScheduledExecutorService evictor;
+    private boolean closed;   // guarded by this
+
+    RepositoryPool() {
+        evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "eureka-repository-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, IDLE_MILLIS / 2);
+        evictor.scheduleWithFixedDelay(this::closeIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Returns the repository whose .git folder is gitDir, opening it if needed. The repository stays open
+     * at least until the returned lease is closed. Callers must not close the repository itself.
+     */
+    synchronized Lease acquire(File gitDir) throws IOException {
+        if (closed)
+            throw new IOException("The repository pool has been closed.");
+        Entry entry = entries.get(gitDir);
+        if (entry == null) {
+            entry = new Entry(new FileRepositoryBuilder().setGitDir(gitDir).setMustExist(true).build());
+            entries.put(gitDir, entry);
+        }
+        entry.leases++;
+        entry.lastUsed = System.currentTimeMillis();
+        return new Lease(entry);
+    }
+
+    private synchronized void release(Entry entry) {
+        entry.leases--;
+        entry.lastUsed = System.currentTimeMillis();
+    }
+
+    private synchronized void closeIdle() {
+        long now = System.currentTimeMillis();
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+            Entry entry = it.next();
+            if (entry.leases == 0 && now - entry.lastUsed > IDLE_MILLIS) {
+                log.debug("closing idle repository " + entry.repository.getDirectory());
+                entry.repository.close();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Stops the evictor and closes every repository, including those still leased. Called when the web
+     * service is undeployed.
+     */
+    void close() {
+        evictor.shutdownNow();
+        synchronized (this) {
+            closed = true;
+            for (Entry entry : entries.values()) {
+                entry.repository.close();
+            }
+            entries.clear();
+        }
+    }
+
+    private static class Entry {
+        final Repository repository;
+        int leases;
+        long lastUsed;
+
+        Entry(Repository repository) {
+            this.repository = repository;
+        }
+    }
+
+    /**
+     * Keeps a pooled repository open while in use.
+     */
+    class Lease implements AutoCloseable {
+        private final Entry entry;
+        private boolean released;
+
+        private Lease(Entry entry) {
+            this.entry = entry;
+        }
+
+        Repository getRepository() {
+            return entry.repository;
+        }
+
+        @Override
+        public void close() {
+            if (!released) {
+                released = true;
+                release(entry);
+            }
+        }
+    }
+}
@@ -4,62 +4,180 @@ package eureka;
 
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.BufferedReader;
-import java.nio.charset.StandardCharsets;
+import java.lang.management.ManagementFactory;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.nio.channels.FileChannel;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.management.JMException;
+import javax.management.ObjectName;
 import org.apache.log4j.Logger;
-import org.apache.log4j.BasicConfigurator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.commons.collections4.CollectionUtils;
 import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.miscellaneous.LimitTokenCountAnalyzer;
+import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
 import org.apache.lucene.document.LongPoint;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StoredField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexOptions;
 import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
-import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.ReaderUtil;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
 import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
+import org.apache.lucene.search.CollectionTerminatedException;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.FuzzyQuery;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MultiPhraseQuery;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.PrefixQuery;
 import org.apache.lucene.search.Query;
+import org.apache.lucene.search.RegexpQuery;
+import org.apache.lucene.search.TermRangeQuery;
+import org.apache.lucene.search.WildcardQuery;
 import org.apache.lucene.search.BoostQuery;
 import org.apache.lucene.search.BooleanQuery;
 import org.apache.lucene.search.BooleanClause;
 import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.ScoreMode;
+import org.apache.lucene.search.SimpleCollector;
 import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.CollectionStatistics;
+import org.apache.lucene.store.AlreadyClosedException;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.StringHelper;
+import org.eclipse.jgit.errors.LargeObjectException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
 
 public class SearchEngine {
-    private static final int MAX_RESULTS = 1000;
-    private static final String INDEX_PATH = "/projects/eureka-index";
+    static final int MAX_RESULTS = 1000;
+    private static final String INDEX_PATH = Settings.getString("eureka.indexPath", "/projects/eureka-index");
     private static final String CONTENTS_FIELD = "contents";
+    private static final String TRIGRAM_FIELD = "trigrams";
     private static final String PATH_FIELD = "path";
     private static final String FILENAME_FIELD = "filename";
     private static final String MODIFIED_FIELD = "modified";
+    private static final String SIZE_FIELD = "size";
+    private static final String EXTENSION_FIELD = "extension";
+    private static final String FOLDER_FIELD = "folder";
+    private static final String FOLDER_NAME_FIELD = "foldername";
+    private static final String HASH_FIELD = "hash";
+    private static final String COPY_OF_FIELD = "copyof";
+    // Files indexed from git are read from the blob they were indexed from, not from the working tree.
+    private static final String GIT_DIR_FIELD = "gitdir";
+    private static final String BLOB_FIELD = "blob";
+    private static final Set<String> STORED_FILE_FIELDS = new HashSet<String>(Arrays.asList(PATH_FIELD, GIT_DIR_FIELD, BLOB_FIELD));
+    // Declared names, lower case, for lookup; and the declarations themselves, one per line: line, kind, name.
+    private static final String SYMBOL_FIELD = "symbol";
+    private static final String SYMBOL_TABLE_FIELD = "symboltable";
+    private static final Set<String> SYMBOL_LOOKUP_FIELDS = new HashSet<String>(Arrays.asList(PATH_FIELD, SYMBOL_TABLE_FIELD));
+    static final int INDEXING_THREADS = Settings.getInt("eureka.indexing.threads", Runtime.getRuntime().availableProcessors());
+    // Words after this many in a file are not indexed. Substring and regular expression searches still find them.
+    private static final int MAX_TOKENS = Settings.getInt("eureka.index.maxTokens", 200000);
+    static final int INDEXING_QUEUE_SIZE = Settings.getInt("eureka.indexing.queueSize", 1000);
+    private static final long COMMIT_INTERVAL_MILLIS = Settings.getLong("eureka.index.commitIntervalSeconds", 300) * 1000;
+    private static final int WARMUP_QUERIES = Settings.getInt("eureka.warmup.queries", 50);
+    private static final long WARMUP_MAX_MILLIS = Settings.getLong("eureka.warmup.maxMillis", 2000);
+    private static final boolean WATCHER_ENABLED = Settings.getBoolean("eureka.watcher.enabled", true);
+    private static final boolean DEDUP_ENABLED = Settings.getBoolean("eureka.index.dedup", false);
+    // Each expanded hash is a clause, and a BooleanQuery allows 1024 by default.
+    private static final int MAX_EXPANDED_HASHES = Math.min(1000, Settings.getInt("eureka.dedup.maxExpandedHashes", 1000));
+    private static final int MAX_COPIES_PER_RESULT = Settings.getInt("eureka.dedup.maxCopiesPerResult", 100);
+    private static final int FOLDER_CACHE_ENTRIES = Settings.getInt("eureka.folders.cacheEntries", 200000);
+    private static final long FOLDER_CACHE_MILLIS = TimeUnit.SECONDS.toMillis(Settings.getLong("eureka.folders.cacheSeconds", 60));
+    private static final int MAX_SNIPPETS = 20;
+    private static final int MAX_CANDIDATES = Settings.getInt("eureka.search.maxCandidates", 100000);
+    private static final int CACHE_ENTRIES = Settings.getInt("eureka.search.cacheEntries", 500);
+    private static final long CACHE_BYTES = Settings.getLong("eureka.search.cacheBytes", 32L * 1024 * 1024);
+    private static final boolean CACHE_SINGLE_FLIGHT = Settings.getBoolean("eureka.search.singleFlight", true);
     private static final Logger log = Logger.getLogger(SearchEngine.class);
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final FieldType CONTENTS_TYPE = new FieldType(TextField.TYPE_NOT_STORED);
+    static {
+        // Offsets in the postings let the highlighter find matching lines without re-analyzing the file.
+        CONTENTS_TYPE.setIndexOptions(IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS);
+        CONTENTS_TYPE.freeze();
+    }
+    private static final FieldType TRIGRAM_TYPE = new FieldType(TextField.TYPE_NOT_STORED);
+    static {
+        // Trigrams are only used to find candidate files, so frequencies, positions and norms are not needed.
+        TRIGRAM_TYPE.setIndexOptions(IndexOptions.DOCS);
+        TRIGRAM_TYPE.setOmitNorms(true);
+        TRIGRAM_TYPE.freeze();
+    }
+    private static final String METRICS_MBEAN_NAME = "eureka:type=SearchEngine,name=IndexMetrics";
     private static volatile SearchEngine instance;
-    private SearcherManager searcherManager;
+    private final Path indexPath;
+    private final IndexMetrics metrics = new IndexMetrics(this);
+    private final QueryResultCache resultCache = new QueryResultCache(CACHE_ENTRIES, CACHE_BYTES, CACHE_SINGLE_FLIGHT, metrics);
     private Analyzer analyzer;   // Analyzer is thread-safe
-    private IndexWriter indexWriter;   // IndexWriter is thread-safe
-    private volatile String currentlyIndexing;
+    private ShardRegistry shards;
+    private IndexWatcher indexWatcher;
+    private SuggestionIndex suggestions;
+    private IndexOptimizer optimizer;
+    private IndexingJobScheduler jobScheduler;   // guarded by this
+    // Several folders may be indexed at once, when eureka.jobs.threads is more than 1.
+    private final List<IndexingProgress> runningProgress = new CopyOnWriteArrayList<IndexingProgress>();
+    private volatile long lastCommitMillis = System.currentTimeMillis();
+    private volatile QueryLog queryLog;
+    private volatile RepositoryPool repositories;
+    private volatile long startupMillis = -1;
+    private volatile long warmupMillis = -1;
+    private volatile int warmupQueries;
+    private final AtomicLong firstQueryNanos = new AtomicLong(-1);
+    // Hashes of files added since the last refresh, which searches of the index can't see yet.
+    private final Map<String, String> unrefreshedHashes = new ConcurrentHashMap<String, String>();
+    private volatile boolean copiesMayBeOrphaned;
+    private final DirectoryCache directoryCache = new DirectoryCache(FOLDER_CACHE_ENTRIES, FOLDER_CACHE_MILLIS);
     private String[] indexableExtensions = {
         ".ts", ".tsx", ".js",
         ".cs", ".java", ".scala", ".cpp", ".h", ".hh", ".c", ".cc", ".cxx", ".hpp", ".hxx",
@@ -76,22 +194,74 @@ public class SearchEngine {
         "/node_modules", "/pnpm-store"
     };
 
-    private SearchEngine() {
-        BasicConfigurator.configure();
+    private SearchEngine(Path indexPath) {
+        this.indexPath = indexPath;
+    }
+
+    /**
+     * Takes the shared instance offline. Called when the web service is undeployed.
+     */
+    public static void shutdown() throws IOException {
+        synchronized (SearchEngine.class) {
+            if (instance != null) {
+                instance.unregisterMetrics();
+                instance.close();
+                instance = null;
+            }
+        }
     }
 
     public static SearchEngine getInstance() throws IOException {
         if (instance == null) {
             synchronized (SearchEngine.class) {
                 if (instance == null) {
-                    instance = new SearchEngine();
+                    instance = new SearchEngine(Paths.get(INDEX_PATH));
                     instance.bringOnline();
+                    instance.registerMetrics();
                 }
             }
         }
         return instance;
     }
 
+    /**
+     * Opens a search engine over the index in the specified folder, creating the index if needed.
+     * This is for tools and benchmarks; the web service uses the shared instance returned by getInstance.
+     */
+    public static SearchEngine open(Path indexPath) throws IOException {
+        SearchEngine engine = new SearchEngine(indexPath);
+        engine.bringOnline();
+        return engine;
+    }
+
+    private void registerMetrics() {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName(METRICS_MBEAN_NAME));
+        }
+        catch (JMException ex) {
+            log.warn("could not register metrics with JMX: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Unregisters the metrics, so that the web application can be redeployed without leaking this instance
+     * and so that the next instance can register its own.
+     */
+    private void unregisterMetrics() {
+        try {
+            ObjectName name = new ObjectName(METRICS_MBEAN_NAME);
+            if (ManagementFactory.getPlatformMBeanServer().isRegistered(name))
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+        }
+        catch (JMException ex) {
+            log.warn("could not unregister metrics from JMX: " + ex.getMessage());
+        }
+    }
+
+    public void close() throws IOException {
+        takeOffline();
+    }
+
     @Override
     protected void finalize() throws Throwable {
         this.takeOffline();
@@ -99,24 +269,135 @@ public class SearchEngine {
     }
 
     private void bringOnline() throws IOException {
-        analyzer = new SourceCodeAnalyzer();
+        long start = System.nanoTime();
+        Map<String, Analyzer> fieldAnalyzers = Collections.<String, Analyzer>singletonMap(TRIGRAM_FIELD, new TrigramAnalyzer());
+        analyzer = new PerFieldAnalyzerWrapper(new LimitTokenCountAnalyzer(new SourceCodeAnalyzer(), MAX_TOKENS), fieldAnalyzers);
+
+        try (FSDirectory directory = FSDirectory.open(indexPath)) {
+            if (DirectoryReader.indexExists(directory))
+                log.warn(indexPath + " holds an index from before each folder had its own shard; it is no longer searched, so re-index the folders");
+        }
+        Files.createDirectories(indexPath);
+        queryLog = new QueryLog(indexPath.resolve("recent-queries.txt"), WARMUP_QUERIES);
+        queryLog.load();
+        repositories = new RepositoryPool();
+        // Opening the shards creates their first searchers, which are warmed up with the recent queries.
+        shards = new ShardRegistry(indexPath.resolve("shards"), analyzer, metrics, this::warm);
+        shards.open();
+        optimizer = new IndexOptimizer(this, shards);
+        suggestions = new SuggestionIndex();
+        loadSuggestions();
 
-        FSDirectory directory = FSDirectory.open(Paths.get(INDEX_PATH));
-        IndexWriterConfig config = new IndexWriterConfig(analyzer);
-        config.setOpenMode(OpenMode.CREATE_OR_APPEND);
-        indexWriter = new IndexWriter(directory, config);
-        searcherManager = new SearcherManager(indexWriter, true, true, null);
+        if (WATCHER_ENABLED) {
+            indexWatcher = new IndexWatcher(this);
+            indexWatcher.start();
+        }
+        startupMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        log.info("search engine online in " + startupMillis + " ms");
     }
 
     private void takeOffline() throws IOException {
-        if (searcherManager != null) {
-            searcherManager.close();
-            searcherManager = null;
+        // Jobs stop first, while the shards they write to are still open.
+        IndexingJobScheduler scheduler;
+        synchronized (this) {
+            scheduler = jobScheduler;
+            jobScheduler = null;
+        }
+        if (scheduler != null)
+            scheduler.close();
+        if (indexWatcher != null) {
+            indexWatcher.close();
+            indexWatcher = null;
+        }
+        if (suggestions != null) {
+            suggestions.close();
+            suggestions = null;
+        }
+        if (optimizer != null) {
+            optimizer.close();
+            optimizer = null;
         }
-        if (indexWriter != null) {
-            indexWriter.close();
-            indexWriter = null;
+        if (shards != null) {
+            shards.close();
+            shards = null;
         }
+        if (repositories != null) {
+            repositories.close();
+            repositories = null;
+        }
+        if (queryLog != null) {
+            queryLog.close();
+            queryLog = null;
+        }
+    }
+
+    Path getIndexPath() {
+        return indexPath;
+    }
+
+    public IndexMetrics getMetrics() {
+        return metrics;
+    }
+
+    int getSegmentCount() {
+        ShardRegistry registry = shards;
+        if (registry == null)
+            return 0;
+        int count = 0;
+        try {
+            for (IndexShard shard : registry.getShards()) {
+                count += shard.getSegmentCount();
+            }
+        }
+        catch (IOException | AlreadyClosedException ex) {
+            return -1;
+        }
+        return count;
+    }
+
+    long getIndexSizeBytes() {
+        ShardRegistry registry = shards;
+        if (registry == null)
+            return 0;
+        long size = 0;
+        try {
+            for (IndexShard shard : registry.getShards()) {
+                size += shard.getSizeBytes();
+            }
+        }
+        catch (IOException | AlreadyClosedException ex) {
+            return -1;
+        }
+        return size;
+    }
+
+    long getRamBytesUsed() {
+        ShardRegistry registry = shards;
+        if (registry == null)
+            return 0;
+        long size = 0;
+        for (IndexShard shard : registry.getShards()) {
+            size += shard.getRamBytesUsed();
+        }
+        return size;
+    }
+
+    int getSearchThreadsActive() {
+        ShardRegistry registry = shards;
+        return registry != null ? registry.getSearcherFactory().getActiveThreads() : 0;
+    }
+
+    int getSearchSlicesQueued() {
+        ShardRegistry registry = shards;
+        return registry != null ? registry.getSearcherFactory().getQueuedSlices() : 0;
+    }
+
+    int getQueryCacheEntries() {
+        return resultCache.size();
+    }
+
+    long getQueryCacheBytes() {
+        return resultCache.getBytes();
     }
 
     public String[] getIndexableExtensions() {
@@ -136,44 +417,374 @@ public class SearchEngine {
     }
 
     /**
-     * Returns file currently being indexed, or null if no file is currently being indexed.
+     * Returns file currently being indexed, or the folder if no file has been started yet, or null if
+     * no folder is being indexed.
      */
     public String getCurrentlyIndexing() {
-        return currentlyIndexing;
+        IndexingProgress progress = getIndexingProgress();
+        return progress != null ? progress.getCurrentPath() : null;
+    }
+
+    /**
+     * Returns the progress of the folder currently being indexed, or null if no folder is being indexed.
+     * If several folders are being indexed, returns the progress of the one that started last.
+     */
+    IndexingProgress getIndexingProgress() {
+        IndexingProgress progress = null;
+        for (IndexingProgress running : runningProgress) {
+            progress = running;
+        }
+        return progress;
+    }
+
+    /**
+     * Returns the scheduler that runs indexing jobs, for both API requests and rescans by the index watcher.
+     */
+    synchronized IndexingJobScheduler getJobScheduler() {
+        if (jobScheduler == null)
+            jobScheduler = new IndexingJobScheduler(this);
+        return jobScheduler;
     }
 
     /**
      * addFileToIndex
-     * @file The full path to the file.
+     * Files that are too large, binary or minified are not indexed, and are removed from the index if they were
+     * indexed before. See ContentSniffer.
+     * @file The full path to the file, which must be under an indexed folder.
+     */
+    public void addFileToIndex(Path filePath, long lastModified, long size) throws IOException {
+        // Reject files outside every shard before reading them.
+        getShard(filePath);
+        long start = System.nanoTime();
+        ContentSniffer.Content content;
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            content = ContentSniffer.read(channel, size);
+        }
+        catch (IOException ex) {
+            metrics.fileFailed(ex.getClass().getSimpleName());
+            throw ex;
+        }
+        metrics.stage(IndexMetrics.STAGE_READ, System.nanoTime() - start);
+        if (content.skipReason != null)
+            skipFile(filePath, content.skipReason);
+        else
+            addFileToIndex(filePath, content.bytes, lastModified, size, null, null);
+    }
+
+    /**
+     * Adds a file whose contents are read from a git object database instead of the file system.
+     * The file is indexed under its path in the working tree, and the blob is saved with it, so that
+     * searches read the contents that were indexed rather than the working tree.
+     * @param gitDir The .git folder of the repository that the reader reads from.
      */
-    public void addFileToIndex(Path filePath, long lastModified) throws IOException {
-        try (InputStream stream = Files.newInputStream(filePath)) {
+    void addBlobToIndex(Path filePath, File gitDir, ObjectReader reader, ObjectId blobId, long lastModified) throws IOException {
+        long start = System.nanoTime();
+        byte[] bytes;
+        try {
+            if (reader.getObjectSize(blobId, Constants.OBJ_BLOB) > ContentSniffer.MAX_FILE_BYTES) {
+                skipFile(filePath, ContentSniffer.TOO_LARGE);
+                return;
+            }
+            bytes = reader.open(blobId, Constants.OBJ_BLOB).getBytes();
+        }
+        catch (LargeObjectException ex) {
+            metrics.fileFailed(ex.getClass().getSimpleName());
+            throw new IOException(filePath + " is too large to index", ex);
+        }
+        catch (IOException ex) {
+            metrics.fileFailed(ex.getClass().getSimpleName());
+            throw ex;
+        }
+        metrics.stage(IndexMetrics.STAGE_READ, System.nanoTime() - start);
+        String skipReason = ContentSniffer.getSkipReason(bytes);
+        if (skipReason != null)
+            skipFile(filePath, skipReason);
+        else
+            addFileToIndex(filePath, bytes, lastModified, bytes.length, gitDir, blobId);
+    }
 
-            Document doc = new Document();
+    private void skipFile(Path filePath, String reason) throws IOException {
+        log.debug("not indexing " + filePath + " because it is " + reason.replace('_', ' '));
+        metrics.fileSkipped(reason);
+        // A file that has become too large, for example, should not still be found with its old contents.
+        IndexShard shard = shards.find(filePath);
+        if (shard != null && shard.getWriter().getConfig().getOpenMode() != OpenMode.CREATE) {
+            shard.getWriter().deleteDocuments(new Term(PATH_FIELD, filePath.toString()));
+            copiesMayBeOrphaned = true;
+        }
+    }
+
+    private void addFileToIndex(Path filePath, byte[] bytes, long lastModified, long size, File gitDir, ObjectId blobId) throws IOException {
+        Document doc = new Document();
+
+        doc.add(new StringField(PATH_FIELD, filePath.toString(), Field.Store.YES));
+
+        if (blobId != null) {
+            doc.add(new StoredField(GIT_DIR_FIELD, gitDir.getAbsolutePath()));
+            doc.add(new StoredField(BLOB_FIELD, blobId.name()));
+        }
+
+        doc.add(new StringField(FILENAME_FIELD, filePath.getFileName().toString().toLowerCase(), Field.Store.NO));
 
-            doc.add(new StringField(PATH_FIELD, filePath.toString(), Field.Store.YES));
+        String extension = getExtension(filePath);
+        if (extension != null)
+            doc.add(new StringField(EXTENSION_FIELD, extension, Field.Store.NO));
 
-            doc.add(new StringField(FILENAME_FIELD, filePath.getFileName().toString().toLowerCase(), Field.Store.NO));
+        // Index every containing folder, and every folder name, so that search results can be filtered by folder.
+        for (Path folder = filePath.getParent(); folder != null && folder.getFileName() != null; folder = folder.getParent()) {
+            doc.add(new StringField(FOLDER_FIELD, folder.toString(), Field.Store.NO));
+            doc.add(new StringField(FOLDER_NAME_FIELD, folder.getFileName().toString().toLowerCase(), Field.Store.NO));
+        }
+
+        doc.add(new LongPoint(MODIFIED_FIELD, lastModified));
 
-            doc.add(new LongPoint(MODIFIED_FIELD, lastModified));
+        // Doc values let incremental indexing look up what was indexed without loading stored fields.
+        doc.add(new NumericDocValuesField(MODIFIED_FIELD, lastModified));
+        doc.add(new NumericDocValuesField(SIZE_FIELD, size));
 
-            // Add the contents of the file to a field. Specify a Reader, so that the text of the file is tokenized
-            // and indexed, but not stored. Note that FileReader expects the file to be in UTF-8 encoding.
-            // If that's not the case searching for special characters will fail.
-            InputStreamReader reader = new InputStreamReader(stream, StandardCharsets.UTF_8);
-            doc.add(new TextField(CONTENTS_FIELD, new BufferedReader(reader)));
+        // With deduplication, a file whose contents are already in the index is added as a copy: its path
+        // and the hash of its contents, without the contents. Searches find copies through the hash.
+        String hash = DEDUP_ENABLED ? hashContents(bytes) : null;
+        boolean copy = hash != null && isIndexedElsewhere(hash, filePath);
+        String contents = null;
+        if (copy) {
+            doc.add(new StringField(COPY_OF_FIELD, hash, Field.Store.YES));
+        }
+        else {
+            // Add the contents of the file to two fields: one tokenized into words, the other into trigrams.
+            // The contents are indexed, but not stored.
+            contents = ContentSniffer.decode(bytes);
+            doc.add(new Field(CONTENTS_FIELD, contents, CONTENTS_TYPE));
+            doc.add(new Field(TRIGRAM_FIELD, contents, TRIGRAM_TYPE));
+            if (hash != null)
+                doc.add(new StringField(HASH_FIELD, hash, Field.Store.YES));
+        }
 
-            if (indexWriter.getConfig().getOpenMode() == OpenMode.CREATE) {
-                indexWriter.addDocument(doc);
+        // Copies get symbols of their own, so that go to definition finds every path.
+        if (SymbolExtractor.supports(extension))
+            addSymbols(doc, SymbolExtractor.extract(extension, contents != null ? contents : ContentSniffer.decode(bytes)));
+
+        // The document is analyzed when it is added to the writer.
+        long start = System.nanoTime();
+        IndexWriter indexWriter = getShard(filePath).getWriter();
+        if (indexWriter.getConfig().getOpenMode() == OpenMode.CREATE) {
+            indexWriter.addDocument(doc);
+        }
+        else {
+            // Replace old file matching the exact path, if present.
+            indexWriter.updateDocument(new Term(PATH_FIELD, filePath.toString()), doc);
+            copiesMayBeOrphaned = true;
+        }
+        metrics.stage(IndexMetrics.STAGE_ANALYZE, System.nanoTime() - start);
+        metrics.fileIndexed(bytes.length);
+        if (copy)
+            metrics.fileDeduplicated();
+        // The identifiers of a copy were counted with the file that holds its contents.
+        suggestions.fileIndexed(filePath, contents);
+    }
+
+    private static void addSymbols(Document doc, List<Symbol> symbols) {
+        if (symbols.isEmpty())
+            return;
+        StringBuilder table = new StringBuilder();
+        Set<String> names = new HashSet<String>();
+        for (Symbol symbol : symbols) {
+            table.append(symbol.line).append('\t').append(symbol.kind).append('\t').append(symbol.name).append('\n');
+            String name = symbol.name.toLowerCase();
+            if (names.add(name))
+                doc.add(new StringField(SYMBOL_FIELD, name, Field.Store.NO));
+        }
+        doc.add(new StoredField(SYMBOL_TABLE_FIELD, table.toString()));
+    }
+
+    private static String hashContents(byte[] bytes) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        }
+        catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        StringBuilder sb = new StringBuilder(40);
+        for (byte b : digest.digest(bytes)) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns true if a file other than the specified one holds contents with the specified hash, in any shard.
+     */
+    private boolean isIndexedElsewhere(String hash, Path filePath) throws IOException {
+        String path = filePath.toString();
+        String first = unrefreshedHashes.putIfAbsent(hash, path);
+        if (first != null && !first.equals(path))
+            return true;
+        Query query = new BooleanQuery.Builder()
+            .add(new TermQuery(new Term(HASH_FIELD, hash)), BooleanClause.Occur.FILTER)
+            .add(new TermQuery(new Term(PATH_FIELD, path)), BooleanClause.Occur.MUST_NOT)
+            .build();
+        for (IndexShard shard : shards.getShards()) {
+            SearcherManager manager = shard.getSearcherManager();
+            IndexSearcher searcher;
+            try {
+                searcher = manager.acquire();
             }
-            else {
-                // Replace old file matching the exact path, if present.
-                indexWriter.updateDocument(new Term(PATH_FIELD, filePath.toString()), doc);
+            catch (AlreadyClosedException ex) {
+                // The shard was dropped since the list was read.
+                continue;
             }
+            try {
+                if (searcher.count(query) > 0)
+                    return true;
+            }
+            finally {
+                manager.release(searcher);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Indexes the contents of one copy of each file whose contents are no longer in the index, because the
+     * file that held them was changed or removed. A copy that can no longer be read is removed instead.
+     * A copy that was indexed from git is read from its blob.
+     * @return The number of copies that were promoted or removed.
+     */
+    private int promoteOrphanedCopies() throws IOException {
+        for (IndexShard shard : shards.getShards()) {
+            shard.getSearcherManager().maybeRefreshBlocking();
+        }
+        List<Orphan> orphans = new ArrayList<Orphan>();
+        try (ShardRegistry.Searcher shardSearcher = shards.acquire()) {
+            IndexSearcher searcher = shardSearcher.getSearcher();
+            if (searcher.getIndexReader().getDocCount(COPY_OF_FIELD) == 0)
+                return 0;
+            Set<String> checked = new HashSet<String>();
+            for (LeafReaderContext leaf : searcher.getIndexReader().leaves()) {
+                Terms terms = leaf.reader().terms(COPY_OF_FIELD);
+                if (terms == null)
+                    continue;
+                TermsEnum termsEnum = terms.iterator();
+                for (BytesRef term = termsEnum.next(); term != null; term = termsEnum.next()) {
+                    String hash = term.utf8ToString();
+                    if (!checked.add(hash) || searcher.count(new TermQuery(new Term(HASH_FIELD, hash))) > 0)
+                        continue;
+                    TopDocs copies = searcher.search(new TermQuery(new Term(COPY_OF_FIELD, hash)), 1);
+                    if (copies.scoreDocs.length > 0)
+                        orphans.add(new Orphan(searcher, copies.scoreDocs[0].doc));
+                }
+            }
+        }
+        for (Orphan orphan : orphans) {
+            try {
+                if (orphan.blob != null) {
+                    File gitDir = new File(orphan.gitDir);
+                    try (RepositoryPool.Lease lease = getRepositories().acquire(gitDir);
+                         ObjectReader reader = lease.getRepository().newObjectReader()) {
+                        addBlobToIndex(orphan.path, gitDir, reader, ObjectId.fromString(orphan.blob), orphan.lastModified);
+                    }
+                }
+                else {
+                    BasicFileAttributes attrs = Files.readAttributes(orphan.path, BasicFileAttributes.class);
+                    addFileToIndex(orphan.path, attrs.lastModifiedTime().toMillis(), attrs.size());
+                }
+            }
+            catch (IOException ex) {
+                deleteFromIndex(orphan.path);
+            }
+        }
+        if (!orphans.isEmpty())
+            log.info("indexed the contents of " + orphans.size() + " copies of files that were changed or removed");
+        return orphans.size();
+    }
+
+    /**
+     * A copy whose contents are to be indexed, and where it was indexed from.
+     */
+    private static class Orphan {
+        final Path path;
+        final String gitDir;
+        final String blob;
+        final long lastModified;
+
+        Orphan(IndexSearcher searcher, int doc) throws IOException {
+            Document fields = searcher.doc(doc, STORED_FILE_FIELDS);
+            path = Paths.get(fields.get(PATH_FIELD));
+            gitDir = fields.get(GIT_DIR_FIELD);
+            blob = fields.get(BLOB_FIELD);
+            List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+            LeafReaderContext leaf = leaves.get(ReaderUtil.subIndex(doc, leaves));
+            NumericDocValues modifiedValues = DocValues.getNumeric(leaf.reader(), MODIFIED_FIELD);
+            lastModified = modifiedValues.advanceExact(doc - leaf.docBase) ? modifiedValues.longValue() : 0;
+        }
+    }
+
+    /**
+     * Reads the contents of an indexed file as they were indexed: from its blob if it was indexed from git,
+     * otherwise from disk.
+     */
+    private byte[] readIndexedFile(IndexSearcher searcher, int doc) throws IOException {
+        Document fields = searcher.doc(doc, STORED_FILE_FIELDS);
+        String blob = fields.get(BLOB_FIELD);
+        if (blob == null)
+            return Files.readAllBytes(Paths.get(fields.get(PATH_FIELD)));
+        try (RepositoryPool.Lease lease = getRepositories().acquire(new File(fields.get(GIT_DIR_FIELD)));
+             ObjectReader reader = lease.getRepository().newObjectReader()) {
+            return reader.open(ObjectId.fromString(blob), Constants.OBJ_BLOB).getBytes();
+        }
+    }
+
+    private RepositoryPool getRepositories() throws IOException {
+        RepositoryPool pool = repositories;
+        if (pool == null)
+            throw new IOException("Can't read from git because search engine is offline.");
+        return pool;
+    }
+
+    /**
+     * Returns the shard that a file belongs to. Shards are only created for folders, by addFolderToIndex
+     * or createShard, so a file that is not under any of them, for example after deleteAll, is rejected.
+     */
+    private IndexShard getShard(Path filePath) {
+        IndexShard shard = shards.find(filePath);
+        if (shard == null)
+            throw new IllegalArgumentException(filePath + " is not under an indexed folder");
+        return shard;
+    }
+
+    /**
+     * Creates an empty shard for a folder, without indexing it, so that files under the folder can be
+     * added one at a time with addFileToIndex. Does nothing if the folder is already under a shard.
+     */
+    public void createShard(String folder) throws IOException {
+        if (shards == null)
+            throw new RuntimeException("Can't create shard because search engine is offline.");
+        Path folderPath = Paths.get(folder);
+        if (!Files.isDirectory(folderPath))
+            throw new IllegalArgumentException("Supplied string does not point to a folder");
+        // Nothing is indexed into the shard here, so the shards under it are not kept for it.
+        if (shards.dropSuperseded(shards.getOrCreate(folderPath))) {
+            copiesMayBeOrphaned = true;
+            commit();
         }
     }
 
-    private boolean isFolderSkippable(Path folderPath) {
+    /**
+     * Returns the lowercase extension of a file, including the dot, or null if the file name has no extension.
+     */
+    private static String getExtension(Path filePath) {
+        return normalizeExtension(filePath.getFileName().toString());
+    }
+
+    private static String normalizeExtension(String name) {
+        int dotIndex = name.lastIndexOf('.');
+        if (dotIndex == -1 || dotIndex == name.length() - 1)
+            return null;
+        return name.substring(dotIndex).toLowerCase();
+    }
+
+    static boolean isFolderSkippable(Path folderPath, String[] skippableFolders) {
         String folder = folderPath.toString().toLowerCase();
         for (int i = 0; i < skippableFolders.length; i++) {
             if (folder.endsWith(skippableFolders[i])) {
@@ -183,7 +794,7 @@ public class SearchEngine {
         return false;
     }
 
-    private boolean isFileIndexable(Path filePath) {
+    static boolean isFileIndexable(Path filePath, String[] indexableExtensions) {
         String filename = filePath.toString().toLowerCase();
         for (int j = 0; j < indexableExtensions.length; j++) {
             if (filename.endsWith(indexableExtensions[j])) {
@@ -193,102 +804,1071 @@ public class SearchEngine {
         return false;
     }
 
-    public void addFolderToIndex(String folder) throws IOException {
-        if (indexWriter == null)
+    /**
+     * Walks the folder on the calling thread and indexes the files it finds on a pool of worker threads.
+     * The pool size and the number of files that may be queued ahead of the workers can be set using
+     * the eureka.indexing.threads and eureka.indexing.queueSize system properties.
+     * @incremental If true, skip files whose modified time and size have not changed since they were
+     * indexed, and remove files that no longer exist (or are no longer indexable) from the index.
+     */
+    public void addFolderToIndex(String folder, boolean incremental) throws IOException {
+        addFolderToIndex(folder, incremental, indexableExtensions, skippableFolders);
+    }
+
+    void addFolderToIndex(String folder, boolean incremental, String[] indexableExtensions, String[] skippableFolders) throws IOException {
+        addFolderToIndex(folder, incremental, indexableExtensions, skippableFolders, new IndexingProgress(Paths.get(folder).toString()));
+    }
+
+    /**
+     * Indexes a folder, reporting to the specified progress. If the progress is cancelled, the walk stops,
+     * queued files are dropped, and files indexed so far are committed. Files that were not visited are
+     * left in the index, even in an incremental run.
+     */
+    void addFolderToIndex(String folder, boolean incremental, String[] indexableExtensions, String[] skippableFolders, final IndexingProgress progress) throws IOException {
+        if (shards == null)
             throw new RuntimeException("Can't index folder because search engine is offline.");
+        IndexShard shard = null;
+        boolean completed = false;
         try {
             final Path folderPath = Paths.get(folder);
             if (!Files.isDirectory(folderPath)) {
                 log.error(folderPath + " does not exist or is not a directory");
                 throw new IllegalArgumentException("Supplied string does not point to a folder");
             }
-            Files.walkFileTree(folderPath, new SimpleFileVisitor<Path>() {
-                @Override
-                public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) throws IOException {
-                    if (isFolderSkippable(path)) {
-                        return FileVisitResult.SKIP_SUBTREE;
+            shard = shards.getOrCreate(folderPath);
+            saveRequest(shard, folderPath, indexableExtensions, skippableFolders, false);
+            final Map<String, IndexedFile> indexedFiles = incremental ? getIndexedFiles(folderPath) : null;
+            final AtomicLong submittedFiles = new AtomicLong(), submittedBytes = new AtomicLong();
+            long start = System.nanoTime();
+            progress.started();
+            runningProgress.add(progress);
+            final IndexingPipeline pipeline = new IndexingPipeline(this, progress, INDEXING_THREADS, INDEXING_QUEUE_SIZE);
+            // The walk has the attributes of every file anyway, so it fills the folder listing cache as it goes.
+            final DirectoryCache.Recorder recorder = directoryCache.newRecorder();
+            pipeline.start();
+            try {
+                Files.walkFileTree(folderPath, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult preVisitDirectory(Path path, BasicFileAttributes attrs) throws IOException {
+                        if (progress.isCancelled()) {
+                            return FileVisitResult.TERMINATE;
+                        }
+                        else if (isFolderSkippable(path, skippableFolders)) {
+                            recorder.addEntry(path, attrs);
+                            return FileVisitResult.SKIP_SUBTREE;
+                        }
+                        else {
+                            log.debug("visiting " + path);
+                            recorder.enterFolder(path, attrs);
+                            return FileVisitResult.CONTINUE;
+                        }
                     }
-                    else {
-                        log.info("visiting " + path);
+
+                    @Override
+                    public FileVisitResult postVisitDirectory(Path path, IOException ex) throws IOException {
+                        if (ex != null)
+                            throw ex;
+                        recorder.leaveFolder(path);
                         return FileVisitResult.CONTINUE;
                     }
-                }
 
-                @Override
-                public FileVisitResult visitFile(Path filePath, BasicFileAttributes attrs) throws IOException {
-                    try {
-                        if (isFileIndexable(filePath)) {
-                            currentlyIndexing = filePath.toString();
-                            addFileToIndex(filePath, attrs.lastModifiedTime().toMillis());
+                    @Override
+                    public FileVisitResult visitFile(Path filePath, BasicFileAttributes attrs) throws IOException {
+                        if (progress.isCancelled())
+                            return FileVisitResult.TERMINATE;
+                        recorder.addEntry(filePath, attrs);
+                        if (isFileIndexable(filePath, indexableExtensions)) {
+                            if (attrs.size() > ContentSniffer.MAX_FILE_BYTES) {
+                                // Left in the incremental lookup, so that an earlier, smaller version is removed.
+                                metrics.fileSkipped(ContentSniffer.TOO_LARGE);
+                                return FileVisitResult.CONTINUE;
+                            }
+                            long lastModified = attrs.lastModifiedTime().toMillis();
+                            if (indexedFiles != null) {
+                                IndexedFile indexed = indexedFiles.remove(filePath.toString());
+                                if (indexed != null && indexed.lastModified == lastModified && indexed.size == attrs.size()) {
+                                    metrics.fileSkipped("unchanged");
+                                    return FileVisitResult.CONTINUE;
+                                }
+                            }
+                            submittedFiles.incrementAndGet();
+                            submittedBytes.addAndGet(attrs.size());
+                            progress.fileFound(attrs.size());
+                            pipeline.submit(filePath, lastModified, attrs.size());
                         }
+                        else {
+                            metrics.fileSkipped("extension");
+                        }
+                        return FileVisitResult.CONTINUE;
                     }
-                    catch (IOException ignore) {
-                        // Skip files that can't be read.
-                    }
-                    return FileVisitResult.CONTINUE;
+                });
+                // The walk runs ahead of the workers, and waits for them when the queue is full.
+                metrics.stage(IndexMetrics.STAGE_WALK, System.nanoTime() - start);
+                progress.walkFinished();
+                if (progress.isCancelled())
+                    pipeline.discardQueued();
+                pipeline.finish();
+            }
+            finally {
+                pipeline.abort();
+            }
+            if (progress.isCancelled()) {
+                log.info("indexing of " + folder + " was cancelled");
+            }
+            else if (indexedFiles != null && !indexedFiles.isEmpty()) {
+                // Whatever was not visited no longer exists or is no longer indexable.
+                log.info("removing " + indexedFiles.size() + " files from index");
+                for (String path : indexedFiles.keySet()) {
+                    shard.getWriter().deleteDocuments(new Term(PATH_FIELD, path));
                 }
-            });
+                copiesMayBeOrphaned = true;
+                metrics.changed();
+            }
             log.info("committing changes");
-            indexWriter.commit();
-            searcherManager.maybeRefresh();
+            commit();
+            completed = !progress.isCancelled();
+            long elapsed = System.nanoTime() - start;
+            metrics.indexingRun(submittedFiles.get(), submittedBytes.get(), elapsed);
+            log.info("indexed " + submittedFiles.get() + " files from " + folder + " in " + TimeUnit.NANOSECONDS.toMillis(elapsed) + " ms");
         }
         finally {
-            currentlyIndexing = null;
+            try {
+                if (shard != null)
+                    settleSupersededShards(shard, completed);
+            }
+            finally {
+                runningProgress.remove(progress);
+                progress.stopped();
+            }
+        }
+    }
+
+    /**
+     * Indexes the files committed at HEAD in the git repository that contains the folder, reading them from
+     * the object database. If the folder was indexed this way before and incremental is true, only the files
+     * that changed between the commit indexed then and HEAD are updated. See GitIndexer.
+     */
+    void addGitFolderToIndex(String folder, boolean incremental, String[] indexableExtensions, String[] skippableFolders, IndexingProgress progress) throws IOException {
+        if (shards == null)
+            throw new RuntimeException("Can't index folder because search engine is offline.");
+        IndexShard shard = null;
+        boolean completed = false;
+        try {
+            Path folderPath = Paths.get(folder);
+            shard = shards.getOrCreate(folderPath);
+            saveRequest(shard, folderPath, indexableExtensions, skippableFolders, true);
+            progress.started();
+            runningProgress.add(progress);
+            long start = System.nanoTime();
+            new GitIndexer(this).index(Paths.get(folder), incremental, indexableExtensions, skippableFolders, progress);
+            log.info("committing changes");
+            commit();
+            completed = !progress.isCancelled();
+            log.info("indexed " + folder + " from git in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+        }
+        finally {
+            try {
+                if (shard != null)
+                    settleSupersededShards(shard, completed);
+            }
+            finally {
+                runningProgress.remove(progress);
+                progress.stopped();
+            }
+        }
+    }
+
+    /**
+     * Once a new shard has been indexed and committed, drops the shards under its root that it took the place
+     * of. If it was not, because indexing failed or was cancelled, puts them back instead, and deletes the files
+     * the new shard indexed under their roots, which are found in them again.
+     */
+    private void settleSupersededShards(IndexShard shard, boolean indexed) throws IOException {
+        if (indexed) {
+            if (shards.dropSuperseded(shard)) {
+                // Also saves the values inherited from the dropped shards.
+                copiesMayBeOrphaned = true;
+                commit();
+            }
+            return;
+        }
+        List<Path> roots = shards.restoreSuperseded(shard);
+        if (roots.isEmpty())
+            return;
+        for (Path root : roots) {
+            shard.getWriter().deleteDocuments(new PrefixQuery(new Term(PATH_FIELD, root.toString() + File.separator)));
         }
+        copiesMayBeOrphaned = true;
+        commit();
+    }
+
+    /**
+     * Remembers how the root of a shard was indexed, so that the shard can be rebuilt the same way.
+     */
+    private void saveRequest(IndexShard shard, Path folderPath, String[] indexableExtensions, String[] skippableFolders, boolean git) throws IOException {
+        if (!shard.getRoot().equals(folderPath))
+            return;
+        IndexRequest request = new IndexRequest();
+        request.setPath(folderPath.toString());
+        request.setIndexableExtensions(indexableExtensions);
+        request.setSkippableFolders(skippableFolders);
+        request.setGit(git);
+        shard.setRequest(mapper.writeValueAsString(request));
+    }
+
+    /**
+     * Returns the paths of all files in the index that are under the specified folder.
+     */
+    Set<String> getIndexedPaths(Path folderPath) throws IOException {
+        return getIndexedFiles(folderPath).keySet();
     }
 
+    /**
+     * Returns the modified time and size of every file in the index that is under the specified folder.
+     * The paths are read from the terms dictionary and the values from doc values, so no stored fields are loaded.
+     * Files indexed before doc values were added have a modified time of -1, so they are always re-indexed.
+     */
+    private Map<String, IndexedFile> getIndexedFiles(Path folderPath) throws IOException {
+        BytesRef prefix = new BytesRef(folderPath.toString() + File.separator);
+        Map<String, IndexedFile> indexedFiles = new HashMap<String, IndexedFile>();
+        IndexShard shard = shards.find(folderPath);
+        if (shard == null)
+            return indexedFiles;
+        SearcherManager searcherManager = shard.getSearcherManager();
+        searcherManager.maybeRefreshBlocking();
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            for (LeafReaderContext context : searcher.getIndexReader().leaves()) {
+                LeafReader reader = context.reader();
+                Terms terms = reader.terms(PATH_FIELD);
+                if (terms == null)
+                    continue;
+
+                // Collect the live documents under the folder, then read their doc values in doc id order.
+                List<String> paths = new ArrayList<String>();
+                List<Integer> docIds = new ArrayList<Integer>();
+                Bits liveDocs = reader.getLiveDocs();
+                TermsEnum termsEnum = terms.iterator();
+                PostingsEnum postings = null;
+                if (termsEnum.seekCeil(prefix) != TermsEnum.SeekStatus.END) {
+                    for (BytesRef term = termsEnum.term(); term != null && StringHelper.startsWith(term, prefix); term = termsEnum.next()) {
+                        postings = termsEnum.postings(postings, PostingsEnum.NONE);
+                        for (int doc = postings.nextDoc(); doc != PostingsEnum.NO_MORE_DOCS; doc = postings.nextDoc()) {
+                            if (liveDocs == null || liveDocs.get(doc)) {
+                                paths.add(term.utf8ToString());
+                                docIds.add(doc);
+                            }
+                        }
+                    }
+                }
+                Integer[] order = new Integer[docIds.size()];
+                for (int i = 0; i < order.length; i++) {
+                    order[i] = i;
+                }
+                Arrays.sort(order, (a, b) -> Integer.compare(docIds.get(a), docIds.get(b)));
+
+                NumericDocValues modifiedValues = DocValues.getNumeric(reader, MODIFIED_FIELD);
+                NumericDocValues sizeValues = DocValues.getNumeric(reader, SIZE_FIELD);
+                for (int i : order) {
+                    int doc = docIds.get(i);
+                    long lastModified = modifiedValues.advanceExact(doc) ? modifiedValues.longValue() : -1;
+                    long size = sizeValues.advanceExact(doc) ? sizeValues.longValue() : -1;
+                    indexedFiles.put(paths.get(i), new IndexedFile(lastModified, size));
+                }
+            }
+        }
+        finally {
+            searcherManager.release(searcher);
+        }
+        return indexedFiles;
+    }
+
+    /**
+     * Starts keeping the index in sync with a folder that has been indexed.
+     * Does nothing if the file system watcher has been disabled.
+     */
+    public void watchFolder(IndexRequest indexRequest) throws IOException {
+        if (indexWatcher != null) {
+            indexWatcher.watch(indexRequest);
+            commitChanges();
+        }
+    }
+
+    /**
+     * Removes a file, or all files in a folder, from the index. Changes are not visible until committed.
+     */
+    void deleteFromIndex(Path path) throws IOException {
+        for (IndexShard shard : shards.getShards()) {
+            if (shard.contains(path) || shard.getRoot().startsWith(path)) {
+                shard.getWriter().deleteDocuments(new Term(PATH_FIELD, path.toString()));
+                shard.getWriter().deleteDocuments(new PrefixQuery(new Term(PATH_FIELD, path.toString() + File.separator)));
+            }
+        }
+        copiesMayBeOrphaned = true;
+        metrics.changed();
+    }
+
+    /**
+     * Commits if the last commit was more than eureka.index.commitIntervalSeconds ago, so that a long crawl
+     * that is interrupted keeps most of its work. Called as files are queued for indexing.
+     */
+    void maybeCommit() throws IOException {
+        if (COMMIT_INTERVAL_MILLIS <= 0 || System.currentTimeMillis() - lastCommitMillis < COMMIT_INTERVAL_MILLIS)
+            return;
+        log.info("committing changes made so far");
+        commit();
+    }
+
+    void commitChanges() throws IOException {
+        commit();
+    }
+
+    /**
+     * Flushes and commits pending changes in each shard that has any, timing each separately, then makes
+     * them searchable. Copies of files whose contents left the index in the process are then indexed in their place.
+     */
+    private void commit() throws IOException {
+        lastCommitMillis = System.currentTimeMillis();
+        commitShards();
+        while (copiesMayBeOrphaned) {
+            copiesMayBeOrphaned = false;
+            if (promoteOrphanedCopies() == 0)
+                break;
+            commitShards();
+        }
+        suggestions.flush();
+    }
+
+    private void commitShards() throws IOException {
+        for (IndexShard shard : shards.getShards()) {
+            IndexWriter writer = shard.getWriter();
+            if (!writer.hasUncommittedChanges())
+                continue;
+            long start = System.nanoTime();
+            writer.flush();
+            long flushed = System.nanoTime();
+            writer.commit();
+            metrics.stage(IndexMetrics.STAGE_FLUSH, flushed - start);
+            metrics.stage(IndexMetrics.STAGE_COMMIT, System.nanoTime() - flushed);
+            shard.getSearcherManager().maybeRefresh();
+        }
+        unrefreshedHashes.clear();
+    }
+
+    /**
+     * Fills in file and folder name suggestions from the index, on a background thread, because suggestions
+     * are kept in memory only. Identifiers are suggested again as files are re-indexed.
+     */
+    private void loadSuggestions() {
+        // The engine may be taken offline while this runs.
+        final ShardRegistry shards = this.shards;
+        final SuggestionIndex suggestions = this.suggestions;
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    try (ShardRegistry.Searcher shardSearcher = shards.acquire()) {
+                        IndexSearcher searcher = shardSearcher.getSearcher();
+                        Set<String> fields = Collections.singleton(PATH_FIELD);
+                        for (LeafReaderContext leaf : searcher.getIndexReader().leaves()) {
+                            Bits liveDocs = leaf.reader().getLiveDocs();
+                            for (int doc = 0; doc < leaf.reader().maxDoc(); doc++) {
+                                if (liveDocs == null || liveDocs.get(doc))
+                                    suggestions.fileIndexed(Paths.get(leaf.reader().document(doc, fields).get(PATH_FIELD)), null);
+                            }
+                        }
+                    }
+                    suggestions.flush();
+                }
+                catch (IOException | RuntimeException ex) {
+                    log.warn("could not load suggestions: " + ex.getMessage());
+                }
+            }
+        }, "eureka-suggestions");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Completes a partly typed file name, folder name or identifier.
+     * @param kind file, folder or identifier, or null for any kind.
+     */
+    public List<Suggestion> suggest(String text, String kind, int limit) throws IOException {
+        return suggestions.lookup(text, kind, limit);
+    }
+
+    /**
+     * Returns one page of the entries of a folder, folders first. Listings come from the folder listing cache
+     * (see DirectoryCache); whether each entry is indexed is looked up every time.
+     * @param sort name, size or modified. Folders come before files whichever way entries are sorted.
+     * @param refresh If true, lists the folder again even if it is cached.
+     */
+    public FolderContents listFolder(Path folder, String sort, boolean descending, int offset, int limit, boolean refresh) throws IOException {
+        List<FolderEntry> entries = directoryCache.list(folder, refresh);
+        Comparator<FolderEntry> comparator;
+        if ("size".equals(sort))
+            comparator = Comparator.comparingLong(entry -> entry.size);
+        else if ("modified".equals(sort))
+            comparator = Comparator.comparingLong(entry -> entry.lastModified);
+        else
+            comparator = DirectoryCache.BY_NAME;
+        if (descending)
+            comparator = comparator.reversed();
+        if (comparator != DirectoryCache.BY_NAME) {
+            entries = new ArrayList<FolderEntry>(entries);
+            entries.sort(Comparator.comparing((FolderEntry entry) -> !entry.folder).thenComparing(comparator));
+        }
+        int from = Math.min(offset, entries.size());
+        int to = limit > 0 ? Math.min(entries.size(), from + limit) : entries.size();
+        List<FolderEntry> page = new ArrayList<FolderEntry>(to - from);
+        for (FolderEntry cached : entries.subList(from, to)) {
+            FolderEntry entry = new FolderEntry(cached.name, cached.path, cached.folder, cached.size, cached.lastModified);
+            if (entry.folder)
+                entry.childCount = directoryCache.getChildCount(Paths.get(entry.path));
+            page.add(entry);
+        }
+        markIndexed(page);
+        return new FolderContents(folder.toString(), entries.size(), page);
+    }
+
+    private void markIndexed(List<FolderEntry> entries) throws IOException {
+        ShardRegistry shards = this.shards;
+        if (shards == null || entries.isEmpty())
+            return;
+        try (ShardRegistry.Searcher shardSearcher = shards.acquire()) {
+            IndexReader reader = shardSearcher.getSearcher().getIndexReader();
+            for (FolderEntry entry : entries) {
+                Path path = Paths.get(entry.path);
+                if (entry.folder)
+                    entry.indexed = shards.find(path) != null || containsRoot(shards, path);
+                else
+                    entry.indexed = containsPath(reader, entry.path);
+            }
+        }
+    }
+
+    private static boolean containsRoot(ShardRegistry shards, Path folder) {
+        for (IndexShard shard : shards.getShards()) {
+            if (shard.getRoot().startsWith(folder))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Looks up a path in the terms of each segment, which is cheaper than running a query for it.
+     */
+    private static boolean containsPath(IndexReader reader, String path) throws IOException {
+        BytesRef term = new BytesRef(path);
+        for (LeafReaderContext leaf : reader.leaves()) {
+            Terms terms = leaf.reader().terms(PATH_FIELD);
+            if (terms == null)
+                continue;
+            TermsEnum termsEnum = terms.iterator();
+            if (!termsEnum.seekExact(term))
+                continue;
+            Bits liveDocs = leaf.reader().getLiveDocs();
+            PostingsEnum postings = termsEnum.postings(null, PostingsEnum.NONE);
+            for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc()) {
+                if (liveDocs == null || liveDocs.get(doc))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drops cached folder listings that a change to the file or folder makes stale.
+     * @param tree If true, the whole tree under the folder may have changed.
+     */
+    void folderChanged(Path path, boolean tree) {
+        if (tree)
+            directoryCache.invalidateTree(path);
+        else
+            directoryCache.invalidate(path);
+    }
+
+    /**
+     * Finds declarations by name, for go to definition. See SymbolExtractor.
+     * An exact lookup matches the case of the name; a prefix lookup ignores case. Symbols whose name is
+     * the whole prefix come first, then shorter names before longer ones.
+     * @param kind class, function, method and so on, or null for any kind.
+     */
+    public List<Symbol> findSymbols(String name, boolean prefix, String kind, int limit) throws IOException {
+        if (shards == null)
+            throw new RuntimeException("Can't look up symbols because search engine is offline.");
+        long start = System.nanoTime();
+        String lowerName = name.toLowerCase();
+        Term term = new Term(SYMBOL_FIELD, lowerName);
+        Query query = prefix ? new PrefixQuery(term) : new TermQuery(term);
+        List<Symbol> symbols = new ArrayList<Symbol>();
+        try (ShardRegistry.Searcher shardSearcher = shards.acquire()) {
+            IndexSearcher searcher = shardSearcher.getSearcher();
+            // A file can match the lower case name without declaring a symbol of the right case or kind,
+            // so keep reading files until there are enough symbols.
+            ScoreDoc after = null;
+            while (symbols.size() < limit) {
+                ScoreDoc[] hits = searcher.searchAfter(after, query, limit).scoreDocs;
+                if (hits.length == 0)
+                    break;
+                for (ScoreDoc hit : hits) {
+                    Document doc = searcher.doc(hit.doc, SYMBOL_LOOKUP_FIELDS);
+                    String path = doc.get(PATH_FIELD);
+                    for (String entry : doc.get(SYMBOL_TABLE_FIELD).split("\n")) {
+                        String[] parts = entry.split("\t", 3);
+                        boolean matches = prefix ? parts[2].toLowerCase().startsWith(lowerName) : parts[2].equals(name);
+                        if (matches && (kind == null || kind.equals(parts[1])))
+                            symbols.add(new Symbol(parts[2], parts[1], path, Integer.parseInt(parts[0])));
+                    }
+                }
+                after = hits[hits.length - 1];
+            }
+        }
+        symbols.sort(Comparator.comparing((Symbol symbol) -> !symbol.name.equalsIgnoreCase(name))
+            .thenComparingInt(symbol -> symbol.name.length())
+            .thenComparing(symbol -> symbol.name)
+            .thenComparing(symbol -> symbol.path)
+            .thenComparingInt(symbol -> symbol.line));
+        if (symbols.size() > limit)
+            symbols = new ArrayList<Symbol>(symbols.subList(0, limit));
+        metrics.query("symbol", System.nanoTime() - start);
+        return symbols;
+    }
+
+    /**
+     * Returns a value that is saved along with the shard that contains the folder, or null if there is no such value.
+     */
+    String getCommitData(Path folder, String key) {
+        IndexShard shard = shards.find(folder);
+        return shard != null ? shard.getCommitData(key) : null;
+    }
+
+    /**
+     * Returns the values saved in every shard under keys that start with the prefix.
+     */
+    List<String> getCommitDataWithPrefix(String prefix) {
+        List<String> values = new ArrayList<String>();
+        for (IndexShard shard : shards.getShards()) {
+            values.addAll(shard.getCommitDataWithPrefix(prefix));
+        }
+        return values;
+    }
+
+    /**
+     * Sets a value to be saved along with the shard that contains the folder on the next commit.
+     * A null value removes the key. Does nothing if the folder is not in any shard.
+     */
+    void setCommitData(Path folder, String key, String value) {
+        IndexShard shard = shards.find(folder);
+        if (shard != null)
+            shard.setCommitData(key, value);
+    }
+
+    /**
+     * Drops every shard. The commits that git folders were indexed at go with them, so the folders are
+     * fully indexed next time.
+     */
     public void deleteAll() throws IOException {
         log.info("deleting all documents from index");
-        indexWriter.deleteAll();
-        indexWriter.commit();
-        searcherManager.maybeRefresh();
+        if (indexWatcher != null)
+            indexWatcher.unwatchAll();
+        suggestions.clear();
+        shards.dropAll();
+    }
+
+    public List<ShardStatus> getShardStatuses() throws IOException {
+        List<ShardStatus> statuses = new ArrayList<ShardStatus>();
+        for (IndexShard shard : shards.getShards()) {
+            statuses.add(new ShardStatus(shard.getRoot().toString(), shard.getDirectoryPath().toString(), shard.getDocCount(),
+                                         shard.getSegmentCount(), shard.getSizeBytes()));
+        }
+        return statuses;
+    }
+
+    /**
+     * Stops watching the root of a shard and deletes the shard. Other shards are not touched.
+     * @return False if there is no shard with that root.
+     */
+    public boolean dropShard(String root) throws IOException {
+        IndexShard shard = findShardByRoot(root);
+        if (shard == null)
+            return false;
+        log.info("dropping shard for " + root);
+        if (indexWatcher != null)
+            indexWatcher.unwatch(shard.getRoot());
+        shards.drop(shard);
+        copiesMayBeOrphaned = true;
+        commit();
+        return true;
+    }
+
+    /**
+     * Returns the settings the root of a shard was last indexed with, or null if there is no shard with that root.
+     */
+    public IndexRequest getShardRequest(String root) throws IOException {
+        IndexShard shard = findShardByRoot(root);
+        if (shard == null)
+            return null;
+        IndexRequest request;
+        String json = shard.getRequest();
+        if (json != null) {
+            request = mapper.readValue(json, IndexRequest.class);
+        }
+        else {
+            request = new IndexRequest();
+            request.setPath(shard.getRoot().toString());
+        }
+        return request;
+    }
+
+    /**
+     * Empties a shard, so that it can be indexed again from scratch. Other shards are not touched.
+     * @return False if there is no shard with that root.
+     */
+    public boolean clearShard(String root) throws IOException {
+        IndexShard shard = findShardByRoot(root);
+        if (shard == null)
+            return false;
+        log.info("clearing shard for " + root);
+        shard.clear();
+        copiesMayBeOrphaned = true;
+        metrics.changed();
+        commit();
+        return true;
+    }
+
+    private IndexShard findShardByRoot(String root) {
+        IndexShard shard = shards.find(Paths.get(root));
+        return shard != null && shard.getRoot().equals(Paths.get(root)) ? shard : null;
+    }
+
+    /**
+     * Starts merging the segments of every shard in the background, unless that is already in progress.
+     * See IndexOptimizer.
+     * @param maxSegments Merge each shard down to this many segments, or if 0, only merge away deleted files.
+     */
+    public OptimizeStatus optimizeIndex(int maxSegments) {
+        return optimizer.start(maxSegments);
     }
 
-    public void optimizeIndex() {
+    public OptimizeStatus getOptimizeStatus() {
+        return optimizer.getStatus();
     }
 
     public long getDocCount() throws IOException {
-        IndexSearcher searcher = searcherManager.acquire();
-        try {
-            CollectionStatistics stats = searcher.collectionStatistics(CONTENTS_FIELD);
+        try (ShardRegistry.Searcher shardSearcher = shards.acquire()) {
+            // Copies of other files have no contents, but they do have a path.
+            CollectionStatistics stats = shardSearcher.getSearcher().collectionStatistics(PATH_FIELD);
             if (stats == null)
                 return 0;
             return stats.docCount();
         }
-        finally {
-            searcherManager.release(searcher);
-        }
     }
 
     public List<SearchResult> performSearch(String q) throws ParseException, IOException {
-        log.info("searching, query=" + q);
-        if (searcherManager == null)
+        try (SearchHits hits = performSearch(q, new SearchOptions())) {
+            return hits.toList();
+        }
+    }
+
+    /**
+     * Runs a query and returns one page of hits. The caller must close the returned hits.
+     * Pages are served from the result cache when the same page of the same query, with the same filters,
+     * has already been requested since the index last changed. Streamed searches are not cached.
+     */
+    public SearchHits performSearch(String q, SearchOptions options) throws ParseException, IOException {
+        log.debug("searching, query=" + q);
+        if (shards == null)
             throw new RuntimeException("Can't perform search because search engine is offline.");
-        IndexSearcher searcher = searcherManager.acquire();
-        try {
-            Query filenameQuery = new TermQuery(new Term(FILENAME_FIELD, q.toLowerCase()));
+        long start = System.nanoTime();
+        final int limit = Math.max(1, Math.min(options.limit, MAX_RESULTS));
+        final SearchHits.Cursor after = options.after != null ? SearchHits.Cursor.parse(options.after) : null;
+        final int position = after != null ? after.position : Math.max(0, options.offset);
+        final int maxSnippets = Math.max(0, Math.min(options.snippets, MAX_SNIPPETS));
+
+        // The query without filters also finds the originals of copies that are inside the filters.
+        final Query contentQuery;
+        String queryType;
+        if (options.mode == SearchOptions.Mode.SUBSTRING || options.mode == SearchOptions.Mode.REGEX) {
+            contentQuery = new TrigramSearch(TRIGRAM_FIELD).buildQuery(q, options.mode);
+            queryType = options.mode.name().toLowerCase();
+        }
+        else {
+            Query contentsQuery = parseQuery(q);
+            contentQuery = buildQuery(q, contentsQuery);
+            queryType = getQueryType(contentsQuery);
+        }
+        final Query query = applyFilters(contentQuery, options);
+
+        // Read the generation first, so that a change made while acquiring can only make the cached page look stale.
+        long version = shards.getGeneration();
+        final ShardRegistry.Searcher searcher = shards.acquire();
+        SearchHits searchHits;
+        if (!resultCache.isEnabled() || options.stream) {
+            // The hits keep the searcher until they are closed.
+            try {
+                searchHits = executeSearch(searcher, q, contentQuery, options, limit, position, after, maxSnippets);
+            }
+            catch (IOException | RuntimeException ex) {
+                searcher.close();
+                throw ex;
+            }
+        }
+        else {
+            try {
+                // The parsed query, with its filters, is the normalized form of the request.
+                String key = options.mode + "\n" + (options.mode == SearchOptions.Mode.TEXT ? "" : q) + "\n" + query
+                    + "\n" + position + "\n" + after + "\n" + limit + "\n" + maxSnippets + "\n" + options.groupCopies;
+                // The loaded page holds no searcher, so the searcher is released here rather than by the page.
+                searchHits = resultCache.get(version, key, () -> executeSearch(searcher, q, contentQuery, options, limit, position, after, maxSnippets).load());
+            }
+            finally {
+                searcher.close();
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        metrics.query(queryType, elapsed);
+        firstQueryNanos.compareAndSet(-1, elapsed);
+        // The engine may have gone offline during the search.
+        QueryLog recent = queryLog;
+        if (recent != null)
+            recent.record(options.mode, q);
+        return searchHits;
+    }
+
+    /**
+     * Runs recent queries on a new searcher of a shard before it is used, so that the parts of the index they
+     * need are read from disk now rather than during a search. Gives up after eureka.warmup.maxMillis.
+     * Substring and regular expression queries only look up their trigrams; files are not read.
+     */
+    private void warm(IndexSearcher searcher) {
+        QueryLog recent = queryLog;
+        if (recent == null)
+            return;
+        List<String[]> queries = recent.getQueries();
+        if (queries.isEmpty())
+            return;
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(WARMUP_MAX_MILLIS);
+        int count = 0;
+        for (String[] entry : queries) {
+            if (System.nanoTime() > deadline)
+                break;
+            try {
+                SearchOptions.Mode mode = SearchOptions.Mode.valueOf(entry[0]);
+                String q = entry[1];
+                Query query = mode == SearchOptions.Mode.TEXT ? buildQuery(q, parseQuery(q)) : new TrigramSearch(TRIGRAM_FIELD).buildQuery(q, mode);
+                searcher.search(query, 10);
+                count++;
+            }
+            catch (ParseException | IOException | RuntimeException ex) {
+                // Skip queries that no longer parse, for example after a change to the query syntax.
+            }
+        }
+        warmupMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        warmupQueries = count;
+        log.debug("warmed up searcher with " + count + " queries in " + warmupMillis + " ms");
+    }
+
+    /**
+     * How long it took to bring the engine online, including warming up the searchers, or -1 if it is not online.
+     */
+    public long getStartupMillis() {
+        return startupMillis;
+    }
+
+    /**
+     * How long it took to warm up the most recent searcher, or -1 if no searcher has been warmed up.
+     */
+    public long getWarmupMillis() {
+        return warmupMillis;
+    }
+
+    public int getWarmupQueries() {
+        return warmupQueries;
+    }
+
+    /**
+     * How long the first search after startup took, or -1 if there has not been a search yet.
+     */
+    public long getFirstQueryMillis() {
+        long nanos = firstQueryNanos.get();
+        return nanos < 0 ? -1 : TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    /**
+     * Runs a query on a searcher that the caller has acquired. The returned hits release the searcher when closed.
+     * Top hits are collected from slices of the shards in parallel, on the search thread pool.
+     * @param contentQuery The query without the filters of the options, which are applied here.
+     */
+    /**
+     * @param start Number of hits before the page.
+     * @param after The last hit of the previous page, or null to skip start hits instead.
+     */
+    private SearchHits executeSearch(ShardRegistry.Searcher shardSearcher, String q, Query contentQuery, SearchOptions options, int limit, int start, SearchHits.Cursor after, int maxSnippets) throws IOException {
+        IndexSearcher searcher = shardSearcher.getSearcher();
+        boolean hasCopies = searcher.getIndexReader().getDocCount(COPY_OF_FIELD) > 0;
+        Map<String, Integer> originals = new HashMap<String, Integer>();
+        Query query;
+        if (hasCopies && !options.groupCopies)
+            query = applyFilters(expandCopies(searcher, contentQuery, originals), options);
+        else
+            query = applyFilters(contentQuery, options);
+        ScoreDoc afterDoc = after != null ? findCursor(searcher, query, after) : null;
+        SearchHits searchHits;
+        if (options.mode == SearchOptions.Mode.SUBSTRING || options.mode == SearchOptions.Mode.REGEX)
+            searchHits = performTrigramSearch(shardSearcher, q, query, options.mode, limit, start, afterDoc, maxSnippets);
+        else
+            searchHits = performTextSearch(shardSearcher, query, limit, start, afterDoc, maxSnippets, originals);
+        if (hasCopies && options.groupCopies)
+            searchHits.setCopyFinder(doc -> findCopies(searcher, doc, options));
+        return searchHits;
+    }
+
+    /**
+     * Finds the last hit of the previous page in this searcher, with its score in this searcher, or returns null
+     * if its file no longer matches.
+     */
+    private static ScoreDoc findCursor(IndexSearcher searcher, Query query, SearchHits.Cursor cursor) throws IOException {
+        Query hit = new BooleanQuery.Builder()
+            .add(query, BooleanClause.Occur.MUST)
+            .add(new TermQuery(new Term(PATH_FIELD, cursor.path)), BooleanClause.Occur.FILTER)
+            .build();
+        ScoreDoc[] docs = searcher.search(hit, 1).scoreDocs;
+        return docs.length > 0 ? docs[0] : null;
+    }
+
+    private SearchHits performTextSearch(ShardRegistry.Searcher shardSearcher, Query query, int limit, int start, ScoreDoc after, int maxSnippets, Map<String, Integer> originals) throws IOException {
+        IndexSearcher searcher = shardSearcher.getSearcher();
+        int offset = after != null ? 0 : start;
+        // Ask for one more hit than needed, to find out if there is another page.
+        TopDocs results = after != null ? searcher.searchAfter(after, query, limit + 1) : searcher.search(query, offset + limit + 1);
+        ScoreDoc[] hits = results.scoreDocs;
+        int from = Math.min(offset, hits.length);
+        int to = Math.min(from + limit, hits.length);
+        boolean hasMore = hits.length > to;
+        hits = Arrays.copyOfRange(hits, from, to);
+        SearchHits searchHits = new SearchHits(shardSearcher, searcher, hits, results.totalHits.value, hasMore, start, PATH_FIELD);
+        if (maxSnippets > 0) {
+            SnippetHighlighter highlighter = new SnippetHighlighter(searcher, analyzer, CONTENTS_FIELD, doc -> readIndexedFile(searcher, doc), SIZE_FIELD);
+            searchHits.setSnippets(highlighter, query, maxSnippets);
+            if (!originals.isEmpty())
+                searchHits.setHighlightDocs(getOriginalDocs(searcher, hits, originals));
+        }
+        return searchHits;
+    }
+
+    /**
+     * Adds the copies of the files that match a query to the query. Copies have no contents in the index, so
+     * they are found through the hash of their original, and scored the same as it. Only the originals among
+     * the top eureka.dedup.maxExpandedHashes hits are expanded.
+     * @param originals Receives the doc id of each original, keyed by hash.
+     */
+    private Query expandCopies(IndexSearcher searcher, Query contentQuery, Map<String, Integer> originals) throws IOException {
+        TopDocs top = searcher.search(contentQuery, MAX_EXPANDED_HASHES);
+        BooleanQuery.Builder copies = new BooleanQuery.Builder();
+        for (ScoreDoc hit : top.scoreDocs) {
+            String hash = searcher.doc(hit.doc, Collections.singleton(HASH_FIELD)).get(HASH_FIELD);
+            if (hash == null || originals.containsKey(hash))
+                continue;
+            originals.put(hash, hit.doc);
+            Query copy = new ConstantScoreQuery(new TermQuery(new Term(COPY_OF_FIELD, hash)));
+            copies.add(new BoostQuery(copy, hit.score), BooleanClause.Occur.SHOULD);
+        }
+        if (originals.isEmpty())
+            return contentQuery;
+        return new BooleanQuery.Builder()
+            .add(contentQuery, BooleanClause.Occur.SHOULD)
+            .add(copies.build(), BooleanClause.Occur.SHOULD)
+            .build();
+    }
+
+    /**
+     * Maps the doc id of each hit that is a copy to the doc id of its original.
+     */
+    private static Map<Integer, Integer> getOriginalDocs(IndexSearcher searcher, ScoreDoc[] hits, Map<String, Integer> originals) throws IOException {
+        Map<Integer, Integer> originalDocs = new HashMap<Integer, Integer>();
+        for (ScoreDoc hit : hits) {
+            String hash = searcher.doc(hit.doc, Collections.singleton(COPY_OF_FIELD)).get(COPY_OF_FIELD);
+            Integer original = hash != null ? originals.get(hash) : null;
+            if (original != null)
+                originalDocs.put(hit.doc, original);
+        }
+        return originalDocs;
+    }
+
+    /**
+     * Returns the paths of up to eureka.dedup.maxCopiesPerResult copies of a hit, within the filters of the
+     * search. A hit that is itself a copy is listed with the other copies of the same original. Files are only
+     * found through the copy that holds their contents, so a copy is only a result if its name matches.
+     */
+    private List<String> findCopies(IndexSearcher searcher, int doc, SearchOptions options) throws IOException {
+        Document hit = searcher.doc(doc, new HashSet<String>(Arrays.asList(HASH_FIELD, COPY_OF_FIELD)));
+        String hash = hit.get(HASH_FIELD) != null ? hit.get(HASH_FIELD) : hit.get(COPY_OF_FIELD);
+        if (hash == null)
+            return null;
+        Query query = new BooleanQuery.Builder()
+            .add(new BooleanQuery.Builder()
+                .add(new TermQuery(new Term(HASH_FIELD, hash)), BooleanClause.Occur.SHOULD)
+                .add(new TermQuery(new Term(COPY_OF_FIELD, hash)), BooleanClause.Occur.SHOULD)
+                .build(), BooleanClause.Occur.FILTER)
+            .build();
+        TopDocs copies = searcher.search(applyFilters(query, options), MAX_COPIES_PER_RESULT + 1);
+        List<String> paths = new ArrayList<String>();
+        for (ScoreDoc copy : copies.scoreDocs) {
+            if (copy.doc != doc && paths.size() < MAX_COPIES_PER_RESULT)
+                paths.add(searcher.doc(copy.doc, Collections.singleton(PATH_FIELD)).get(PATH_FIELD));
+        }
+        return paths;
+    }
+
+    /**
+     * Finds files that contain a substring or match a regular expression. The trigram index narrows down the
+     * candidates (at most eureka.search.maxCandidates of them), which are then checked one at a time, in index
+     * order, until enough matches have been found. Matching lines are found during the check.
+     */
+    private SearchHits performTrigramSearch(ShardRegistry.Searcher shardSearcher, String q, Query query, SearchOptions.Mode mode, int limit, int start, ScoreDoc after, int maxSnippets) throws IOException {
+        IndexSearcher searcher = shardSearcher.getSearcher();
+        final int offset = after != null ? 0 : start;
+        Pattern pattern = TrigramSearch.compile(q, mode);
+        final int firstDoc = after != null ? after.doc + 1 : 0;
+        final List<Integer> candidates = new ArrayList<Integer>();
+        searcher.search(query, new SimpleCollector() {
+            private int docBase;
 
-            QueryParser parser = new QueryParser(CONTENTS_FIELD, analyzer);
-            Query contentsQuery = parser.parse(q);
+            @Override
+            protected void doSetNextReader(LeafReaderContext context) {
+                if (candidates.size() >= MAX_CANDIDATES)
+                    throw new CollectionTerminatedException();
+                docBase = context.docBase;
+            }
 
-            Query query = new BooleanQuery.Builder()
-                .add(contentsQuery, BooleanClause.Occur.SHOULD)
-                .add(new BoostQuery(filenameQuery, 3.0F), BooleanClause.Occur.SHOULD)
-                .build();
+            @Override
+            public void collect(int doc) {
+                if (docBase + doc >= firstDoc)
+                    candidates.add(docBase + doc);
+                if (candidates.size() >= MAX_CANDIDATES)
+                    throw new CollectionTerminatedException();
+            }
 
-            TopDocs results = searcher.search(query, MAX_RESULTS);
-            ScoreDoc[] hits = results.scoreDocs;
+            @Override
+            public ScoreMode scoreMode() {
+                return ScoreMode.COMPLETE_NO_SCORES;
+            }
+        });
+        // A search with a single collector runs on this thread and visits segments in order, but make sure.
+        Collections.sort(candidates);
 
-            List<SearchResult> searchResults = new ArrayList<SearchResult>();
-            for (int i = 0; i < hits.length; i++) {
-                Document doc = searcher.doc(hits[i].doc);
-                String path = doc.get(PATH_FIELD);
-                searchResults.add(new SearchResult(path, hits[i].score));
+        List<ScoreDoc> hits = new ArrayList<ScoreDoc>();
+        Map<Integer, List<Snippet>> snippets = new LinkedHashMap<Integer, List<Snippet>>();
+        int matchCount = 0;
+        for (int doc : candidates) {
+            List<Snippet> matches;
+            try {
+                matches = TrigramSearch.findMatches(ContentSniffer.decode(readIndexedFile(searcher, doc)), pattern, maxSnippets);
             }
-            return searchResults;
+            catch (IOException ex) {
+                continue;
+            }
+            if (matches == null)
+                continue;
+            matchCount++;
+            if (matchCount <= offset)
+                continue;
+            hits.add(new ScoreDoc(doc, 1.0F));
+            if (maxSnippets > 0)
+                snippets.put(doc, matches);
+            if (hits.size() > limit)
+                break;
         }
-        finally {
-            searcherManager.release(searcher);
+        boolean hasMore = hits.size() > limit;
+        if (hasMore)
+            hits.remove(hits.size() - 1);
+        // The total is the number of matches found so far, because candidates are only checked until the page is full.
+        SearchHits searchHits = new SearchHits(shardSearcher, searcher, hits.toArray(new ScoreDoc[hits.size()]), matchCount, hasMore, start, PATH_FIELD);
+        if (maxSnippets > 0)
+            searchHits.setSnippets(snippets);
+        return searchHits;
+    }
+
+    private Query parseQuery(String q) throws ParseException {
+        QueryParser parser = new QueryParser(CONTENTS_FIELD, analyzer) {
+            @Override
+            protected Query analyzeGraphPhrase(TokenStream source, String field, int phraseSlop) throws IOException {
+                // In the index an identifier shares the position of its first part, and the next token follows
+                // its last part. Span queries over the paths of the graph do not backtrack, so a phrase with an
+                // identifier in the middle would be missed; a phrase over positions matches the index exactly.
+                return analyzeMultiPhrase(field, source, phraseSlop);
+            }
+        };
+        // An identifier in the query is analyzed into the identifier and its parts; match them as a phrase.
+        parser.setSplitOnWhitespace(true);
+        parser.setAutoGeneratePhraseQueries(true);
+        return parser.parse(q);
+    }
+
+    private Query buildQuery(String q, Query contentsQuery) {
+        Query filenameQuery = new TermQuery(new Term(FILENAME_FIELD, q.toLowerCase()));
+        return new BooleanQuery.Builder()
+            .add(contentsQuery, BooleanClause.Occur.SHOULD)
+            .add(new BoostQuery(filenameQuery, 3.0F), BooleanClause.Occur.SHOULD)
+            .build();
+    }
+
+    /**
+     * Classifies a parsed query for the latency metrics.
+     */
+    private static String getQueryType(Query query) {
+        if (query instanceof TermQuery)
+            return "term";
+        if (query instanceof PhraseQuery || query instanceof MultiPhraseQuery)
+            return "phrase";
+        if (query instanceof WildcardQuery || query instanceof PrefixQuery || query instanceof RegexpQuery || query instanceof TermRangeQuery)
+            return "wildcard";
+        if (query instanceof FuzzyQuery)
+            return "fuzzy";
+        return "boolean";
+    }
+
+    private Query applyFilters(Query query, SearchOptions options) {
+        BooleanQuery.Builder filtered = new BooleanQuery.Builder().add(query, BooleanClause.Occur.MUST);
+        boolean hasFilter = false;
+        if (options.extensions != null && !options.extensions.isEmpty()) {
+            BooleanQuery.Builder extensionQuery = new BooleanQuery.Builder();
+            boolean hasExtension = false;
+            for (String extension : options.extensions) {
+                String normalized = normalizeExtension(extension.startsWith(".") ? extension : "." + extension);
+                if (normalized != null) {
+                    extensionQuery.add(new TermQuery(new Term(EXTENSION_FIELD, normalized)), BooleanClause.Occur.SHOULD);
+                    hasExtension = true;
+                }
+            }
+            // An empty query would match nothing.
+            if (!hasExtension)
+                throw new IllegalArgumentException("ext must be a file extension, such as .java");
+            filtered.add(extensionQuery.build(), BooleanClause.Occur.FILTER);
+            hasFilter = true;
+        }
+        if (options.folder != null && options.folder.length() > 0) {
+            filtered.add(new TermQuery(new Term(FOLDER_FIELD, Paths.get(options.folder).toString())), BooleanClause.Occur.FILTER);
+            hasFilter = true;
+        }
+        if (options.excludedFolders != null) {
+            for (String folderName : options.excludedFolders) {
+                filtered.add(new TermQuery(new Term(FOLDER_NAME_FIELD, folderName.toLowerCase())), BooleanClause.Occur.MUST_NOT);
+                hasFilter = true;
+            }
+        }
+        return hasFilter ? filtered.build() : query;
+    }
+
+    private static class IndexedFile {
+        final long lastModified;
+        final long size;
+
+        IndexedFile(long lastModified, long size) {
+            this.lastModified = lastModified;
+            this.size = size;
         }
     }
 }
@@ -0,0 +1,255 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.ScoreDoc;
+
+/**
+ * One page of hits. The searcher that produced the hits stays acquired until close() is called,
+ * so that results can be loaded lazily, for example while they are being streamed to the client.
+ * A page that has been loaded (see load()) holds no searcher, and closing it does nothing.
+ */
+public class SearchHits implements Closeable {
+    private static final int SNIPPET_BATCH_SIZE = 50;
+    private final Closeable release;
+    private final IndexSearcher searcher;
+    private final ScoreDoc[] hits;
+    private final long totalHits;
+    private final String pathField;
+    private SnippetHighlighter highlighter;
+    private Query query;
+    private int maxSnippets;
+    private Map<Integer, List<Snippet>> precomputedSnippets;
+    private Map<Integer, Integer> highlightDocs;
+    private CopyFinder copyFinder;
+    private final List<SearchResult> results;
+    private final String nextCursor;
+    private boolean closed;
+
+    /**
+     * @param release Releases the searcher when the hits are closed.
+     * @param start Number of hits before this page.
+     */
+    SearchHits(Closeable release, IndexSearcher searcher, ScoreDoc[] hits, long totalHits, boolean hasMore, int start, String pathField) throws IOException {
+        this.release = release;
+        this.searcher = searcher;
+        this.hits = hits;
+        this.totalHits = totalHits;
+        this.pathField = pathField;
+        this.results = null;
+        if (hasMore && hits.length > 0) {
+            // Read the path now, because the cursor may be asked for after the searcher has been released.
+            ScoreDoc last = hits[hits.length - 1];
+            String path = searcher.doc(last.doc, Collections.singleton(pathField)).get(pathField);
+            this.nextCursor = new Cursor(start + hits.length, path).toString();
+        }
+        else {
+            this.nextCursor = null;
+        }
+    }
+
+    /**
+     * Creates a page of hits that have already been loaded. It holds no searcher, so it can be shared.
+     */
+    private SearchHits(List<SearchResult> results, long totalHits, String nextCursor) {
+        this.release = null;
+        this.searcher = null;
+        this.hits = null;
+        this.totalHits = totalHits;
+        this.pathField = null;
+        this.results = Collections.unmodifiableList(results);
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * Loads all the hits, with their snippets, into a page that can be kept after this one is closed.
+     */
+    SearchHits load() throws IOException {
+        if (results != null)
+            return this;
+        return new SearchHits(toList(), totalHits, getNextCursor());
+    }
+
+    /** The hits of a loaded page, or null if the hits are loaded as they are iterated. */
+    List<SearchResult> getLoadedResults() {
+        return results;
+    }
+
+    /**
+     * Requests that up to maxSnippets matching lines be returned with each result.
+     */
+    void setSnippets(SnippetHighlighter highlighter, Query query, int maxSnippets) {
+        this.highlighter = highlighter;
+        this.query = query;
+        this.maxSnippets = maxSnippets;
+    }
+
+    /**
+     * Highlights other docs in place of some hits, keyed by the doc id of the hit. A hit that is a copy of
+     * another file has no contents of its own in the index, so its snippets come from the original.
+     */
+    void setHighlightDocs(Map<Integer, Integer> highlightDocs) {
+        this.highlightDocs = highlightDocs;
+    }
+
+    /**
+     * Finds the paths of the copies of a hit, when copies are grouped.
+     */
+    interface CopyFinder {
+        List<String> findCopies(int doc) throws IOException;
+    }
+
+    void setCopyFinder(CopyFinder copyFinder) {
+        this.copyFinder = copyFinder;
+    }
+
+    public interface Handler {
+        void handle(SearchResult result) throws IOException;
+    }
+
+    /** Total number of matching files, which may be more than the number of hits in this page. */
+    public long getTotalHits() {
+        return totalHits;
+    }
+
+    /** Cursor for requesting the next page, or null if this is the last page. */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * The last hit of a page, from which the next page continues. Doc ids change as the index changes, and
+     * shift when shards are added or dropped, and scores change with the statistics of the index, so the hit
+     * is identified by its path and scored again by the searcher of the next page. If the file no longer matches,
+     * the next page starts at the position of the hit instead, which can skip or repeat hits if other files were
+     * also added or removed in between.
+     */
+    static class Cursor {
+        /** Number of hits up to and including this one. */
+        final int position;
+        final String path;
+
+        Cursor(int position, String path) {
+            this.position = position;
+            this.path = path;
+        }
+
+        static Cursor parse(String cursor) {
+            String[] parts = cursor.split(":", 2);
+            if (parts.length != 2)
+                throw new IllegalArgumentException("Invalid cursor: " + cursor);
+            try {
+                String path = new String(Base64.getUrlDecoder().decode(parts[1]), StandardCharsets.UTF_8);
+                int position = Integer.parseInt(parts[0]);
+                if (position < 0)
+                    throw new IllegalArgumentException();
+                return new Cursor(position, path);
+            }
+            catch (IllegalArgumentException ex) {
+                // Also thrown for a bad number or bad Base64.
+                throw new IllegalArgumentException("Invalid cursor: " + cursor);
+            }
+        }
+
+        @Override
+        public String toString() {
+            // The path is encoded because the cursor is returned in a header.
+            return position + ":" + Base64.getUrlEncoder().withoutPadding().encodeToString(path.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Supplies snippets that were found while the hits were being verified, keyed by doc id.
+     */
+    void setSnippets(Map<Integer, List<Snippet>> snippets) {
+        this.precomputedSnippets = snippets;
+    }
+
+    /**
+     * Loads each hit in turn and passes it to the handler.
+     */
+    public void forEach(Handler handler) throws IOException {
+        if (results != null) {
+            for (SearchResult result : results) {
+                handler.handle(result);
+            }
+            return;
+        }
+        // Snippets are computed a batch at a time, so that streamed results start flowing quickly.
+        for (int batchStart = 0; batchStart < hits.length; batchStart += SNIPPET_BATCH_SIZE) {
+            int batchEnd = Math.min(batchStart + SNIPPET_BATCH_SIZE, hits.length);
+            List<List<Snippet>> snippets = null;
+            if (highlighter != null && maxSnippets > 0) {
+                int[] docIds = new int[batchEnd - batchStart];
+                for (int i = 0; i < docIds.length; i++) {
+                    docIds[i] = hits[batchStart + i].doc;
+                }
+                snippets = highlightDocs != null ? getSubstitutedSnippets(docIds) : highlighter.getSnippets(query, docIds, maxSnippets);
+            }
+            for (int i = batchStart; i < batchEnd; i++) {
+                String path = searcher.doc(hits[i].doc, Collections.singleton(pathField)).get(pathField);
+                SearchResult result = new SearchResult(path, hits[i].score);
+                if (snippets != null)
+                    result.snippets = snippets.get(i - batchStart);
+                else if (precomputedSnippets != null)
+                    result.snippets = precomputedSnippets.get(hits[i].doc);
+                if (copyFinder != null)
+                    result.copies = copyFinder.findCopies(hits[i].doc);
+                handler.handle(result);
+            }
+        }
+    }
+
+    /**
+     * Highlights each doc, or the doc that stands in for it, highlighting each distinct doc only once.
+     */
+    private List<List<Snippet>> getSubstitutedSnippets(int[] docIds) throws IOException {
+        Map<Integer, Integer> positions = new LinkedHashMap<Integer, Integer>();
+        for (int docId : docIds) {
+            positions.putIfAbsent(highlightDocs.getOrDefault(docId, docId), positions.size());
+        }
+        int[] distinct = new int[positions.size()];
+        int i = 0;
+        for (int docId : positions.keySet()) {
+            distinct[i++] = docId;
+        }
+        List<List<Snippet>> highlighted = highlighter.getSnippets(query, distinct, maxSnippets);
+        List<List<Snippet>> snippets = new ArrayList<List<Snippet>>(docIds.length);
+        for (int docId : docIds) {
+            snippets.add(highlighted.get(positions.get(highlightDocs.getOrDefault(docId, docId))));
+        }
+        return snippets;
+    }
+
+    public List<SearchResult> toList() throws IOException {
+        if (this.results != null)
+            return this.results;
+        final List<SearchResult> results = new ArrayList<SearchResult>(hits.length);
+        forEach(new Handler() {
+            @Override
+            public void handle(SearchResult result) {
+                results.add(result);
+            }
+        });
+        return results;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!closed && release != null) {
+            closed = true;
+            release.close();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+import java.util.List;
+
+/**
+ * Filters and paging for a search. Filters are applied inside Lucene and don't affect scores.
+ */
+public class SearchOptions {
+    public enum Mode {
+        /** Query parser syntax, matched against whole tokens. */
+        TEXT,
+        /** Literal text, matched anywhere in a file, ignoring case. */
+        SUBSTRING,
+        /** Java regular expression. */
+        REGEX
+    }
+
+    public Mode mode;
+
+    /** Only return files with one of these extensions, for example ".ts". Null or empty means any extension. */
+    public List<String> extensions;
+
+    /** Only return files in this folder or its subfolders. */
+    public String folder;
+
+    /** Don't return files that are inside a folder with one of these names, for example "test". */
+    public List<String> excludedFolders;
+
+    /** Number of results to skip. Ignored if after is specified. */
+    public int offset;
+
+    /** Maximum number of results to return. */
+    public int limit;
+
+    /**
+     * Cursor returned with the previous page of results. The next page continues after the last hit of that page,
+     * even if the index has changed since, unless that file has been removed from the index.
+     */
+    public String after;
+
+    /** Maximum number of matching lines to return with each result. */
+    public int snippets;
+
+    /**
+     * Return files with identical contents as one result, listing the other paths in its copies, instead of
+     * one result per path. Only has an effect on an index built with eureka.index.dedup.
+     */
+    public boolean groupCopies;
+
+    /**
+     * The caller reads the hits one at a time as it writes them out. The result cache is bypassed, since
+     * it would load the whole page before returning the first hit.
+     */
+    public boolean stream;
+
+    public SearchOptions() {
+        this.mode = Mode.TEXT;
+        this.offset = 0;
+        this.limit = SearchEngine.MAX_RESULTS;
+    }
+}
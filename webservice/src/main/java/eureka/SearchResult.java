@@ -2,9 +2,14 @@
 
 package eureka;
 
+import java.util.List;
+
 public class SearchResult {
     public String path;
     public float score;
+    public List<Snippet> snippets;
+    /** Other files with the same contents, when copies are grouped. See SearchOptions.groupCopies. */
+    public List<String> copies;
 
     public SearchResult(String path, float score) {
         this.path = path;
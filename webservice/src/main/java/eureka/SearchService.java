@@ -3,11 +3,28 @@
 // Usage examples:
 // GET    http://localhost:8888/eureka-service/api/searchengine
 // GET    http://localhost:8888/eureka-service/api/searchengine/status
+// GET    http://localhost:8888/eureka-service/api/searchengine/metrics
 // GET    http://localhost:8888/eureka-service/api/searchengine/search?query=const
+// GET    http://localhost:8888/eureka-service/api/searchengine/search?query=const&ext=.ts&ext=.tsx&folder=/projects/foo&exclude=test&limit=50&stream=true
+// GET    http://localhost:8888/eureka-service/api/searchengine/search?query=const&snippets=3
+// GET    http://localhost:8888/eureka-service/api/searchengine/search?query=->foo(&mode=substring
+// GET    http://localhost:8888/eureka-service/api/searchengine/search?query=get\w+ById&mode=regex
+// GET    http://localhost:8888/eureka-service/api/searchengine/suggest?prefix=SearchEng&kind=file&limit=10
+// GET    http://localhost:8888/eureka-service/api/searchengine/symbols?name=SearchEngine
+// GET    http://localhost:8888/eureka-service/api/searchengine/symbols?name=perform&prefix=true&kind=method&limit=20
 // GET    http://localhost:8888/eureka-service/api/searchengine/file?path=/projects/foo
 // POST   http://localhost:8888/eureka-service/api/searchengine/index
 // DELETE http://localhost:8888/eureka-service/api/searchengine/index
-// GET    http://localhost:8888/eureka-service/api/searchengine/foldercontents
+// GET    http://localhost:8888/eureka-service/api/searchengine/jobs
+// GET    http://localhost:8888/eureka-service/api/searchengine/jobs/1
+// DELETE http://localhost:8888/eureka-service/api/searchengine/jobs/1
+// GET    http://localhost:8888/eureka-service/api/searchengine/shards
+// DELETE http://localhost:8888/eureka-service/api/searchengine/shards?root=/projects/foo
+// POST   http://localhost:8888/eureka-service/api/searchengine/shards/rebuild?root=/projects/foo
+// GET    http://localhost:8888/eureka-service/api/searchengine/optimize
+// POST   http://localhost:8888/eureka-service/api/searchengine/optimize?maxSegments=1
+// GET    http://localhost:8888/eureka-service/api/searchengine/foldercontents?path=/projects/foo
+// GET    http://localhost:8888/eureka-service/api/searchengine/foldercontents?path=/projects/foo&details=true&sort=modified&desc=true&offset=0&limit=100
 // GET    http://localhost:8888/eureka-service/api/searchengine/skippablefolders
 // GET    http://localhost:8888/eureka-service/api/searchengine/indexableextensions
 // GET    http://localhost:8888/eureka-service/api/searchengine/progress
@@ -17,32 +34,51 @@ package eureka;
 import java.util.List;
 import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Date;
+import java.util.TreeSet;
+import java.util.concurrent.RejectedExecutionException;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.QueryParam;
+import javax.ws.rs.DefaultValue;
 import javax.ws.rs.Consumes;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.InternalServerErrorException;
 import javax.ws.rs.BadRequestException;
+import javax.ws.rs.NotFoundException;
+import javax.ws.rs.ServiceUnavailableException;
 import org.glassfish.jersey.media.sse.EventOutput;
-import org.glassfish.jersey.media.sse.OutboundEvent;
 import org.glassfish.jersey.media.sse.SseFeature;
 import java.nio.file.Paths;
 import java.nio.file.Files;
-import java.nio.file.FileVisitResult;
-import java.nio.charset.StandardCharsets;
-import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.io.IOException;
+import java.io.OutputStream;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import org.apache.lucene.queryparser.classic.ParseException;
 
 @Path("/searchengine")
 public class SearchService {
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static ProgressBroadcaster progressBroadcaster;
+
     @GET
     public String getMessage() {
         return "Hello from eureka! " + new java.util.Date();
@@ -57,6 +93,10 @@ public class SearchService {
             long count = engine.getDocCount();
             boolean indexingInProgress = engine.getCurrentlyIndexing() != null;
             IndexStatus status = new IndexStatus(count, indexingInProgress);
+            status.startupMillis = engine.getStartupMillis();
+            status.warmupMillis = engine.getWarmupMillis();
+            status.warmupQueries = engine.getWarmupQueries();
+            status.firstQueryMillis = engine.getFirstQueryMillis();
             return Response.ok(status).build();
         }
         catch (IOException ex) {
@@ -64,17 +104,148 @@ public class SearchService {
         }
     }
 
+    /**
+     * Completes a partly typed file name, folder name or identifier. Cheap enough to call on every keystroke.
+     */
+    @GET
+    @Path("/suggest")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response suggest(@QueryParam("prefix") String prefix,
+                            @QueryParam("kind") String kind,
+                            @QueryParam("limit") @DefaultValue("10") int limit) {
+        if (prefix == null)
+            throw new BadRequestException("prefix parameter must be supplied");
+        if (kind != null && !kind.equals(SuggestionIndex.KIND_FILE) && !kind.equals(SuggestionIndex.KIND_FOLDER) && !kind.equals(SuggestionIndex.KIND_IDENTIFIER))
+            throw new BadRequestException("kind must be file, folder or identifier");
+        if (limit < 1 || limit > 100)
+            throw new BadRequestException("limit must be between 1 and 100");
+        try {
+            SearchEngine engine = SearchEngine.getInstance();
+            return Response.ok(engine.suggest(prefix, kind, limit)).build();
+        }
+        catch (IOException ex) {
+            throw new InternalServerErrorException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Finds where a class, function, method, constant and so on is declared, returning the path and line of each
+     * declaration. With prefix=true, finds declarations whose names start with name, ignoring case.
+     */
+    @GET
+    @Path("/symbols")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response findSymbols(@QueryParam("name") String name,
+                                @QueryParam("prefix") @DefaultValue("false") boolean prefix,
+                                @QueryParam("kind") String kind,
+                                @QueryParam("limit") @DefaultValue("20") int limit) {
+        if (name == null || name.length() == 0)
+            throw new BadRequestException("name parameter must be supplied");
+        if (kind != null && !SymbolExtractor.KINDS.contains(kind))
+            throw new BadRequestException("kind must be one of " + String.join(", ", new TreeSet<String>(SymbolExtractor.KINDS)));
+        if (limit < 1 || limit > 100)
+            throw new BadRequestException("limit must be between 1 and 100");
+        try {
+            SearchEngine engine = SearchEngine.getInstance();
+            return Response.ok(engine.findSymbols(name, prefix, kind, limit)).build();
+        }
+        catch (IOException ex) {
+            throw new InternalServerErrorException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Returns indexing and search metrics in the Prometheus text format. The same metrics are available through JMX.
+     */
+    @GET
+    @Path("/metrics")
+    @Produces("text/plain; version=0.0.4; charset=utf-8")
+    public String getMetrics() {
+        try {
+            return SearchEngine.getInstance().getMetrics().toPrometheusText();
+        }
+        catch (IOException ex) {
+            throw new InternalServerErrorException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Returns a page of results as a JSON array. The total number of hits is returned in the X-Total-Hits header,
+     * and if there are more results, a cursor for the next page is returned in the X-Next-After header.
+     * If stream is true, results are written to the response as they are loaded instead of being collected first.
+     * If snippets is greater than zero, each result includes up to that many matching lines.
+     * Mode can be text (query parser syntax, the default), substring (literal text) or regex (Java regular expression).
+     * When identical files are indexed once (eureka.index.dedup), each copy is a result of its own, unless group is
+     * true, in which case the other paths of each result are returned in its copies.
+     */
     @GET
     @Path("/search")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response search(@QueryParam("query") String query) {
+    public Response search(@QueryParam("query") String query,
+                           @QueryParam("mode") @DefaultValue("text") String mode,
+                           @QueryParam("ext") List<String> extensions,
+                           @QueryParam("folder") String folder,
+                           @QueryParam("exclude") List<String> excludedFolders,
+                           @QueryParam("offset") @DefaultValue("0") int offset,
+                           @QueryParam("limit") @DefaultValue("1000") int limit,
+                           @QueryParam("after") String after,
+                           @QueryParam("snippets") @DefaultValue("0") int snippets,
+                           @QueryParam("stream") @DefaultValue("false") boolean stream,
+                           @QueryParam("group") @DefaultValue("false") boolean group) {
         if (query == null || query.length() == 0) {
             throw new BadRequestException("query parameter must be supplied");
         }
+        SearchOptions options = new SearchOptions();
+        try {
+            options.mode = SearchOptions.Mode.valueOf(mode.toUpperCase());
+        }
+        catch (IllegalArgumentException ex) {
+            throw new BadRequestException("mode must be text, substring or regex");
+        }
+        options.extensions = extensions;
+        options.folder = folder;
+        options.excludedFolders = excludedFolders;
+        options.offset = offset;
+        options.limit = limit;
+        options.after = after;
+        options.snippets = snippets;
+        options.groupCopies = group;
+        options.stream = stream;
         try {
             SearchEngine engine = SearchEngine.getInstance();
-            List<SearchResult> results = engine.performSearch(query);
-            return Response.ok(results).build();
+            final SearchHits hits = engine.performSearch(query, options);
+            Response.ResponseBuilder builder;
+            if (stream) {
+                builder = Response.ok(new StreamingOutput() {
+                    @Override
+                    public void write(OutputStream output) throws IOException {
+                        try (JsonGenerator generator = mapper.getFactory().createGenerator(output)) {
+                            generator.writeStartArray();
+                            hits.forEach(result -> generator.writeObject(result));
+                            generator.writeEndArray();
+                        }
+                        finally {
+                            hits.close();
+                        }
+                    }
+                });
+            }
+            else {
+                try {
+                    builder = Response.ok(hits.toList());
+                }
+                finally {
+                    hits.close();
+                }
+            }
+            builder.header("X-Total-Hits", hits.getTotalHits());
+            String next = hits.getNextCursor();
+            if (next != null)
+                builder.header("X-Next-After", next);
+            return builder.build();
+        }
+        catch (IllegalArgumentException ex) {
+            throw new BadRequestException(ex.getMessage());
         }
         catch (IOException ex) {
             throw new InternalServerErrorException(ex.getMessage());
@@ -98,58 +269,39 @@ public class SearchService {
         }
     }
 
+    /**
+     * Streams indexing progress as server-sent events until indexing finishes. See ProgressBroadcaster for the events sent.
+     */
     @GET
     @Path("/progress")
     @Produces(SseFeature.SERVER_SENT_EVENTS)
     public EventOutput getIndexingProgress() {
-        final EventOutput eventOutput = new EventOutput();
-        new Thread(new Runnable() {
-            @Override
-            public void run() {
-                try {
-                    for ( ; ; ) {
-                        try { Thread.sleep(100); } catch (InterruptedException ex) {}
-                        SearchEngine engine = SearchEngine.getInstance();
-                        String currentFile = engine.getCurrentlyIndexing();
-                        if (currentFile == null)
-                            break;
-                        eventOutput.write(new OutboundEvent.Builder().name("message").data(String.class, currentFile).build());
-                    }
-                }
-                catch (org.apache.catalina.connector.ClientAbortException ex) {
-                    System.out.println("getIndexingProgress: Client has closed connection.");
-                }
-                catch (IOException ex) {
-                    throw new RuntimeException("Error occured when writing event.", ex);
-                }
-                finally {
-                    try {
-                        eventOutput.close();
-                    }
-                    catch (IOException ex) {
-                        throw new RuntimeException("Error occured when closing event output.", ex);
-                    }
-                }
-            }
-        }).start();
-        return eventOutput;
+        try {
+            return getProgressBroadcaster().subscribe();
+        }
+        catch (IOException ex) {
+            throw new InternalServerErrorException(ex.getMessage());
+        }
     }
 
-    private void startIndexingThread(IndexRequest indexRequest) {
-        Thread thread = new Thread() {
-            public void run() {
-                try {
-                    SearchEngine engine = SearchEngine.getInstance();
-                    engine.setIndexableExtensions(indexRequest.getIndexableExtensions());
-                    engine.setSkippableFolders(indexRequest.getSkippableFolders());
-                    engine.addFolderToIndex(indexRequest.getPath());
-                }
-                catch (IOException ex) {
-                    System.out.println(ex.getMessage());
-                }
-            }
-        };
-        thread.start();
+    private static synchronized ProgressBroadcaster getProgressBroadcaster() throws IOException {
+        SearchEngine engine = SearchEngine.getInstance();
+        // The engine is replaced when it is shut down and started again.
+        if (progressBroadcaster != null && !progressBroadcaster.isFor(engine))
+            closeProgressBroadcaster();
+        if (progressBroadcaster == null)
+            progressBroadcaster = new ProgressBroadcaster(engine);
+        return progressBroadcaster;
+    }
+
+    /**
+     * Disconnects progress subscribers and stops the broadcaster's thread. Called when the web service is undeployed.
+     */
+    static synchronized void closeProgressBroadcaster() {
+        if (progressBroadcaster != null) {
+            progressBroadcaster.close();
+            progressBroadcaster = null;
+        }
     }
 
     @POST
@@ -168,59 +320,262 @@ public class SearchService {
         if (!Files.isDirectory(folderPath)) {
             throw new BadRequestException("Supplied path does not point to a folder.");
         }
-        startIndexingThread(indexRequest);
-        return Response.ok("{\"indexingStarted\": true}").build();
+        try {
+            IndexingJob job = getJobScheduler().submit(indexRequest);
+            Map<String, Object> result = new LinkedHashMap<String, Object>();
+            result.put("indexingStarted", true);
+            result.put("jobId", job.id);
+            result.put("state", job.state.name());
+            return Response.ok(result).build();
+        }
+        catch (RejectedExecutionException ex) {
+            throw new ServiceUnavailableException("Too many indexing jobs are waiting. Try again later.");
+        }
+        catch (IOException ex) {
+            throw new InternalServerErrorException(ex.getMessage());
+        }
     }
 
+    private static IndexingJobScheduler getJobScheduler() throws IOException {
+        return SearchEngine.getInstance().getJobScheduler();
+    }
+
+    /**
+     * Returns indexing jobs that are queued, running, or have recently finished, oldest first.
+     */
     @GET
-    @Produces(MediaType.TEXT_PLAIN)
+    @Path("/jobs")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getJobs() {
+        try {
+            List<JobStatus> statuses = new ArrayList<JobStatus>();
+            for (IndexingJob job : getJobScheduler().getJobs()) {
+                statuses.add(job.getStatus());
+            }
+            return Response.ok(statuses).build();
+        }
+        catch (IOException ex) {
+            throw new InternalServerErrorException(ex.getMessage());
+        }
+    }
+
+    @GET
+    @Path("/jobs/{id}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getJob(@PathParam("id") String id) {
+        try {
+            IndexingJob job = getJobScheduler().getJob(id);
+            if (job == null)
+                throw new NotFoundException("There is no indexing job with that id.");
+            return Response.ok(job.getStatus()).build();
+        }
+        catch (IOException ex) {
+            throw new InternalServerErrorException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Cancels an indexing job. A running job may take a moment to stop; poll the job to see when it has.
+     */
+    @DELETE
+    @Path("/jobs/{id}")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response cancelJob(@PathParam("id") String id) {
+        try {
+            IndexingJob job = getJobScheduler().cancel(id);
+            if (job == null)
+                throw new NotFoundException("There is no indexing job with that id.");
+            return Response.ok(job.getStatus()).build();
+        }
+        catch (IOException ex) {
+            throw new InternalServerErrorException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Returns the index shards, one per indexed root folder.
+     */
+    @GET
+    @Path("/shards")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getShards() {
+        try {
+            return Response.ok(SearchEngine.getInstance().getShardStatuses()).build();
+        }
+        catch (IOException ex) {
+            throw new InternalServerErrorException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Deletes the shard for one root folder, leaving the other shards alone.
+     */
+    @DELETE
+    @Path("/shards")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response dropShard(@QueryParam("root") String root) {
+        if (root == null || root.length() == 0)
+            throw new BadRequestException("root parameter must be supplied");
+        try {
+            if (!SearchEngine.getInstance().dropShard(root))
+                throw new NotFoundException("There is no shard with that root.");
+            return Response.ok("{\"message\": \"Shard deleted successfully.\"}").build();
+        }
+        catch (IOException ex) {
+            throw new InternalServerErrorException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Empties the shard for one root folder and indexes the folder again, with the settings it was last indexed with.
+     */
+    @POST
+    @Path("/shards/rebuild")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response rebuildShard(@QueryParam("root") String root) {
+        if (root == null || root.length() == 0)
+            throw new BadRequestException("root parameter must be supplied");
+        if (!Files.isDirectory(Paths.get(root)))
+            throw new BadRequestException("Supplied root does not point to a folder.");
+        try {
+            IndexRequest indexRequest = SearchEngine.getInstance().getShardRequest(root);
+            if (indexRequest == null)
+                throw new NotFoundException("There is no shard with that root.");
+            indexRequest.setIncremental(false);
+            IndexingJob job = getJobScheduler().submit(indexRequest, IndexingJob.Kind.REBUILD);
+            Map<String, Object> result = new LinkedHashMap<String, Object>();
+            result.put("indexingStarted", true);
+            result.put("jobId", job.id);
+            result.put("state", job.state.name());
+            return Response.ok(result).build();
+        }
+        catch (RejectedExecutionException ex) {
+            throw new ServiceUnavailableException("Too many indexing jobs are waiting. Try again later.");
+        }
+        catch (IOException ex) {
+            throw new InternalServerErrorException(ex.getMessage());
+        }
+    }
+
+    /**
+     * Starts merging index segments in the background, unless that is already in progress, and returns its status.
+     * With maxSegments=0 only segments with deleted files are merged.
+     */
+    @POST
+    @Path("/optimize")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response optimizeIndex(@QueryParam("maxSegments") @DefaultValue("1") int maxSegments) {
+        if (maxSegments < 0)
+            throw new BadRequestException("maxSegments must not be negative");
+        try {
+            return Response.ok(SearchEngine.getInstance().optimizeIndex(maxSegments)).build();
+        }
+        catch (IOException ex) {
+            throw new InternalServerErrorException(ex.getMessage());
+        }
+    }
+
+    @GET
+    @Path("/optimize")
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response getOptimizeStatus() {
+        try {
+            return Response.ok(SearchEngine.getInstance().getOptimizeStatus()).build();
+        }
+        catch (IOException ex) {
+            throw new InternalServerErrorException(ex.getMessage());
+        }
+    }
+
+    @GET
+    @Produces(ContentResponses.TEXT_UTF8)
     @Path("/file")
-    public String getFileContents(@QueryParam("path") String path) {
+    public Response getFileContents(@QueryParam("path") String path,
+                                    @HeaderParam("Range") String range,
+                                    @HeaderParam("If-Range") String ifRange,
+                                    @Context Request request) {
         if (path == null)
             throw new BadRequestException("Path must be specified");
         if (!path.startsWith("/projects"))
             throw new BadRequestException("Path must start with /projects");
+        final java.nio.file.Path filePath = Paths.get(path);
+        BasicFileAttributes attrs;
         try {
-            return new String(Files.readAllBytes(Paths.get(path)), StandardCharsets.UTF_8);
+            attrs = Files.readAttributes(filePath, BasicFileAttributes.class);
         }
         catch (IOException ex) {
             throw new BadRequestException("The file could not be opened.");
         }
-    }
-
-    private List<String> getItemsInFolder(String parentFolder) throws IOException {
-        List<String> items = new ArrayList<String>();
-        final java.nio.file.Path folderPath = Paths.get(parentFolder);
-        Files.walkFileTree(folderPath, new SimpleFileVisitor<java.nio.file.Path>() {
-            @Override
-            public FileVisitResult preVisitDirectory(java.nio.file.Path path, BasicFileAttributes attrs) throws IOException {
-                String folder = path.toString();
-                items.add(folder + "/");
-                return folder.equals(parentFolder) ? FileVisitResult.CONTINUE : FileVisitResult.SKIP_SUBTREE;
-            }
-
+        if (!attrs.isRegularFile())
+            throw new BadRequestException("The file could not be opened.");
+        long lastModified = attrs.lastModifiedTime().toMillis();
+        EntityTag etag = new EntityTag(Long.toHexString(attrs.size()) + "-" + Long.toHexString(lastModified));
+        ContentResponses.ContentWriter writer = new ContentResponses.ContentWriter() {
             @Override
-            public FileVisitResult visitFile(java.nio.file.Path filePath, BasicFileAttributes attrs) throws IOException {
-                items.add(filePath.toString());
-                return FileVisitResult.CONTINUE;
+            public void write(OutputStream out, long offset, long count) throws IOException {
+                // Let the operating system copy the file to the response where it can.
+                try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+                    WritableByteChannel target = Channels.newChannel(out);
+                    while (count > 0) {
+                        long n = channel.transferTo(offset, count, target);
+                        if (n <= 0)
+                            throw new IOException("File was truncated while being read.");
+                        offset += n;
+                        count -= n;
+                    }
+                }
             }
-        });
-        return items;
+        };
+        return ContentResponses.build(request, range, ifRange, attrs.size(), etag, new Date(lastModified), ContentResponses.TEXT_UTF8, writer, null);
     }
 
+    /**
+     * Lists one level of a folder, folders first and then by name unless sort is size or modified. Returns the
+     * paths of the folder itself and its entries, with a slash after folders; or if details is true, a
+     * FolderContents with the size, modified time, child count and indexed flag of each entry. The number of
+     * entries is returned in the X-Total-Count header. Listings are cached; refresh=true lists the folder again.
+     */
     @GET
     @Path("/foldercontents")
     @Produces(MediaType.APPLICATION_JSON)
-    public Response getFolderContents(@QueryParam("path") String path) {
+    public Response getFolderContents(@QueryParam("path") String path,
+                                      @QueryParam("details") @DefaultValue("false") boolean details,
+                                      @QueryParam("sort") @DefaultValue("name") String sort,
+                                      @QueryParam("desc") @DefaultValue("false") boolean descending,
+                                      @QueryParam("offset") @DefaultValue("0") int offset,
+                                      @QueryParam("limit") @DefaultValue("0") int limit,
+                                      @QueryParam("refresh") @DefaultValue("false") boolean refresh) {
         if (path == null)
             throw new BadRequestException("Path must be specified");
+        if (!sort.equals("name") && !sort.equals("size") && !sort.equals("modified"))
+            throw new BadRequestException("sort must be name, size or modified");
+        if (offset < 0 || limit < 0)
+            throw new BadRequestException("offset and limit must not be negative");
+        if (!path.startsWith("/projects")) {
+            // Only folders under /projects can be browsed.
+            if (!details)
+                return Response.ok(Arrays.asList("/projects/")).build();
+            path = "/projects";
+        }
+        java.nio.file.Path folderPath = Paths.get(path);
+        if (!Files.isDirectory(folderPath))
+            throw new NotFoundException("There is no folder at that path.");
         try {
-            List<String> items;
-            if (!path.startsWith("/projects"))
-                items = Arrays.asList("/projects/");
-            else
-                items = getItemsInFolder(path);
-            return Response.ok(items).build();
+            FolderContents contents = SearchEngine.getInstance().listFolder(folderPath, sort, descending, offset, limit, refresh);
+            Object entity;
+            if (details) {
+                entity = contents;
+            }
+            else {
+                List<String> items = new ArrayList<String>();
+                if (offset == 0)
+                    items.add(contents.path + "/");
+                for (FolderEntry entry : contents.entries) {
+                    items.add(entry.folder ? entry.path + "/" : entry.path);
+                }
+                entity = items;
+            }
+            return Response.ok(entity).header("X-Total-Count", contents.total).build();
         }
         catch (IOException ex) {
             throw new InternalServerErrorException(ex.getMessage());
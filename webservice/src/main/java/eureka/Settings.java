@@ -0,0 +1,43 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Tunables read from Java system properties, for example -Deureka.indexing.threads=8.
+ * In the docker image these can be supplied through the CATALINA_OPTS environment variable.
+ */
+public class Settings {
+    private static final Logger log = Logger.getLogger(Settings.class);
+
+    private Settings() {
+    }
+
+    public static String getString(String name, String defaultValue) {
+        String value = System.getProperty(name);
+        return (value == null || value.trim().length() == 0) ? defaultValue : value.trim();
+    }
+
+    public static int getInt(String name, int defaultValue) {
+        return (int) getLong(name, defaultValue);
+    }
+
+    public static long getLong(String name, long defaultValue) {
+        String value = getString(name, null);
+        if (value == null)
+            return defaultValue;
+        try {
+            return Long.parseLong(value);
+        }
+        catch (NumberFormatException ex) {
+            log.warn("ignoring invalid value for " + name + ": " + value);
+            return defaultValue;
+        }
+    }
+
+    public static boolean getBoolean(String name, boolean defaultValue) {
+        String value = getString(name, null);
+        return value == null ? defaultValue : Boolean.parseBoolean(value);
+    }
+}
@@ -0,0 +1,325 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.log4j.Logger;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ReferenceManager;
+import org.apache.lucene.search.SearcherManager;
+import org.apache.lucene.store.AlreadyClosedException;
+
+/**
+ * Keeps one IndexShard per indexed root folder, in subfolders of the shards folder.
+ * <p>
+ * A file belongs to the shard with the longest root that contains it. Indexing a folder that is not under
+ * any root creates a shard for it; if that folder contains existing roots, their shards are set aside while
+ * the new shard indexes their files again, and dropped once it has (see dropSuperseded and restoreSuperseded).
+ * <p>
+ * Searches see all shards at once through a MultiReader, searched in slices on the thread pool of a
+ * ConcurrentSearcherFactory so that one query can use several cores.
+ */
+class ShardRegistry implements Closeable, ReferenceManager.RefreshListener {
+    private static final Logger log = Logger.getLogger(ShardRegistry.class);
+
+    private final Path shardsPath;
+    private final Analyzer analyzer;
+    private final ReferenceManager.RefreshListener metrics;
+    private final ConcurrentSearcherFactory searcherFactory;
+    private final AtomicLong generation = new AtomicLong();
+    // Copy on write, sorted by root, longest first where one root contains another.
+    private volatile List<IndexShard> shards = Collections.emptyList();
+    // Shards under the root of a new shard, which are neither searched nor written while it is being indexed.
+    private final Map<IndexShard, List<IndexShard>> superseded = new HashMap<IndexShard, List<IndexShard>>();   // guarded by this
+
+    /**
+     * @param warmer Warms up each new searcher of a shard before it is used, or null.
+     */
+    ShardRegistry(Path shardsPath, Analyzer analyzer, ReferenceManager.RefreshListener metrics, ConcurrentSearcherFactory.Warmer warmer) {
+        this.shardsPath = shardsPath;
+        this.analyzer = analyzer;
+        this.metrics = metrics;
+        this.searcherFactory = new ConcurrentSearcherFactory(warmer);
+    }
+
+    /**
+     * Opens the shards that were created earlier.
+     */
+    synchronized void open() throws IOException {
+        Files.createDirectories(shardsPath);
+        List<IndexShard> opened = new ArrayList<IndexShard>();
+        try (DirectoryStream<Path> directories = Files.newDirectoryStream(shardsPath)) {
+            for (Path directory : directories) {
+                if (!Files.isDirectory(directory))
+                    continue;
+                Path root = IndexShard.readRoot(directory);
+                if (root == null) {
+                    log.warn("ignoring " + directory + " because it is not an index shard");
+                    continue;
+                }
+                opened.add(new IndexShard(directory, root, analyzer, searcherFactory, metrics, this));
+            }
+        }
+        setShards(opened);
+        log.info("opened " + opened.size() + " index shards");
+    }
+
+    private void setShards(List<IndexShard> list) {
+        List<IndexShard> sorted = new ArrayList<IndexShard>(list);
+        // Reverse order puts /a/b before /a, so the first shard that contains a path is the most specific one.
+        sorted.sort((a, b) -> b.getRoot().compareTo(a.getRoot()));
+        shards = Collections.unmodifiableList(sorted);
+        generation.incrementAndGet();
+    }
+
+    List<IndexShard> getShards() {
+        return shards;
+    }
+
+    /**
+     * Returns the shard that the file or folder belongs to, or null if it is not under any root.
+     */
+    IndexShard find(Path path) {
+        for (IndexShard shard : shards) {
+            if (shard.contains(path))
+                return shard;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the shard for the specified root, creating it if the root is not under an existing root.
+     * Shards under the root are set aside until dropSuperseded or restoreSuperseded is called. There are
+     * only such shards for an existing root if it was not fully indexed when it was created.
+     */
+    synchronized IndexShard getOrCreate(Path root) throws IOException {
+        IndexShard shard = find(root);
+        if (shard != null && !shard.getRoot().equals(root))
+            return shard;
+        List<IndexShard> list = new ArrayList<IndexShard>();
+        List<IndexShard> children = new ArrayList<IndexShard>();
+        for (IndexShard existing : shards) {
+            if (existing == shard)
+                continue;
+            if (existing.getRoot().startsWith(root)) {
+                log.info("setting aside shard for " + existing.getRoot() + " because it is under " + root);
+                children.add(existing);
+            }
+            else {
+                list.add(existing);
+            }
+        }
+        if (shard == null) {
+            shard = new IndexShard(newDirectory(root), root, analyzer, searcherFactory, metrics, this);
+            log.info("created shard for " + root + " in " + shard.getDirectoryPath());
+        }
+        else if (children.isEmpty()) {
+            return shard;
+        }
+        list.add(shard);
+        setShards(list);
+        if (!children.isEmpty())
+            superseded.computeIfAbsent(shard, key -> new ArrayList<IndexShard>()).addAll(children);
+        return shard;
+    }
+
+    /**
+     * Drops the shards that were set aside for a new shard, once it has indexed their files. The values they
+     * saved, such as watched folders, are saved with the new shard on its next commit.
+     * @return False if no shards were set aside for it.
+     */
+    synchronized boolean dropSuperseded(IndexShard shard) throws IOException {
+        List<IndexShard> children = superseded.remove(shard);
+        if (children == null)
+            return false;
+        for (IndexShard child : children) {
+            log.info("dropping shard for " + child.getRoot() + " because " + shard.getRoot() + " has been indexed");
+            shard.inheritCommitData(child);
+            child.drop();
+        }
+        return true;
+    }
+
+    /**
+     * Puts back the shards that were set aside for a new shard that was not fully indexed, so that their
+     * files are found in them again. Returns their roots, under which the new shard's files should be deleted.
+     */
+    synchronized List<Path> restoreSuperseded(IndexShard shard) {
+        List<IndexShard> children = superseded.remove(shard);
+        if (children == null)
+            return Collections.emptyList();
+        List<IndexShard> list = new ArrayList<IndexShard>(shards);
+        List<Path> roots = new ArrayList<Path>();
+        for (IndexShard child : children) {
+            log.info("restoring shard for " + child.getRoot() + " because " + shard.getRoot() + " was not fully indexed");
+            list.add(child);
+            roots.add(child.getRoot());
+        }
+        setShards(list);
+        return roots;
+    }
+
+    /**
+     * Picks a directory name that is readable and unique: the root with punctuation replaced, and a hash.
+     */
+    private Path newDirectory(Path root) {
+        String name = root.toString().replaceAll("[^A-Za-z0-9._-]+", "_").replaceAll("^_+", "");
+        if (name.length() > 60)
+            name = name.substring(name.length() - 60);
+        name = name + "-" + Integer.toHexString(root.toString().hashCode());
+        Path directory = shardsPath.resolve(name);
+        for (int i = 2; Files.exists(directory); i++) {
+            directory = shardsPath.resolve(name + "-" + i);
+        }
+        return directory;
+    }
+
+    /**
+     * Closes the shard and deletes its files.
+     */
+    synchronized void drop(IndexShard shard) throws IOException {
+        List<IndexShard> list = new ArrayList<IndexShard>(shards);
+        if (list.remove(shard)) {
+            setShards(list);
+            shard.drop();
+            // Shards set aside for it are under its root too.
+            List<IndexShard> children = superseded.remove(shard);
+            if (children != null) {
+                for (IndexShard child : children) {
+                    child.drop();
+                }
+            }
+        }
+    }
+
+    synchronized void dropAll() throws IOException {
+        List<IndexShard> list = new ArrayList<IndexShard>(shards);
+        for (List<IndexShard> children : superseded.values()) {
+            list.addAll(children);
+        }
+        superseded.clear();
+        setShards(Collections.<IndexShard>emptyList());
+        for (IndexShard shard : list) {
+            shard.drop();
+        }
+    }
+
+    /**
+     * A number that changes whenever what searches can see changes: when a shard is refreshed, added or dropped.
+     */
+    long getGeneration() {
+        return generation.get();
+    }
+
+    @Override
+    public void beforeRefresh() {
+    }
+
+    @Override
+    public void afterRefresh(boolean didRefresh) {
+        if (didRefresh)
+            generation.incrementAndGet();
+    }
+
+    /**
+     * Acquires the current searcher of every shard, and returns a searcher over all of them.
+     * The caller must close the returned searcher.
+     */
+    Searcher acquire() throws IOException {
+        List<SearcherManager> managers = new ArrayList<SearcherManager>();
+        List<IndexSearcher> searchers = new ArrayList<IndexSearcher>();
+        try {
+            for (IndexShard shard : shards) {
+                SearcherManager manager = shard.getSearcherManager();
+                try {
+                    searchers.add(manager.acquire());
+                    managers.add(manager);
+                }
+                catch (AlreadyClosedException ex) {
+                    // The shard was dropped since the list was read.
+                }
+            }
+            IndexReader[] readers = new IndexReader[searchers.size()];
+            for (int i = 0; i < readers.length; i++) {
+                readers[i] = searchers.get(i).getIndexReader();
+            }
+            MultiReader reader = new MultiReader(readers, false);
+            return new Searcher(reader, searcherFactory.newSearcher(reader), managers, searchers);
+        }
+        catch (IOException | RuntimeException ex) {
+            for (int i = 0; i < managers.size(); i++) {
+                managers.get(i).release(searchers.get(i));
+            }
+            throw ex;
+        }
+    }
+
+    ConcurrentSearcherFactory getSearcherFactory() {
+        return searcherFactory;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        searcherFactory.close();
+        // Shards that were set aside are kept, because the shard that was to replace them was not indexed.
+        List<IndexShard> list = new ArrayList<IndexShard>(shards);
+        for (List<IndexShard> children : superseded.values()) {
+            list.addAll(children);
+        }
+        superseded.clear();
+        shards = Collections.emptyList();
+        for (IndexShard shard : list) {
+            shard.close();
+        }
+    }
+
+    /**
+     * A searcher over all shards. Closing it releases the searcher of each shard.
+     */
+    static class Searcher implements Closeable {
+        private final MultiReader reader;
+        private final IndexSearcher searcher;
+        private final List<SearcherManager> managers;
+        private final List<IndexSearcher> searchers;
+        private boolean closed;
+
+        private Searcher(MultiReader reader, IndexSearcher searcher, List<SearcherManager> managers, List<IndexSearcher> searchers) {
+            this.reader = reader;
+            this.searcher = searcher;
+            this.managers = managers;
+            this.searchers = searchers;
+        }
+
+        IndexSearcher getSearcher() {
+            return searcher;
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (closed)
+                return;
+            closed = true;
+            try {
+                reader.close();
+            }
+            finally {
+                for (int i = 0; i < managers.size(); i++) {
+                    managers.get(i).release(searchers.get(i));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,23 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+/**
+ * The state of the index shard for one indexed root folder.
+ */
+public class ShardStatus {
+    public String root;
+    /** Where the shard keeps its files. */
+    public String directory;
+    public long docCount;
+    public int segmentCount;
+    public long sizeBytes;
+
+    public ShardStatus(String root, String directory, long docCount, int segmentCount, long sizeBytes) {
+        this.root = root;
+        this.directory = directory;
+        this.docCount = docCount;
+        this.segmentCount = segmentCount;
+        this.sizeBytes = sizeBytes;
+    }
+}
@@ -0,0 +1,20 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+/**
+ * A line of a file that matches a query.
+ */
+public class Snippet {
+    /** 1-based line number. */
+    public int line;
+    public String text;
+    /** Start and end offsets of each match, relative to text. */
+    public int[][] highlights;
+
+    public Snippet(int line, String text, int[][] highlights) {
+        this.line = line;
+        this.text = text;
+        this.highlights = highlights;
+    }
+}
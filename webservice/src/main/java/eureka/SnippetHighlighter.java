@@ -0,0 +1,144 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+import java.io.IOException;
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.MultiDocValues;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.uhighlight.CustomSeparatorBreakIterator;
+import org.apache.lucene.search.uhighlight.Passage;
+import org.apache.lucene.search.uhighlight.PassageFormatter;
+import org.apache.lucene.search.uhighlight.UnifiedHighlighter;
+
+/**
+ * Finds the best matching lines of each hit. Match offsets come from the postings of the contents field,
+ * so files are not re-analyzed. File contents are not stored in the index, so they are read again, from disk
+ * or from git; a file whose size no longer matches the index is skipped, because its offsets can't be trusted.
+ */
+class SnippetHighlighter extends UnifiedHighlighter {
+    private static final int MAX_SNIPPET_LENGTH = 300;
+    private static final int MAX_CONTENT_LENGTH = Integer.MAX_VALUE - 1;
+
+    private final String contentsField;
+    private final ContentLoader contentLoader;
+    private final String sizeField;
+
+    /**
+     * Reads the contents of an indexed file, given its doc id.
+     */
+    interface ContentLoader {
+        byte[] load(int doc) throws IOException;
+    }
+
+    SnippetHighlighter(IndexSearcher searcher, Analyzer analyzer, String contentsField, ContentLoader contentLoader, String sizeField) {
+        super(searcher, analyzer);
+        this.contentsField = contentsField;
+        this.contentLoader = contentLoader;
+        this.sizeField = sizeField;
+        setMaxLength(MAX_CONTENT_LENGTH);
+    }
+
+    /**
+     * Returns up to maxSnippets matching lines for each of the docIds, in the same order as docIds.
+     */
+    @SuppressWarnings("unchecked")
+    List<List<Snippet>> getSnippets(Query query, int[] docIds, int maxSnippets) throws IOException {
+        int[] maxPassages = { maxSnippets };
+        Map<String, Object[]> highlights = highlightFieldsAsObjects(new String[] { contentsField }, query, docIds, maxPassages);
+        Object[] values = highlights.get(contentsField);
+        List<List<Snippet>> snippets = new ArrayList<List<Snippet>>(docIds.length);
+        for (int i = 0; i < docIds.length; i++) {
+            Object value = values == null ? null : values[i];
+            snippets.add(value == null ? Collections.<Snippet>emptyList() : (List<Snippet>) value);
+        }
+        return snippets;
+    }
+
+    @Override
+    protected BreakIterator getBreakIterator(String field) {
+        return new CustomSeparatorBreakIterator('\n');
+    }
+
+    @Override
+    protected int getMaxNoHighlightPassages(String field) {
+        return 0;
+    }
+
+    @Override
+    protected PassageFormatter getFormatter(String field) {
+        return new LinePassageFormatter();
+    }
+
+    @Override
+    protected List<CharSequence[]> loadFieldValues(String[] fields, DocIdSetIterator docIter, int cacheCharsThreshold) throws IOException {
+        List<CharSequence[]> values = new ArrayList<CharSequence[]>();
+        NumericDocValues sizes = MultiDocValues.getNumericValues(searcher.getIndexReader(), sizeField);
+        for (int doc = docIter.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = docIter.nextDoc()) {
+            long indexedSize = sizes != null && sizes.advanceExact(doc) ? sizes.longValue() : -1;
+            String content = "";
+            try {
+                byte[] bytes = contentLoader.load(doc);
+                if (bytes.length == indexedSize)
+                    content = ContentSniffer.decode(bytes);
+            }
+            catch (IOException ignore) {
+                // File or blob is gone; no snippets.
+            }
+            CharSequence[] fieldValues = new CharSequence[fields.length];
+            for (int i = 0; i < fields.length; i++) {
+                fieldValues[i] = content;
+            }
+            values.add(fieldValues);
+        }
+        return values;
+    }
+
+    /**
+     * Turns each passage (one line, given the break iterator above) into a Snippet with a line number.
+     */
+    private static class LinePassageFormatter extends PassageFormatter {
+        @Override
+        public Object format(Passage[] passages, String content) {
+            List<Snippet> snippets = new ArrayList<Snippet>(passages.length);
+            int line = 1;
+            int position = 0;
+            // Passages are in document order, so line numbers can be counted incrementally.
+            for (Passage passage : passages) {
+                int start = passage.getStartOffset();
+                for ( ; position < start; position++) {
+                    if (content.charAt(position) == '\n')
+                        line++;
+                }
+                int end = passage.getEndOffset();
+                while (end > start && (content.charAt(end - 1) == '\n' || content.charAt(end - 1) == '\r'))
+                    end--;
+                end = Math.min(end, start + MAX_SNIPPET_LENGTH);
+
+                List<int[]> highlights = new ArrayList<int[]>();
+                for (int i = 0; i < passage.getNumMatches(); i++) {
+                    int matchStart = passage.getMatchStarts()[i];
+                    int matchEnd = Math.min(passage.getMatchEnds()[i], end);
+                    if (matchStart >= end)
+                        continue;
+                    // An identifier and its parts overlap; report them as one range.
+                    int[] previous = highlights.isEmpty() ? null : highlights.get(highlights.size() - 1);
+                    if (previous != null && matchStart - start <= previous[1])
+                        previous[1] = Math.max(previous[1], matchEnd - start);
+                    else
+                        highlights.add(new int[] { matchStart - start, matchEnd - start });
+                }
+                snippets.add(new Snippet(line, content.substring(start, end), highlights.toArray(new int[highlights.size()][])));
+            }
+            return snippets;
+        }
+    }
+}
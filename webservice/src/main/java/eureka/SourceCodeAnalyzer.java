@@ -27,11 +27,27 @@ import org.apache.lucene.analysis.util.CharTokenizer;
 
 public class SourceCodeAnalyzer extends Analyzer
 {
+    private final boolean splitIdentifiers;
+
+    public SourceCodeAnalyzer()
+    {
+        this(true);
+    }
+
+    /**
+     * @param splitIdentifiers If true, identifiers are also indexed as their camelCase and snake_case parts.
+     */
+    public SourceCodeAnalyzer(boolean splitIdentifiers)
+    {
+        this.splitIdentifiers = splitIdentifiers;
+    }
+
     @Override
     protected TokenStreamComponents createComponents(String fieldName)
     {
         Tokenizer source = new SourceCodeTokenizer();
-        TokenStream filter = new LowerCaseFilter(source);
+        TokenStream filter = splitIdentifiers ? new IdentifierSplitFilter(source) : source;
+        filter = new LowerCaseFilter(filter);
         return new TokenStreamComponents(source, filter);
     }
 
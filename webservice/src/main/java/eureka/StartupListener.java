@@ -0,0 +1,45 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+import java.io.IOException;
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+import org.apache.log4j.BasicConfigurator;
+import org.apache.log4j.Logger;
+
+/**
+ * Sets up logging and brings the search engine online when the web service is deployed, instead of on
+ * the first request, so that opening the shards and warming up their searchers does not delay anyone's
+ * search. Set eureka.startup.eager to false to go back to starting on the first request.
+ */
+public class StartupListener implements ServletContextListener {
+    private static final Logger log = Logger.getLogger(StartupListener.class);
+    private static final boolean EAGER = Settings.getBoolean("eureka.startup.eager", true);
+
+    @Override
+    public void contextInitialized(ServletContextEvent event) {
+        BasicConfigurator.configure();
+        if (!EAGER)
+            return;
+        try {
+            SearchEngine.getInstance();
+        }
+        catch (IOException | RuntimeException ex) {
+            // The first request will try again.
+            log.error("could not bring search engine online", ex);
+        }
+    }
+
+    @Override
+    public void contextDestroyed(ServletContextEvent event) {
+        SearchService.closeProgressBroadcaster();
+        GitService.closeRepositoryPool();
+        try {
+            SearchEngine.shutdown();
+        }
+        catch (IOException ex) {
+            log.error("could not take search engine offline", ex);
+        }
+    }
+}
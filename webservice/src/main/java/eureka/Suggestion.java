@@ -0,0 +1,23 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+/**
+ * A completion for what the user has typed so far: a file name, a folder name or an identifier.
+ */
+public class Suggestion {
+    public String text;
+    /** file, folder or identifier */
+    public String kind;
+    /** A file or folder with this name, or null for identifiers. */
+    public String path;
+    /** Number of files the suggestion was seen in. */
+    public long weight;
+
+    public Suggestion(String text, String kind, String path, long weight) {
+        this.text = text;
+        this.kind = kind;
+        this.path = path;
+        this.weight = weight;
+    }
+}
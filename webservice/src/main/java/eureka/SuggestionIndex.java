@@ -0,0 +1,256 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import org.apache.log4j.Logger;
+import org.apache.lucene.search.suggest.Lookup;
+import org.apache.lucene.search.suggest.analyzing.AnalyzingInfixSuggester;
+import org.apache.lucene.store.AlreadyClosedException;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Completions for the search box: file names, folder names, and identifiers that occur in several files.
+ * <p>
+ * Names are collected as files are indexed and handed to an AnalyzingInfixSuggester, which keeps them in a
+ * small index in memory, when the main index is committed. The suggester indexes prefixes of each word,
+ * and of each camelCase and snake_case part, so "eng" completes "SearchEngine.java".
+ * <p>
+ * Weights are the number of times a name was seen while indexing, so they are approximate: re-indexing a
+ * file counts its names again, and deleted files are not subtracted. Clearing the index starts over.
+ */
+class SuggestionIndex implements Closeable {
+    static final String KIND_FILE = "file";
+    static final String KIND_FOLDER = "folder";
+    static final String KIND_IDENTIFIER = "identifier";
+    private static final int FILE = 1, FOLDER = 2, IDENTIFIER = 4;
+    private static final BytesRef[] CONTEXTS = { new BytesRef(KIND_FILE), new BytesRef(KIND_FOLDER), new BytesRef(KIND_IDENTIFIER) };
+    private static final int MIN_PREFIX_CHARS = 3;
+    private static final int MIN_IDENTIFIER_LENGTH = 4;
+    private static final int MAX_IDENTIFIER_LENGTH = 64;
+    private static final int MIN_IDENTIFIER_FILES = Settings.getInt("eureka.suggest.minIdentifierFiles", 2);
+    private static final int MAX_CANDIDATES = Settings.getInt("eureka.suggest.maxCandidates", 500000);
+    private static final Set<String> KEYWORDS = new HashSet<String>(Arrays.asList(
+        "abstract", "async", "await", "boolean", "break", "case", "catch", "char", "class", "const", "continue",
+        "default", "delete", "double", "else", "elif", "enum", "export", "extends", "false", "final", "finally",
+        "float", "from", "func", "function", "implements", "import", "include", "interface", "long", "namespace",
+        "null", "override", "package", "private", "protected", "public", "readonly", "return", "self", "short",
+        "static", "string", "struct", "super", "switch", "this", "throw", "throws", "true", "typeof", "undefined",
+        "using", "virtual", "void", "while", "with", "yield"));
+    private static final Logger log = Logger.getLogger(SuggestionIndex.class);
+
+    private final ConcurrentHashMap<String, Candidate> candidates = new ConcurrentHashMap<String, Candidate>();
+    private final Set<Candidate> changed = ConcurrentHashMap.newKeySet();
+    private volatile AnalyzingInfixSuggester suggester;
+    private volatile boolean built;
+
+    SuggestionIndex() throws IOException {
+        suggester = createSuggester();
+    }
+
+    private static AnalyzingInfixSuggester createSuggester() throws IOException {
+        // Names are indexed as whole words and as their parts, but what the user has typed is matched
+        // as typed, so that a partly typed identifier is a prefix of the whole identifier.
+        return new AnalyzingInfixSuggester(new ByteBuffersDirectory(), new SourceCodeAnalyzer(true), new SourceCodeAnalyzer(false),
+                                           MIN_PREFIX_CHARS, false, true, false, true);
+    }
+
+    /**
+     * Records the names in a file that has been indexed. Safe to call from several indexing threads.
+     * @param contents The contents of the file, or null to record just the file and folder names.
+     */
+    void fileIndexed(Path filePath, String contents) {
+        Path fileName = filePath.getFileName();
+        if (fileName == null)
+            return;
+        record(fileName.toString(), FILE, filePath.toString());
+        for (Path folder = filePath.getParent(); folder != null && folder.getFileName() != null; folder = folder.getParent()) {
+            record(folder.getFileName().toString(), FOLDER, folder.toString());
+        }
+        if (contents != null) {
+            for (String identifier : findIdentifiers(contents)) {
+                record(identifier, IDENTIFIER, null);
+            }
+        }
+    }
+
+    private void record(String text, int kind, String path) {
+        Candidate candidate = candidates.get(text);
+        if (candidate == null) {
+            if (kind == IDENTIFIER && candidates.size() >= MAX_CANDIDATES)
+                return;
+            candidate = candidates.computeIfAbsent(text, Candidate::new);
+        }
+        if ((candidate.kinds.get() & kind) == 0)
+            candidate.kinds.getAndUpdate(kinds -> kinds | kind);
+        candidate.weight.increment();
+        if (path != null)
+            candidate.path = path;
+        // Most names are seen again before the next flush; only queue them once.
+        if (!candidate.changed && candidate.markChanged())
+            changed.add(candidate);
+    }
+
+    /**
+     * Returns the distinct identifiers in some source code, leaving out short words, numbers and keywords.
+     */
+    static Set<String> findIdentifiers(String contents) {
+        Set<String> identifiers = new HashSet<String>();
+        int length = contents.length();
+        int i = 0;
+        while (i < length) {
+            char c = contents.charAt(i);
+            if (!isIdentifierStart(c)) {
+                i++;
+                continue;
+            }
+            int start = i++;
+            while (i < length && isIdentifierPart(contents.charAt(i))) {
+                i++;
+            }
+            // A word that runs on from a number, like the "px" in 10px, is not an identifier.
+            if (start > 0 && Character.isDigit(contents.charAt(start - 1)))
+                continue;
+            int wordLength = i - start;
+            if (wordLength >= MIN_IDENTIFIER_LENGTH && wordLength <= MAX_IDENTIFIER_LENGTH) {
+                String word = contents.substring(start, i);
+                if (!KEYWORDS.contains(word))
+                    identifiers.add(word);
+            }
+        }
+        return identifiers;
+    }
+
+    private static boolean isIdentifierStart(char c) {
+        return (c >= 'A' && c <= 'Z') || (c >= 'a' && c <= 'z') || c == '_';
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return isIdentifierStart(c) || (c >= '0' && c <= '9');
+    }
+
+    /**
+     * Makes the names recorded since the last call available to lookups. Called after each commit.
+     */
+    synchronized void flush() throws IOException {
+        if (changed.isEmpty())
+            return;
+        long start = System.nanoTime();
+        AnalyzingInfixSuggester target = suggester;
+        int count = 0;
+        for (Candidate candidate : changed) {
+            changed.remove(candidate);
+            candidate.changed = false;
+            int kinds = candidate.kinds.get();
+            long weight = candidate.weight.sum();
+            // Identifiers that have only been seen in one file are mostly noise.
+            if (kinds == IDENTIFIER && weight < MIN_IDENTIFIER_FILES)
+                continue;
+            BytesRef payload = candidate.path != null ? new BytesRef(candidate.path) : null;
+            target.update(new BytesRef(candidate.text), getContexts(kinds), weight, payload);
+            count++;
+        }
+        if (count > 0) {
+            target.refresh();
+            built = true;
+        }
+        log.debug("updated " + count + " suggestions in " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+
+    private static Set<BytesRef> getContexts(int kinds) {
+        Set<BytesRef> contexts = new HashSet<BytesRef>();
+        for (int i = 0; i < CONTEXTS.length; i++) {
+            if ((kinds & (1 << i)) != 0)
+                contexts.add(CONTEXTS[i]);
+        }
+        return contexts;
+    }
+
+    /**
+     * Returns up to limit completions of the specified text, most frequent first.
+     * @param kind file, folder or identifier, or null for any kind.
+     */
+    List<Suggestion> lookup(String text, String kind, int limit) throws IOException {
+        if (!built || text.trim().isEmpty())
+            return Collections.emptyList();
+        Set<BytesRef> contexts = kind != null ? Collections.singleton(new BytesRef(kind)) : null;
+        List<Lookup.LookupResult> results;
+        try {
+            results = suggester.lookup(text, contexts, limit, true, false);
+        }
+        catch (AlreadyClosedException ex) {
+            // The suggestions were cleared during the lookup.
+            return Collections.emptyList();
+        }
+        List<Suggestion> suggestions = new ArrayList<Suggestion>(results.size());
+        for (Lookup.LookupResult result : results) {
+            Candidate candidate = candidates.get(result.key.toString());
+            String resultKind = candidate != null ? getKind(candidate.kinds.get(), kind) : kind;
+            String path = result.payload != null ? result.payload.utf8ToString() : null;
+            suggestions.add(new Suggestion(result.key.toString(), resultKind, path, result.value));
+        }
+        return suggestions;
+    }
+
+    private static String getKind(int kinds, String requested) {
+        if (requested != null)
+            return requested;
+        if ((kinds & FILE) != 0)
+            return KIND_FILE;
+        if ((kinds & FOLDER) != 0)
+            return KIND_FOLDER;
+        return KIND_IDENTIFIER;
+    }
+
+    /**
+     * Forgets all suggestions.
+     */
+    synchronized void clear() throws IOException {
+        AnalyzingInfixSuggester old = suggester;
+        built = false;
+        suggester = createSuggester();
+        candidates.clear();
+        changed.clear();
+        old.close();
+    }
+
+    int size() {
+        return candidates.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        suggester.close();
+    }
+
+    private static class Candidate {
+        final String text;
+        final AtomicInteger kinds = new AtomicInteger();
+        final LongAdder weight = new LongAdder();
+        volatile String path;
+        volatile boolean changed;
+
+        Candidate(String text) {
+            this.text = text;
+        }
+
+        synchronized boolean markChanged() {
+            if (changed)
+                return false;
+            changed = true;
+            return true;
+        }
+    }
+}
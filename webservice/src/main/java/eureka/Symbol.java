@@ -0,0 +1,22 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+/**
+ * A declaration found in a file: a class, function, method, constant and so on. See SymbolExtractor.
+ */
+public class Symbol {
+    public String name;
+    /** class, interface, enum, struct, type, function, method or constant */
+    public String kind;
+    public String path;
+    /** 1-based line number of the declaration. */
+    public int line;
+
+    public Symbol(String name, String kind, String path, int line) {
+        this.name = name;
+        this.kind = kind;
+        this.path = path;
+        this.line = line;
+    }
+}
@@ -0,0 +1,220 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Finds declarations in source code, one line at a time, with a few regular expressions per language.
+ * This is not a parser: declarations that span lines, or that are written in unusual ways, are missed,
+ * and the occasional statement is taken for a declaration. It is meant to rank the likely definition of
+ * a name above its uses, cheaply enough to run on every file that is indexed.
+ * <p>
+ * Supports Java, C#, TypeScript, JavaScript, Go, Python, Rust and Ruby. Files in other languages have no symbols.
+ */
+class SymbolExtractor {
+    static final String CLASS = "class";
+    static final String INTERFACE = "interface";
+    static final String ENUM = "enum";
+    static final String STRUCT = "struct";
+    static final String TYPE = "type";
+    static final String FUNCTION = "function";
+    static final String METHOD = "method";
+    static final String CONSTANT = "constant";
+    static final Set<String> KINDS = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+        CLASS, INTERFACE, ENUM, STRUCT, TYPE, FUNCTION, METHOD, CONSTANT)));
+
+    // Lines longer than this are data, not declarations.
+    private static final int MAX_LINE_LENGTH = 500;
+    // Statements that look like declarations to the patterns below.
+    private static final Set<String> KEYWORDS = new HashSet<String>(Arrays.asList(
+        "if", "for", "foreach", "while", "switch", "catch", "using", "lock", "return", "new", "else",
+        "throw", "await", "yield", "typeof", "sizeof", "function", "super", "this", "do", "try"));
+    private static final String NOT_STATEMENT = "(?!(?:return|new|else|throw|case|await|yield|delete|goto)\\b)";
+
+    private static final Map<String, Language> languages = new HashMap<String, Language>();
+
+    static {
+        Language java = new Language(false,
+            rule("^\\s*(?:@\\w+\\s+)*(?:(?:public|protected|private|static|final|abstract|sealed|non-sealed|strictfp)\\s+)*(class|interface|enum|record)\\s+(\\w+)", null),
+            rule("^\\s*(?:(?:public|protected|private)\\s+)?(?:static\\s+final|final\\s+static)\\s+[\\w.<>\\[\\]?, ]+?\\s+([A-Z][A-Z0-9_]*)\\s*=", CONSTANT),
+            rule("^\\s*" + NOT_STATEMENT + "(?:(?:public|protected|private|static|final|abstract|synchronized|native|default|strictfp)\\s+)*(?:<[^>]*>\\s*)?[\\w.\\[\\]<>?]+\\s+(\\w+)\\s*\\(", METHOD));
+        languages.put(".java", java);
+
+        Language csharp = new Language(false,
+            rule("^\\s*(?:\\[[^\\]]*\\]\\s*)*(?:(?:public|protected|private|internal|static|abstract|sealed|partial|readonly|unsafe|new|ref)\\s+)*(class|interface|enum|struct|record)\\s+(\\w+)", null),
+            rule("^\\s*(?:(?:public|protected|private|internal|new)\\s+)*const\\s+[\\w.<>\\[\\]?]+\\s+(\\w+)\\s*=", CONSTANT),
+            rule("^\\s*" + NOT_STATEMENT + "(?:(?:public|protected|private|internal|static|virtual|override|abstract|sealed|async|extern|unsafe|new|partial|readonly)\\s+)*[\\w.\\[\\]<>?]+\\s+(\\w+)\\s*(?:<[^>]*>)?\\s*\\(", METHOD));
+        languages.put(".cs", csharp);
+
+        Language typescript = new Language(false,
+            rule("^\\s*(?:export\\s+)?(?:default\\s+)?(?:declare\\s+)?(?:abstract\\s+)?(class|interface|enum|type)\\s+([A-Za-z_$][\\w$]*)", null),
+            rule("^\\s*(?:export\\s+)?(?:default\\s+)?(?:declare\\s+)?(?:async\\s+)?function\\s*\\*?\\s*([A-Za-z_$][\\w$]*)", FUNCTION),
+            rule("^\\s*(?:export\\s+)?(?:const|let|var)\\s+([A-Za-z_$][\\w$]*)\\s*(?::[^=]+)?=\\s*(?:async\\s+)?(?:function\\b|\\([^)]*\\)\\s*(?::[^=]+)?=>|[A-Za-z_$][\\w$]*\\s*=>)", FUNCTION),
+            rule("^(?:export\\s+)?const\\s+([A-Za-z_$][\\w$]*)\\s*(?::[^=]+)?=", CONSTANT),
+            rule("^\\s+(?:(?:public|protected|private|static|async|readonly|abstract|override|get|set)\\s+)*([A-Za-z_$][\\w$]*)\\s*(?:<[^>]*>)?\\s*\\([^;]*\\)\\s*(?::\\s*[^{;=]+)?\\{\\s*$", METHOD));
+        languages.put(".ts", typescript);
+        languages.put(".tsx", typescript);
+        languages.put(".js", typescript);
+
+        Language go = new Language(false,
+            rule("^type\\s+(\\w+)\\s+struct\\b", STRUCT),
+            rule("^type\\s+(\\w+)\\s+interface\\b", INTERFACE),
+            rule("^type\\s+(\\w+)", TYPE),
+            rule("^func\\s+\\([^)]*\\)\\s*(\\w+)", METHOD),
+            rule("^func\\s+(\\w+)", FUNCTION),
+            rule("^const\\s+(\\w+)", CONSTANT));
+        // Names declared inside a const ( ... ) block.
+        go.blockStart = Pattern.compile("^const\\s*\\(\\s*$");
+        go.blockEntry = rule("^\\s+(\\w+)\\b", CONSTANT);
+        languages.put(".go", go);
+
+        Language python = new Language(true,
+            rule("^\\s*class\\s+(\\w+)", CLASS),
+            rule("^\\s+(?:async\\s+)?def\\s+(\\w+)", METHOD),
+            rule("^(?:async\\s+)?def\\s+(\\w+)", FUNCTION),
+            rule("^([A-Z][A-Z0-9_]*)\\s*(?::[^=]+)?=[^=]", CONSTANT));
+        languages.put(".py", python);
+
+        Language rust = new Language(false,
+            rule("^\\s*(?:pub(?:\\([^)]*\\))?\\s+)?(struct|enum|trait|type)\\s+(\\w+)", null),
+            rule("^\\s*(?:pub(?:\\([^)]*\\))?\\s+)?(?:const\\s+|async\\s+|unsafe\\s+|extern\\s+\"[^\"]*\"\\s+)*fn\\s+(\\w+)", FUNCTION),
+            rule("^\\s*(?:pub(?:\\([^)]*\\))?\\s+)?(?:const|static)\\s+([A-Z][A-Z0-9_]*)\\s*:", CONSTANT));
+        languages.put(".rs", rust);
+
+        Language ruby = new Language(true,
+            rule("^\\s*(class|module)\\s+(?:\\w+::)*(\\w+)", null),
+            rule("^\\s*def\\s+(?:self\\.)?(\\w+[?!=]?)", METHOD),
+            rule("^\\s*([A-Z][A-Z0-9_]*)\\s*=[^=]", CONSTANT));
+        languages.put(".rb", ruby);
+    }
+
+    private SymbolExtractor() {
+    }
+
+    private static class Rule {
+        final Pattern pattern;
+        // If null, the kind is the first group and the name the second.
+        final String kind;
+
+        Rule(Pattern pattern, String kind) {
+            this.pattern = pattern;
+            this.kind = kind;
+        }
+    }
+
+    private static Rule rule(String regex, String kind) {
+        return new Rule(Pattern.compile(regex), kind);
+    }
+
+    private static class Language {
+        final boolean hashComments;
+        final Rule[] rules;
+        Pattern blockStart;
+        Rule blockEntry;
+
+        Language(boolean hashComments, Rule... rules) {
+            this.hashComments = hashComments;
+            this.rules = rules;
+        }
+    }
+
+    /**
+     * Returns true if symbols are extracted from files with the specified extension, for example ".java".
+     */
+    static boolean supports(String extension) {
+        return extension != null && languages.containsKey(extension);
+    }
+
+    /**
+     * Returns the declarations in the contents of a file, in order. The path of each symbol is null.
+     */
+    static List<Symbol> extract(String extension, String contents) {
+        Language language = extension != null ? languages.get(extension) : null;
+        if (language == null)
+            return Collections.emptyList();
+        List<Symbol> symbols = new ArrayList<Symbol>();
+        boolean inComment = false;
+        boolean inBlock = false;
+        int lineNumber = 0;
+        for (int start = 0; start < contents.length(); ) {
+            int end = contents.indexOf('\n', start);
+            if (end == -1)
+                end = contents.length();
+            lineNumber++;
+            String line = contents.substring(start, Math.min(end, start + MAX_LINE_LENGTH + 1));
+            start = end + 1;
+            if (line.length() > MAX_LINE_LENGTH)
+                continue;
+            String trimmed = line.trim();
+            if (inComment) {
+                inComment = !trimmed.contains("*/");
+                continue;
+            }
+            if (language.hashComments ? trimmed.startsWith("#") : trimmed.startsWith("//") || trimmed.startsWith("*"))
+                continue;
+            if (!language.hashComments && trimmed.startsWith("/*")) {
+                inComment = !trimmed.contains("*/");
+                continue;
+            }
+            if (inBlock) {
+                if (trimmed.startsWith(")")) {
+                    inBlock = false;
+                }
+                else {
+                    addMatch(symbols, language.blockEntry, line, lineNumber);
+                }
+                continue;
+            }
+            if (language.blockStart != null && language.blockStart.matcher(line).find()) {
+                inBlock = true;
+                continue;
+            }
+            for (Rule rule : language.rules) {
+                if (addMatch(symbols, rule, line, lineNumber))
+                    break;
+            }
+        }
+        return symbols;
+    }
+
+    private static boolean addMatch(List<Symbol> symbols, Rule rule, String line, int lineNumber) {
+        Matcher matcher = rule.pattern.matcher(line);
+        if (!matcher.find())
+            return false;
+        String kind = rule.kind;
+        String name;
+        if (kind == null) {
+            kind = normalizeKind(matcher.group(1));
+            name = matcher.group(2);
+        }
+        else {
+            name = matcher.group(1);
+        }
+        if (KEYWORDS.contains(name))
+            return false;
+        symbols.add(new Symbol(name, kind, null, lineNumber));
+        return true;
+    }
+
+    private static String normalizeKind(String keyword) {
+        switch (keyword) {
+            case "record":
+            case "module":
+                return CLASS;
+            case "trait":
+                return INTERFACE;
+            default:
+                return keyword;
+        }
+    }
+}
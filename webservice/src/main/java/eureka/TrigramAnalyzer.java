@@ -0,0 +1,24 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.ngram.NGramTokenizer;
+
+/**
+ * Splits text into every overlapping sequence of three characters, including punctuation and whitespace,
+ * so that any substring of three or more characters can be looked up in the index.
+ */
+public class TrigramAnalyzer extends Analyzer {
+    public static final int GRAM_SIZE = 3;
+
+    @Override
+    protected TokenStreamComponents createComponents(String fieldName) {
+        Tokenizer source = new NGramTokenizer(GRAM_SIZE, GRAM_SIZE);
+        TokenStream filter = new LowerCaseFilter(source);
+        return new TokenStreamComponents(source, filter);
+    }
+}
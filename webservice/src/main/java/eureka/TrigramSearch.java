@@ -0,0 +1,295 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.ConstantScoreQuery;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+
+/**
+ * Substring and regular expression search, done in two steps (as in Google Code Search and Zoekt):
+ * the trigram index narrows the search to files that contain every trigram of the text that
+ * must be present, then each candidate file is read and checked with a regular expression.
+ */
+class TrigramSearch {
+    private static final int MAX_TRIGRAMS = 64;
+    private static final int MAX_SNIPPET_LENGTH = 300;
+    private static final Analyzer ANALYZER = new TrigramAnalyzer();
+
+    private final String trigramField;
+
+    TrigramSearch(String trigramField) {
+        this.trigramField = trigramField;
+    }
+
+    /**
+     * Returns the pattern that a file must match. Substrings are matched case-insensitively;
+     * regular expressions are case-sensitive unless they specify (?i).
+     * @throws java.util.regex.PatternSyntaxException if the regular expression is not valid.
+     */
+    static Pattern compile(String q, SearchOptions.Mode mode) {
+        if (mode == SearchOptions.Mode.SUBSTRING)
+            return Pattern.compile(Pattern.quote(q), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+        return Pattern.compile(q, Pattern.MULTILINE);
+    }
+
+    /**
+     * Returns a query for the files that may contain the substring or match the regular expression.
+     */
+    Query buildQuery(String q, SearchOptions.Mode mode) throws IOException {
+        List<String> literals = mode == SearchOptions.Mode.SUBSTRING ? Collections.singletonList(q) : getRequiredLiterals(q);
+        Set<String> trigrams = new LinkedHashSet<String>();
+        for (String literal : literals) {
+            addTrigrams(literal, trigrams);
+        }
+        if (trigrams.isEmpty()) {
+            // Nothing to narrow the search with; every file is a candidate.
+            return new MatchAllDocsQuery();
+        }
+        BooleanQuery.Builder builder = new BooleanQuery.Builder();
+        for (String trigram : trigrams) {
+            builder.add(new TermQuery(new Term(trigramField, trigram)), BooleanClause.Occur.FILTER);
+        }
+        return new ConstantScoreQuery(builder.build());
+    }
+
+    /**
+     * Adds the trigrams of a literal, analyzed the way the contents were indexed, so that they are lowercased
+     * and split by code point in the same way.
+     */
+    private void addTrigrams(String literal, Set<String> trigrams) throws IOException {
+        try (TokenStream stream = ANALYZER.tokenStream(trigramField, literal)) {
+            CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+            stream.reset();
+            while (trigrams.size() < MAX_TRIGRAMS && stream.incrementToken()) {
+                trigrams.add(term.toString());
+            }
+            stream.end();
+        }
+    }
+
+    /**
+     * Returns runs of literal text that every match of the regular expression must contain.
+     * Only text outside of groups is considered, and nothing is returned if the expression has a top-level
+     * alternation, so the result may miss some required text but never includes optional text.
+     */
+    static List<String> getRequiredLiterals(String regex) {
+        List<String> literals = new ArrayList<String>();
+        StringBuilder run = new StringBuilder();
+        int depth = 0;
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            char next = i + 1 < regex.length() ? regex.charAt(i + 1) : 0;
+            boolean optional = next == '?' || next == '*' || next == '{';
+            if (c == '\\' && next == 'Q') {
+                // Quoted text is literal up to \E, except that a quantifier after \E applies to its last character.
+                int end = regex.indexOf("\\E", i + 2);
+                String quoted = regex.substring(i + 2, end == -1 ? regex.length() : end);
+                i = end == -1 ? regex.length() : end + 1;
+                char following = i + 1 < regex.length() ? regex.charAt(i + 1) : 0;
+                boolean quantified = following == '?' || following == '*' || following == '{';
+                if (depth > 0) {
+                    flush(run, literals);
+                }
+                else if (quantified) {
+                    run.append(quoted, 0, Math.max(0, quoted.length() - 1));
+                    flush(run, literals);
+                }
+                else {
+                    run.append(quoted);
+                    if (following == '+')
+                        flush(run, literals);
+                }
+            }
+            else if (c == '\\' && Character.isLetterOrDigit(next)) {
+                // Character class such as \w or \p{Alpha}, a character code such as \x41, or a back reference.
+                flush(run, literals);
+                i = skipEscape(regex, i);
+            }
+            else if (c == '\\') {
+                if (next != 0 && depth == 0) {
+                    // Escaped punctuation, for example \. or \(
+                    char following = i + 2 < regex.length() ? regex.charAt(i + 2) : 0;
+                    if (following == '?' || following == '*' || following == '{') {
+                        flush(run, literals);
+                    }
+                    else {
+                        run.append(next);
+                        if (following == '+')
+                            flush(run, literals);
+                    }
+                }
+                else {
+                    flush(run, literals);
+                }
+                i++;
+            }
+            else if (c == '{') {
+                // The bounds of a quantifier, such as {1,10}.
+                flush(run, literals);
+                int end = regex.indexOf('}', i);
+                i = end == -1 ? regex.length() : end;
+            }
+            else if (c == '[') {
+                flush(run, literals);
+                i = skipCharacterClass(regex, i);
+            }
+            else if (c == '(') {
+                flush(run, literals);
+                depth++;
+            }
+            else if (c == ')') {
+                flush(run, literals);
+                depth = Math.max(0, depth - 1);
+            }
+            else if (c == '|') {
+                if (depth == 0)
+                    return new ArrayList<String>();
+                flush(run, literals);
+            }
+            else if (".^$?*+{}".indexOf(c) != -1 || depth > 0) {
+                flush(run, literals);
+            }
+            else if (optional) {
+                flush(run, literals);
+            }
+            else {
+                run.append(c);
+                if (next == '+')
+                    flush(run, literals);
+            }
+        }
+        flush(run, literals);
+        return literals;
+    }
+
+    private static void flush(StringBuilder run, List<String> literals) {
+        if (run.length() > 0) {
+            literals.add(run.toString());
+            run.setLength(0);
+        }
+    }
+
+    /**
+     * Returns the index of the last character of the escape sequence that starts with the backslash at start,
+     * where the backslash is followed by a letter or digit.
+     */
+    private static int skipEscape(String regex, int start) {
+        int i = start + 1;
+        char c = regex.charAt(i);
+        char next = i + 1 < regex.length() ? regex.charAt(i + 1) : 0;
+        switch (c) {
+            case 'p':
+            case 'P':
+            case 'N':
+            case 'x':
+                // \p{Alpha}, \N{name} and \x{1F600}; otherwise \pL and \x41.
+                if (next == '{')
+                    i = regex.indexOf('}', i);
+                else
+                    i += c == 'x' ? 2 : c == 'N' ? 0 : 1;
+                break;
+            case 'u':
+                i += 4;
+                break;
+            case 'c':
+                i += 1;
+                break;
+            case 'k':
+                if (next == '<')
+                    i = regex.indexOf('>', i);
+                break;
+            case '0':
+                // Octal: up to three digits.
+                int last = i + 3;
+                while (i < last && i + 1 < regex.length() && regex.charAt(i + 1) >= '0' && regex.charAt(i + 1) <= '7')
+                    i++;
+                break;
+            default:
+                // A back reference takes all the digits that follow.
+                if (Character.isDigit(c)) {
+                    while (i + 1 < regex.length() && Character.isDigit(regex.charAt(i + 1)))
+                        i++;
+                }
+                break;
+        }
+        return i < 0 ? regex.length() : Math.min(i, regex.length() - 1);
+    }
+
+    private static int skipCharacterClass(String regex, int start) {
+        int i = start + 1;
+        if (i < regex.length() && regex.charAt(i) == '^')
+            i++;
+        if (i < regex.length() && regex.charAt(i) == ']')
+            i++;
+        for ( ; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\')
+                i++;
+            else if (c == ']')
+                return i;
+        }
+        return regex.length();
+    }
+
+    /**
+     * Checks whether the contents of a candidate file really match. Returns null if they don't, otherwise up to
+     * maxSnippets matching lines. The contents are decoded in full, because the matcher needs random access.
+     */
+    static List<Snippet> findMatches(CharSequence content, Pattern pattern, int maxSnippets) {
+        Matcher matcher = pattern.matcher(content);
+        if (!matcher.find())
+            return null;
+        List<Snippet> snippets = new ArrayList<Snippet>();
+        List<int[]> highlights = new ArrayList<int[]>();
+        String text = null;
+        int line = 1;
+        int position = 0;
+        int lineStart = 0;
+        int lineEnd = -1;
+        do {
+            int matchStart = matcher.start();
+            if (matchStart > lineEnd) {
+                // Match is on a new line.
+                if (text != null)
+                    snippets.add(new Snippet(line, text, highlights.toArray(new int[highlights.size()][])));
+                highlights.clear();
+                if (snippets.size() >= maxSnippets)
+                    break;
+                for ( ; position < matchStart; position++) {
+                    if (content.charAt(position) == '\n')
+                        line++;
+                }
+                lineStart = matchStart;
+                while (lineStart > 0 && content.charAt(lineStart - 1) != '\n')
+                    lineStart--;
+                lineEnd = matchStart;
+                while (lineEnd < content.length() && content.charAt(lineEnd) != '\n')
+                    lineEnd++;
+                int textEnd = lineEnd > lineStart && content.charAt(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+                text = content.subSequence(lineStart, Math.min(textEnd, lineStart + MAX_SNIPPET_LENGTH)).toString();
+            }
+            int start = matchStart - lineStart;
+            if (start < text.length())
+                highlights.add(new int[] { start, Math.min(matcher.end() - lineStart, text.length()) });
+        } while (matcher.find());
+        if (text != null && snippets.size() < maxSnippets)
+            snippets.add(new Snippet(line, text, highlights.toArray(new int[highlights.size()][])));
+        return snippets;
+    }
+}
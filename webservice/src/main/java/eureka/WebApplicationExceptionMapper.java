@@ -6,6 +6,7 @@ import javax.ws.rs.ext.Provider;
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.BadRequestException;
 import javax.ws.rs.NotFoundException;
+import javax.ws.rs.ServiceUnavailableException;
 
 @Provider
 public class WebApplicationExceptionMapper extends WebApplicationException implements ExceptionMapper<WebApplicationException>
@@ -20,6 +21,8 @@ public class WebApplicationExceptionMapper extends WebApplicationException imple
             status = 400;
         else if (ex instanceof NotFoundException)
             status = 404;
+        else if (ex instanceof ServiceUnavailableException)
+            status = 503;
         else
             status = 500;
         return Response.status(status).entity(new ErrorResult(ex.getMessage())).type("application/json").build();
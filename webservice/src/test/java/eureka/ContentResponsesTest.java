@@ -0,0 +1,137 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.core.Variant;
+import org.junit.Test;
+
+public class ContentResponsesTest {
+    private static final long LENGTH = 100;
+    private static final EntityTag ETAG = new EntityTag("abc");
+
+    /** A request without preconditions, so that every response has content. */
+    private static final Request REQUEST = new Request() {
+        @Override
+        public String getMethod() {
+            return "GET";
+        }
+
+        @Override
+        public Variant selectVariant(List<Variant> variants) {
+            return null;
+        }
+
+        @Override
+        public Response.ResponseBuilder evaluatePreconditions(EntityTag eTag) {
+            return null;
+        }
+
+        @Override
+        public Response.ResponseBuilder evaluatePreconditions(Date lastModified) {
+            return null;
+        }
+
+        @Override
+        public Response.ResponseBuilder evaluatePreconditions(Date lastModified, EntityTag eTag) {
+            return null;
+        }
+
+        @Override
+        public Response.ResponseBuilder evaluatePreconditions() {
+            return null;
+        }
+    };
+
+    private final AtomicInteger closeCount = new AtomicInteger();
+
+    private Response build(String range, String ifRange) {
+        return ContentResponses.build(REQUEST, range, ifRange, LENGTH, ETAG, null, ContentResponses.TEXT_UTF8,
+            (out, offset, count) -> out.write(("[" + offset + "," + count + "]").getBytes()), closeCount::incrementAndGet);
+    }
+
+    private static String write(Response response) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(out);
+        return out.toString();
+    }
+
+    @Test
+    public void parsesSatisfiableRanges() {
+        assertArrayEquals(new long[] { 0, 9 }, ContentResponses.parseRange("bytes=0-9", LENGTH));
+        assertArrayEquals(new long[] { 90, 99 }, ContentResponses.parseRange("bytes=90-", LENGTH));
+        assertArrayEquals(new long[] { 90, 99 }, ContentResponses.parseRange("bytes=90-500", LENGTH));
+        assertArrayEquals(new long[] { 80, 99 }, ContentResponses.parseRange("bytes=-20", LENGTH));
+        assertArrayEquals(new long[] { 0, 99 }, ContentResponses.parseRange("bytes=-500", LENGTH));
+        assertArrayEquals(new long[] { 5, 5 }, ContentResponses.parseRange(" bytes= 5-5 ", LENGTH));
+    }
+
+    @Test
+    public void ignoresRangesThatAreNotSupportedOrInvalid() {
+        assertEquals(0, ContentResponses.parseRange("items=0-9", LENGTH).length);
+        assertEquals(0, ContentResponses.parseRange("bytes=0-9,20-29", LENGTH).length);
+        assertEquals(0, ContentResponses.parseRange("bytes=9-0", LENGTH).length);
+        assertEquals(0, ContentResponses.parseRange("bytes=5", LENGTH).length);
+        assertEquals(0, ContentResponses.parseRange("bytes=a-b", LENGTH).length);
+    }
+
+    @Test
+    public void rejectsUnsatisfiableRanges() {
+        assertNull(ContentResponses.parseRange("bytes=100-", LENGTH));
+        assertNull(ContentResponses.parseRange("bytes=200-300", LENGTH));
+        assertNull(ContentResponses.parseRange("bytes=-0", LENGTH));
+        assertNull(ContentResponses.parseRange("bytes=0-", 0));
+    }
+
+    @Test
+    public void rangeIsAnsweredWithPartialContent() throws IOException {
+        Response response = build("bytes=10-19", null);
+        assertEquals(206, response.getStatus());
+        assertEquals("bytes 10-19/100", response.getHeaderString("Content-Range"));
+        assertEquals("10", response.getHeaderString("Content-Length"));
+        assertEquals(0, closeCount.get());
+        assertEquals("[10,10]", write(response));
+        assertEquals(1, closeCount.get());
+    }
+
+    @Test
+    public void unsatisfiableRangeIsAnsweredWith416() {
+        Response response = build("bytes=100-", null);
+        assertEquals(416, response.getStatus());
+        assertEquals("bytes */100", response.getHeaderString("Content-Range"));
+        assertNull(response.getEntity());
+        // Nothing is written, so the content is released right away.
+        assertEquals(1, closeCount.get());
+    }
+
+    @Test
+    public void staleIfRangeGetsTheWholeContent() throws IOException {
+        Response response = build("bytes=10-19", "\"other\"");
+        assertEquals(200, response.getStatus());
+        assertNull(response.getHeaderString("Content-Range"));
+        assertEquals("[0,100]", write(response));
+
+        response = build("bytes=10-19", ETAG.toString());
+        assertEquals(206, response.getStatus());
+    }
+
+    @Test
+    public void ignoredRangeGetsTheWholeContent() throws IOException {
+        Response response = build("bytes=0-9,20-29", null);
+        assertEquals(200, response.getStatus());
+        assertEquals("100", response.getHeaderString("Content-Length"));
+        assertEquals("[0,100]", write(response));
+    }
+}
@@ -0,0 +1,93 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.WhitespaceTokenizer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionIncrementAttribute;
+import org.apache.lucene.analysis.tokenattributes.PositionLengthAttribute;
+import org.junit.Test;
+
+public class IdentifierSplitFilterTest {
+    private final Analyzer analyzer = new Analyzer() {
+        @Override
+        protected TokenStreamComponents createComponents(String fieldName) {
+            Tokenizer source = new WhitespaceTokenizer();
+            return new TokenStreamComponents(source, new IdentifierSplitFilter(source));
+        }
+    };
+
+    /**
+     * Returns each token as term/positionIncrement/positionLength/startOffset-endOffset.
+     */
+    private List<String> analyze(String text) throws IOException {
+        List<String> tokens = new ArrayList<String>();
+        try (TokenStream stream = analyzer.tokenStream("contents", text)) {
+            CharTermAttribute term = stream.addAttribute(CharTermAttribute.class);
+            PositionIncrementAttribute posInc = stream.addAttribute(PositionIncrementAttribute.class);
+            PositionLengthAttribute posLen = stream.addAttribute(PositionLengthAttribute.class);
+            OffsetAttribute offset = stream.addAttribute(OffsetAttribute.class);
+            stream.reset();
+            while (stream.incrementToken()) {
+                tokens.add(term + "/" + posInc.getPositionIncrement() + "/" + posLen.getPositionLength()
+                    + "/" + offset.startOffset() + "-" + offset.endOffset());
+            }
+            stream.end();
+        }
+        return tokens;
+    }
+
+    @Test
+    public void identifierSpansItsParts() throws IOException {
+        assertEquals(Arrays.asList(
+            "new/1/1/0-3",
+            "HttpRequestHandler/1/3/4-22",
+            "Http/0/1/4-8",
+            "Request/1/1/8-15",
+            "Handler/1/1/15-22",
+            "handler/1/1/23-30"),
+            analyze("new HttpRequestHandler handler"));
+    }
+
+    @Test
+    public void splitsAtUnderscoresAcronymsAndDigits() throws IOException {
+        assertEquals(Arrays.asList(
+            "max_value/1/2/0-9",
+            "max/0/1/0-3",
+            "value/1/1/4-9",
+            "HTTPRequest/1/2/10-21",
+            "HTTP/0/1/10-14",
+            "Request/1/1/14-21",
+            "utf8Decoder/1/3/22-33",
+            "utf/0/1/22-25",
+            "8/1/1/25-26",
+            "Decoder/1/1/26-33"),
+            analyze("max_value HTTPRequest utf8Decoder"));
+    }
+
+    @Test
+    public void identifiersWithOnePartAreUnchanged() throws IOException {
+        assertEquals(Arrays.asList("value/1/1/0-5", "_private/1/1/6-14", "URL/1/1/15-18"),
+            analyze("value _private URL"));
+    }
+
+    @Test
+    public void partsAreNotCarriedIntoTheNextStream() throws IOException {
+        // Stop after the whole identifier, before its parts.
+        try (TokenStream stream = analyzer.tokenStream("contents", "firstIdentifier")) {
+            stream.reset();
+            stream.incrementToken();
+        }
+        assertEquals(Arrays.asList("x/1/1/0-1"), analyze("x"));
+    }
+}
@@ -0,0 +1,140 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.lucene.search.ScoreDoc;
+import org.junit.After;
+import org.junit.Test;
+
+public class QueryResultCacheTest {
+    private static final int THREADS = 8;
+
+    private final IndexMetrics metrics = new IndexMetrics(null);
+    private final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+
+    @After
+    public void shutDown() {
+        executor.shutdownNow();
+    }
+
+    private static SearchHits newPage() throws IOException {
+        return new SearchHits(null, null, new ScoreDoc[0], 0, false, 0, "path").load();
+    }
+
+    /**
+     * Runs the same search on every thread at once, with a loader that blocks until all but the first
+     * search are waiting for it, or until all of them are running it if they don't wait.
+     */
+    private List<Future<SearchHits>> searchConcurrently(QueryResultCache cache, AtomicInteger loads, CountDownLatch release) {
+        List<Future<SearchHits>> results = new ArrayList<Future<SearchHits>>();
+        for (int i = 0; i < THREADS; i++) {
+            results.add(executor.submit(() -> cache.get(1, "query", () -> {
+                loads.incrementAndGet();
+                release.await();
+                return newPage();
+            })));
+        }
+        return results;
+    }
+
+    private void waitFor(Callable<Boolean> condition) throws Exception {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!condition.call()) {
+            if (System.nanoTime() > deadline)
+                fail("timed out");
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void identicalSearchesShareOneLoad() throws Exception {
+        QueryResultCache cache = new QueryResultCache(10, 1 << 20, true, metrics);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        List<Future<SearchHits>> results = searchConcurrently(cache, loads, release);
+        // Every search but the one that is loading counts as a hit before it starts waiting.
+        waitFor(() -> metrics.getQueryCacheHits() == THREADS - 1);
+        release.countDown();
+        SearchHits first = results.get(0).get(10, TimeUnit.SECONDS);
+        for (Future<SearchHits> result : results) {
+            assertSame(first, result.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1, loads.get());
+        assertEquals(1, metrics.getQueryCacheMisses());
+    }
+
+    @Test
+    public void withoutSingleFlightEachSearchLoads() throws Exception {
+        QueryResultCache cache = new QueryResultCache(10, 1 << 20, false, metrics);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        List<Future<SearchHits>> results = searchConcurrently(cache, loads, release);
+        waitFor(() -> loads.get() == THREADS);
+        release.countDown();
+        for (Future<SearchHits> result : results) {
+            result.get(10, TimeUnit.SECONDS);
+        }
+        assertEquals(THREADS, metrics.getQueryCacheMisses());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void failureIsSharedAndNotCached() throws Exception {
+        QueryResultCache cache = new QueryResultCache(10, 1 << 20, true, metrics);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        List<Future<SearchHits>> results = new ArrayList<Future<SearchHits>>();
+        for (int i = 0; i < THREADS; i++) {
+            results.add(executor.submit(() -> cache.get(1, "query", () -> {
+                loads.incrementAndGet();
+                release.await();
+                throw new IOException("disk error");
+            })));
+        }
+        waitFor(() -> metrics.getQueryCacheHits() == THREADS - 1);
+        release.countDown();
+        for (Future<SearchHits> result : results) {
+            try {
+                result.get(10, TimeUnit.SECONDS);
+                fail("expected the load to fail");
+            }
+            catch (ExecutionException ex) {
+                assertTrue(ex.getCause() instanceof IOException);
+                assertEquals("disk error", ex.getCause().getMessage());
+            }
+        }
+        assertEquals(1, loads.get());
+
+        // The next search runs again.
+        SearchHits page = newPage();
+        assertSame(page, cache.get(1, "query", () -> page));
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void newerVersionDropsOlderPages() throws Exception {
+        QueryResultCache cache = new QueryResultCache(10, 1 << 20, true, metrics);
+        SearchHits old = newPage();
+        assertSame(old, cache.get(1, "query", () -> old));
+        assertSame(old, cache.get(1, "query", () -> newPage()));
+        SearchHits current = newPage();
+        assertSame(current, cache.get(2, "query", () -> current));
+        assertEquals(1, cache.size());
+    }
+}
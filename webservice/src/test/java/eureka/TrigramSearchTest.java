@@ -0,0 +1,75 @@
+// Copyright (c) 2019-present, Rajeev-K.
+
+package eureka;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.junit.Test;
+
+public class TrigramSearchTest {
+    private static void assertLiterals(String regex, String... expected) {
+        assertEquals(regex, Arrays.asList(expected), TrigramSearch.getRequiredLiterals(regex));
+    }
+
+    @Test
+    public void plainTextIsOneLiteral() {
+        assertLiterals("getValue", "getValue");
+    }
+
+    @Test
+    public void metacharactersSplitLiterals() {
+        assertLiterals("foo.*bar", "foo", "bar");
+        assertLiterals("^import\\s+java$", "import", "java");
+        assertLiterals("[abc]def", "def");
+    }
+
+    @Test
+    public void optionalCharactersAreLeftOut() {
+        assertLiterals("colou?r", "colo", "r");
+        assertLiterals("ab*c", "a", "c");
+        assertLiterals("x{2,3}yz", "yz");
+    }
+
+    @Test
+    public void repeatedCharacterIsKeptOnce() {
+        assertLiterals("ab+c", "ab", "c");
+    }
+
+    @Test
+    public void topLevelAlternationHasNoRequiredLiterals() {
+        List<String> none = Collections.emptyList();
+        assertEquals(none, TrigramSearch.getRequiredLiterals("foo|bar"));
+    }
+
+    @Test
+    public void groupsAreLeftOut() {
+        assertLiterals("(foo|bar)baz", "baz");
+        assertLiterals("pre(fix)?post", "pre", "post");
+    }
+
+    @Test
+    public void escapedPunctuationIsLiteral() {
+        assertLiterals("foo\\.bar", "foo.bar");
+        assertLiterals("a\\(b\\)", "a(b)");
+        assertLiterals("foo\\.?bar", "foo", "bar");
+    }
+
+    @Test
+    public void escapeSequencesSplitLiterals() {
+        assertLiterals("foo\\d+bar", "foo", "bar");
+        assertLiterals("\\p{Alpha}abc", "abc");
+        assertLiterals("\\x41bc", "bc");
+        assertLiterals("\\u0041bc", "bc");
+        assertLiterals("(a)\\1bc", "bc");
+    }
+
+    @Test
+    public void quotedTextIsLiteral() {
+        assertLiterals("\\Qa.b*\\E", "a.b*");
+        assertLiterals("x\\Qab\\E?y", "xa", "y");
+        assertLiterals("\\Qunterminated.", "unterminated.");
+    }
+}